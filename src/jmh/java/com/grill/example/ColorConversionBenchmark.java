@@ -0,0 +1,102 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_NV12;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+
+/**
+ * Frames per second of the YUV to BGRA converters against libswscale on synthetic frames. The own converters
+ * split 720p and larger frames into stripes on the common pool, libswscale converts on the calling thread.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColorConversionBenchmark {
+
+    @Param({"sws", "scalar", "vector"})
+    public String converter;
+
+    @Param({"yuv420p", "nv12"})
+    public String pixelFormat;
+
+    @Param({"1920x1080", "3840x2160"})
+    public String resolution;
+
+    private FrameConverter frameConverter;
+    private AVFrame frame;
+    private BytePointer bgra;
+    private int bgraStride;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final String[] size = this.resolution.split("x");
+        final int width = Integer.parseInt(size[0]);
+        final int height = Integer.parseInt(size[1]);
+
+        this.frame = av_frame_alloc();
+        this.frame.width(width);
+        this.frame.height(height);
+        this.frame.format("nv12".equals(this.pixelFormat) ? AV_PIX_FMT_NV12 : AV_PIX_FMT_YUV420P);
+        if (av_frame_get_buffer(this.frame, 0) < 0) {
+            throw new IllegalStateException("Unable to allocate frame buffer");
+        }
+        final Random random = new Random(42);
+        final int planes = "nv12".equals(this.pixelFormat) ? 2 : 3;
+        for (int i = 0; i < planes; i++) {
+            final int rows = i == 0 ? height : (height + 1) / 2;
+            final ByteBuffer plane = this.frame.data(i).capacity((long) this.frame.linesize(i) * rows).asByteBuffer();
+            final byte[] row = new byte[this.frame.linesize(i)];
+            for (int y = 0; y < rows; y++) {
+                random.nextBytes(row);
+                plane.put(row);
+            }
+        }
+
+        this.bgraStride = width * 4;
+        this.bgra = new BytePointer((long) this.bgraStride * height);
+        this.frameConverter = switch (this.converter) {
+            case "sws" -> new SwsFrameConverter();
+            case "scalar" -> new ScalarFrameConverter(ForkJoinPool.commonPool());
+            case "vector" -> new VectorFrameConverter(ForkJoinPool.commonPool());
+            default -> throw new IllegalArgumentException("Unknown converter " + this.converter);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.frameConverter.close();
+        this.bgra.close();
+        av_frame_free(this.frame);
+    }
+
+    @Benchmark
+    public boolean convert() {
+        return this.frameConverter.convert(this.frame, this.bgra, this.bgraStride);
+    }
+}
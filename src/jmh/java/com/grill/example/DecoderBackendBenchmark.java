@@ -0,0 +1,127 @@
+package com.grill.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Throughput and per access unit latency of the {@link DecoderBackend} implementations on one thread, jcodec
+ * does not decode multi-threaded. That both produce the same frames is checked by JcodecDecoderBackendTest.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DecoderBackendBenchmark {
+
+    @Param({FFmpegDecoderBackend.NAME, JcodecDecoderBackend.NAME})
+    public String backend;
+
+    private final List<ByteBuffer> accessUnits = new ArrayList<>();
+    private final List<Boolean> keyFrames = new ArrayList<>();
+    private DecoderSettings settings;
+    private DecoderBackend decoder;
+    private int nextAccessUnit;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final Path file = Paths.get(System.getProperty("benchmark.file", EncodedAccessUnits.DEFAULT_FILE));
+        try (final AnnexBReader reader = new AnnexBReader(file)) {
+            while (reader.nextAccessUnit()) {
+                final byte[] data = new byte[reader.size()];
+                reader.data().get(data);
+                final ByteBuffer accessUnit = ByteBuffer.allocateDirect(data.length);
+                accessUnit.put(data).flip();
+                this.accessUnits.add(accessUnit);
+                this.keyFrames.add(reader.isKeyFrame());
+            }
+        }
+        this.settings = new DecoderSettings().hwAccel(false).threadCount(1);
+        final H264ParameterSets parameterSets = H264ParameterSets.scan(file, 16);
+        if (parameterSets != null) {
+            this.settings.parameterSets(parameterSets);
+        }
+        this.decoder = DecoderBackend.open(this.backend, this.settings);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.decoder.close();
+    }
+
+    /**
+     * Decodes the whole stream including the drain at the end.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long decodeStream(final FrameCounter counter) {
+        final long frames = DecoderBackendBenchmark.decodeAll(this.decoder, this.accessUnits, this.keyFrames, frame -> {
+        });
+        counter.frames += frames;
+        return frames;
+    }
+
+    /**
+     * Time from handing one access unit to the backend until all frames it made available were received.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int decodeAccessUnit() {
+        if (this.nextAccessUnit == this.accessUnits.size()) {
+            // start over at the leading IDR
+            this.decoder.flush();
+            this.nextAccessUnit = 0;
+        }
+        final int index = this.nextAccessUnit++;
+        this.decoder.send(this.accessUnits.get(index), index, this.keyFrames.get(index));
+        return DecoderBackendBenchmark.receiveFrames(this.decoder, frame -> {
+        });
+    }
+
+    private static long decodeAll(final DecoderBackend decoder, final List<ByteBuffer> accessUnits, final List<Boolean> keyFrames,
+                                  final Consumer<DecodedFrame> output) {
+        decoder.flush();
+        long frames = 0;
+        for (int i = 0; i < accessUnits.size(); i++) {
+            while (decoder.send(accessUnits.get(i), i, keyFrames.get(i)) == DecoderBackend.AGAIN) {
+                frames += DecoderBackendBenchmark.receiveFrames(decoder, output);
+            }
+            frames += DecoderBackendBenchmark.receiveFrames(decoder, output);
+        }
+        decoder.drain();
+        frames += DecoderBackendBenchmark.receiveFrames(decoder, output);
+        return frames;
+    }
+
+    private static int receiveFrames(final DecoderBackend decoder, final Consumer<DecodedFrame> output) {
+        int frames = 0;
+        DecodedFrame frame;
+        while ((frame = decoder.receive()) != null) {
+            output.accept(frame);
+            decoder.release(frame);
+            frames++;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,131 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_FRAME;
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_SLICE;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_unref;
+
+/**
+ * Software decode throughput (frames/s) and per access unit latency for the decoder knobs in
+ * {@link DecoderSettings}.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DecoderBenchmark {
+
+    @Param({"slice", "frame"})
+    public String threading;
+
+    // 0 lets FFmpeg use one thread per core
+    @Param({"1", "2", "4", "8", "0"})
+    public int threads;
+
+    @Param({"true", "false"})
+    public boolean lowDelay;
+
+    @Param({"true", "false"})
+    public boolean explode;
+
+    @Param({"true", "false"})
+    public boolean outputCorrupt;
+
+    private EncodedAccessUnits accessUnits;
+    private VideoDecoder videoDecoder;
+    private AVFrame frame;
+    private int nextAccessUnit;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.accessUnits = EncodedAccessUnits.load();
+        final DecoderSettings settings = new DecoderSettings()
+                .hwAccel(false)
+                .threadType("frame".equals(this.threading) ? FF_THREAD_FRAME : FF_THREAD_SLICE)
+                .threadCount(this.threads)
+                .lowDelay(this.lowDelay)
+                .explode(this.explode)
+                .outputCorrupt(this.outputCorrupt);
+        this.videoDecoder = VideoDecoder.open(settings);
+        if (this.videoDecoder == null) {
+            throw new IllegalStateException("Unable to open decoder with " + settings);
+        }
+        this.frame = av_frame_alloc();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        av_frame_free(this.frame);
+        this.videoDecoder.close();
+        this.accessUnits.close();
+    }
+
+    /**
+     * Decodes the whole stream including the drain at the end.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long decodeStream(final FrameCounter counter) {
+        final AVCodecContext context = this.videoDecoder.context();
+        this.videoDecoder.flush();
+        long frames = 0;
+        for (int i = 0; i < this.accessUnits.size(); i++) {
+            avcodec_send_packet(context, this.accessUnits.get(i));
+            frames += this.receiveFrames(context);
+        }
+        avcodec_send_packet(context, null);
+        frames += this.receiveFrames(context);
+        counter.frames += frames;
+        return frames;
+    }
+
+    /**
+     * Time from handing one access unit to the decoder until all frames it made available were received.
+     * With frame threading this includes the frames of earlier access units the decoder releases late.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int decodeAccessUnit() {
+        final AVCodecContext context = this.videoDecoder.context();
+        if (this.nextAccessUnit == this.accessUnits.size()) {
+            // start over at the leading IDR
+            this.videoDecoder.flush();
+            this.nextAccessUnit = 0;
+        }
+        avcodec_send_packet(context, this.accessUnits.get(this.nextAccessUnit++));
+        return this.receiveFrames(context);
+    }
+
+    private int receiveFrames(final AVCodecContext context) {
+        int frames = 0;
+        while (avcodec_receive_frame(context, this.frame) == 0) {
+            av_frame_unref(this.frame);
+            frames++;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,104 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_SLICE;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+
+/**
+ * Aggregate software decode throughput of {@link DecoderService} as the number of concurrent streams grows.
+ * Every stream decodes the benchmark file with a single threaded context, all streams share one worker per core.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DecoderServiceBenchmark {
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    public int streams;
+
+    private EncodedAccessUnits accessUnits;
+    private DecoderService service;
+    private DecoderService.Session[] sessions;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.accessUnits = EncodedAccessUnits.load();
+        final DecoderSettings settings = new DecoderSettings()
+                .hwAccel(false)
+                .threadType(FF_THREAD_SLICE)
+                .threadCount(1);
+        this.service = new DecoderService(settings, Runtime.getRuntime().availableProcessors(), this.streams,
+                this.streams, new DecoderMetrics());
+        this.sessions = new DecoderService.Session[this.streams];
+        for (int i = 0; i < this.streams; i++) {
+            this.sessions[i] = this.service.openSession(frame -> {
+            });
+            if (this.sessions[i] == null) {
+                throw new IllegalStateException("Unable to open session " + i + " with " + settings);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.service.close();
+        this.accessUnits.close();
+    }
+
+    /**
+     * Feeds the whole file to every stream, interleaved by access unit, and waits until every stream decoded all of
+     * it.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long decodeStreams(final FrameCounter counter) {
+        final long decodedBefore = this.decodedFrames();
+        for (int i = 0; i < this.accessUnits.size(); i++) {
+            final AVPacket source = this.accessUnits.get(i);
+            final boolean keyFrame = (source.flags() & AV_PKT_FLAG_KEY) != 0;
+            for (final DecoderService.Session session : this.sessions) {
+                AVPacket packet;
+                while ((packet = this.service.packetPool().acquire(source.data(), source.size(), keyFrame)) == null) {
+                    Thread.onSpinWait();
+                }
+                session.submit(packet);
+            }
+        }
+        for (final DecoderService.Session session : this.sessions) {
+            // an empty queue is not enough, a worker may still be decoding the last packets
+            while (!session.isIdle()) {
+                Thread.onSpinWait();
+            }
+        }
+        final long frames = this.decodedFrames() - decodedBefore;
+        counter.frames += frames;
+        return frames;
+    }
+
+    private long decodedFrames() {
+        long frames = 0;
+        for (final DecoderService.Session session : this.sessions) {
+            frames += session.decodedFrames();
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,74 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacpp.Pointer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avcodec.av_new_packet;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_alloc;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_free;
+
+/**
+ * Access units of the benchmark stream preloaded into reference counted packets, so benchmarks measure decoding
+ * and not file I/O. Sending a packet only adds a reference, the packets can be sent any number of times.
+ */
+final class EncodedAccessUnits implements AutoCloseable {
+
+    static final String DEFAULT_FILE = "example_data/example.h264";
+
+    private final List<AVPacket> packets = new ArrayList<>();
+
+    private EncodedAccessUnits() {
+    }
+
+    /**
+     * Loads the file given by {@code -Dbenchmark.file}, {@code example_data/example.h264} by default.
+     */
+    static EncodedAccessUnits load() throws IOException {
+        return EncodedAccessUnits.load(Paths.get(System.getProperty("benchmark.file", EncodedAccessUnits.DEFAULT_FILE)));
+    }
+
+    static EncodedAccessUnits load(final Path file) throws IOException {
+        final EncodedAccessUnits accessUnits = new EncodedAccessUnits();
+        try (final AnnexBReader reader = new AnnexBReader(file)) {
+            while (reader.nextAccessUnit()) {
+                final AVPacket packet = av_packet_alloc();
+                if (packet == null || av_new_packet(packet, reader.size()) < 0) {
+                    accessUnits.close();
+                    throw new IOException("Unable to allocate packet for access unit at " + reader.offset());
+                }
+                Pointer.memcpy(packet.data(), reader.data(), reader.size());
+                packet.flags(reader.isKeyFrame() ? AV_PKT_FLAG_KEY : 0);
+                packet.pts(accessUnits.packets.size());
+                packet.dts(accessUnits.packets.size());
+                accessUnits.packets.add(packet);
+            }
+        }
+        if (accessUnits.packets.isEmpty()) {
+            throw new IOException("No access units found in " + file);
+        }
+        return accessUnits;
+    }
+
+    AVPacket get(final int index) {
+        return this.packets.get(index);
+    }
+
+    int size() {
+        return this.packets.size();
+    }
+
+    @Override
+    public void close() {
+        for (final AVPacket packet : this.packets) {
+            av_packet_free(packet);
+        }
+        this.packets.clear();
+    }
+}
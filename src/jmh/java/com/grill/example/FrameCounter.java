@@ -0,0 +1,23 @@
+package com.grill.example;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoded frames, reported as an additional frames/s throughput metric next to the score of a benchmark that
+ * adds the frames of each invocation.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class FrameCounter {
+
+    public long frames;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        this.frames = 0;
+    }
+}
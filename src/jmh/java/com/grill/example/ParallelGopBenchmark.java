@@ -0,0 +1,158 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_FRAME;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_unref;
+
+/**
+ * Offline decode throughput of {@link ParallelGopDecoder} against one context with FFmpeg's own frame threading
+ * on all cores. Before measuring, the setup checks that both paths produce the same frames by MD5.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParallelGopBenchmark {
+
+    // 0 uses one context per core
+    @Param({"1", "2", "4", "8", "0"})
+    public int workers;
+
+    // threads per context, 1 leaves all parallelism to the GOP split
+    @Param({"1", "2"})
+    public int contextThreads;
+
+    @Param({"16"})
+    public int minSegmentAccessUnits;
+
+    private Path file;
+    private DecoderSettings settings;
+    private VideoDecoder sequentialDecoder;
+    private ParallelGopDecoder parallelDecoder;
+    private AVFrame frame;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.file = Paths.get(System.getProperty("benchmark.file", EncodedAccessUnits.DEFAULT_FILE));
+        this.settings = new DecoderSettings().hwAccel(false);
+        final H264ParameterSets parameterSets = H264ParameterSets.scan(this.file, 16);
+        if (parameterSets != null) {
+            this.settings.parameterSets(parameterSets);
+        }
+        this.sequentialDecoder = VideoDecoder.open(new DecoderSettings(this.settings).threadType(FF_THREAD_FRAME).threadCount(0));
+        if (this.sequentialDecoder == null) {
+            throw new IllegalStateException("Unable to open decoder with " + this.settings);
+        }
+        this.parallelDecoder = new ParallelGopDecoder(new DecoderSettings(this.settings).threadCount(this.contextThreads),
+                this.workers, this.minSegmentAccessUnits);
+        this.frame = av_frame_alloc();
+        this.verify();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        av_frame_free(this.frame);
+        this.parallelDecoder.close();
+        this.sequentialDecoder.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long sequential(final FrameCounter counter) throws IOException {
+        final long frames = this.decodeSequential(frame -> {
+        });
+        counter.frames += frames;
+        return frames;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long parallelGops(final FrameCounter counter) throws IOException {
+        final long frames = this.parallelDecoder.decode(this.file, frame -> {
+        });
+        counter.frames += frames;
+        return frames;
+    }
+
+    /**
+     * Decodes from the file like the parallel path does, so both include reading and packet copies.
+     */
+    private long decodeSequential(final Consumer<AVFrame> output) throws IOException {
+        final AVCodecContext context = this.sequentialDecoder.context();
+        this.sequentialDecoder.flush();
+        long frames = 0;
+        try (final AnnexBReader reader = new AnnexBReader(this.file);
+             final AVPacketPool packetPool = new AVPacketPool(1, (int) Math.min(reader.fileSize(), 1 << 20))) {
+            long index = 0;
+            while (reader.nextAccessUnit()) {
+                final AVPacket packet = packetPool.acquire(reader.data(), reader.size(), reader.isKeyFrame());
+                packet.pts(index);
+                packet.dts(index);
+                index++;
+                avcodec_send_packet(context, packet);
+                packetPool.release(packet);
+                frames += this.receiveFrames(context, output);
+            }
+        }
+        avcodec_send_packet(context, null);
+        frames += this.receiveFrames(context, output);
+        return frames;
+    }
+
+    private int receiveFrames(final AVCodecContext context, final Consumer<AVFrame> output) {
+        int frames = 0;
+        while (avcodec_receive_frame(context, this.frame) == 0) {
+            output.accept(this.frame);
+            av_frame_unref(this.frame);
+            frames++;
+        }
+        return frames;
+    }
+
+    private void verify() throws IOException {
+        final List<String> expected = new ArrayList<>();
+        final List<String> actual = new ArrayList<>();
+        try (final FrameChecksum checksum = new FrameChecksum()) {
+            this.decodeSequential(frame -> expected.add(frame.pts() + " " + checksum.md5(frame)));
+            this.parallelDecoder.decode(this.file, frame -> actual.add(frame.pts() + " " + checksum.md5(frame)));
+        }
+        if (!expected.equals(actual)) {
+            for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+                if (!expected.get(i).equals(actual.get(i))) {
+                    throw new IllegalStateException("Frame " + i + " differs: " + expected.get(i) + " != " + actual.get(i));
+                }
+            }
+            throw new IllegalStateException("Decoded " + actual.size() + " frames in parallel, " + expected.size() + " sequentially");
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.grill.example;
+
+import org.bytedeco.javacpp.BytePointer;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_ERROR_MAX_STRING_SIZE;
+import static org.bytedeco.ffmpeg.global.avutil.av_strerror;
+
+/**
+ * Preallocated buffer for {@code av_strerror}. Instances are not thread safe, every thread that reports
+ * errors owns its own one.
+ */
+public final class AVErrorString implements AutoCloseable {
+
+    private final BytePointer buffer = NativeResources.allocate(AV_ERROR_MAX_STRING_SIZE);
+
+    public String describe(final int error) {
+        if (av_strerror(error, this.buffer.position(0), this.buffer.capacity()) < 0) {
+            return "Unknown error " + error;
+        }
+        return this.buffer.getString();
+    }
+
+    @Override
+    public void close() {
+        NativeResources.free(this.buffer);
+    }
+}
@@ -0,0 +1,116 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.tinylog.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_unref;
+
+/**
+ * Bounded pool of {@link AVFrame} structs.
+ * <p>
+ * Frames are allocated lazily up to the capacity of the pool and are recycled afterwards, so a running decode
+ * loop does not call {@code av_frame_alloc()} anymore. The frame data itself is reference counted by FFmpeg
+ * and returned to the decoder's internal buffer pools on {@link #release(AVFrame)}.
+ */
+public final class AVFramePool implements AutoCloseable {
+
+    private final ArrayBlockingQueue<AVFrame> idleFrames;
+    private final AtomicInteger allocatedFrames = new AtomicInteger();
+    private final int capacity;
+
+    private volatile boolean closed = false;
+
+    public AVFramePool(final int capacity) {
+        this.capacity = capacity;
+        this.idleFrames = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Returns an unreferenced frame, allocating a new one only if the pool has not reached its capacity yet.
+     *
+     * @return a frame or {@code null} if the pool is exhausted
+     */
+    public AVFrame acquire() {
+        final AVFrame frame = this.idleFrames.poll();
+        if (frame != null) {
+            return frame;
+        }
+        return this.allocate();
+    }
+
+    /**
+     * Like {@link #acquire()} but waits for a frame to be released if the pool is exhausted.
+     *
+     * @return a frame or {@code null} if the timeout elapsed or the pool was closed
+     */
+    public AVFrame acquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final AVFrame frame = this.acquire();
+        if (frame != null) {
+            return frame;
+        }
+        return this.idleFrames.poll(timeout, unit);
+    }
+
+    /**
+     * Drops all references held by the frame and returns it to the pool.
+     */
+    public void release(final AVFrame frame) {
+        if (frame == null) {
+            return;
+        }
+        av_frame_unref(frame);
+        if (this.closed || !this.idleFrames.offer(frame)) {
+            NativeResources.freeFrame(frame);
+            this.allocatedFrames.decrementAndGet();
+        }
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    public int allocated() {
+        return this.allocatedFrames.get();
+    }
+
+    public int idle() {
+        return this.idleFrames.size();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        AVFrame frame;
+        while ((frame = this.idleFrames.poll()) != null) {
+            NativeResources.freeFrame(frame);
+            this.allocatedFrames.decrementAndGet();
+        }
+        if (this.allocatedFrames.get() > 0) {
+            Logger.debug("Frame pool closed with {} frames still in use, they are freed on release", this.allocatedFrames.get());
+        }
+    }
+
+    private AVFrame allocate() {
+        if (this.closed) {
+            return null;
+        }
+        for (; ; ) {
+            final int allocated = this.allocatedFrames.get();
+            if (allocated >= this.capacity) {
+                return null;
+            }
+            if (this.allocatedFrames.compareAndSet(allocated, allocated + 1)) {
+                break;
+            }
+        }
+        final AVFrame frame = NativeResources.allocFrame();
+        if (frame == null) {
+            this.allocatedFrames.decrementAndGet();
+        }
+        return frame;
+    }
+}
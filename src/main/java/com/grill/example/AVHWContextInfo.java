@@ -0,0 +1,59 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecHWConfig;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+
+import java.util.Objects;
+
+/**
+ * Hardware configuration selected for a decoder together with the device reference the decoder holds.
+ */
+public final class AVHWContextInfo {
+    private final AVCodecHWConfig hwConfig;
+    private final AVBufferRef hwContext;
+
+    private volatile boolean freed = false;
+
+    public AVHWContextInfo(final AVCodecHWConfig hwConfig, final AVBufferRef hwContext) {
+        this.hwConfig = hwConfig;
+        this.hwContext = hwContext;
+    }
+
+    public AVCodecHWConfig hwConfig() {
+        return this.hwConfig;
+    }
+
+    public AVBufferRef hwContext() {
+        return this.hwContext;
+    }
+
+    public void free() {
+        if (this.freed) {
+            return;
+        }
+        this.freed = true;
+        // the configuration is static data owned by libavcodec, only the device reference is ours
+        NativeResources.unref(this.hwContext);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AVHWContextInfo that = (AVHWContextInfo) o;
+        return freed == that.freed && Objects.equals(hwConfig, that.hwConfig) && Objects.equals(hwContext, that.hwContext);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hwConfig, hwContext, freed);
+    }
+
+    @Override
+    public String toString() {
+        return "AVHWContextInfo[" +
+                "hwConfig=" + this.hwConfig + ", " +
+                "hwContext=" + this.hwContext + ']';
+    }
+}
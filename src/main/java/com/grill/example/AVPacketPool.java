@@ -0,0 +1,228 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVBufferPool;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.tinylog.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_INPUT_BUFFER_PADDING_SIZE;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avcodec.av_grow_packet;
+import static org.bytedeco.ffmpeg.global.avcodec.av_new_packet;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_unref;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_pool_get;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_pool_uninit;
+
+/**
+ * Bounded pool of reference counted {@link AVPacket}s.
+ * <p>
+ * Packet payloads come from an {@link AVBufferPool}, so filling a packet neither allocates native memory nor
+ * forces FFmpeg to copy the payload on {@code avcodec_send_packet} (it just takes another reference). The
+ * buffers behind the pool are tracked by {@link NativeResources}.
+ * Payloads larger than the pooled buffer size fall back to {@code av_new_packet}.
+ */
+public final class AVPacketPool implements AutoCloseable {
+
+    private final ArrayBlockingQueue<AVPacket> idlePackets;
+    private final AtomicInteger allocatedPackets = new AtomicInteger();
+    private final int capacity;
+    private volatile int bufferSize;
+
+    private AVBufferPool bufferPool;
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity   maximum number of packets handed out at the same time
+     * @param bufferSize payload size served from the buffer pool, padding is added internally
+     */
+    public AVPacketPool(final int capacity, final int bufferSize) {
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+        this.idlePackets = new ArrayBlockingQueue<>(capacity);
+        this.bufferPool = NativeResources.bufferPool(bufferSize + AV_INPUT_BUFFER_PADDING_SIZE);
+        if (this.bufferPool == null) {
+            throw new IllegalStateException("Unable to create packet buffer pool");
+        }
+    }
+
+    /**
+     * Returns a packet holding a pooled copy of {@code size} bytes starting at {@code data}.
+     *
+     * @return the filled packet or {@code null} if the pool is exhausted or out of memory
+     */
+    public AVPacket acquire(final Pointer data, final int size, final boolean keyFrame) {
+        final AVPacket packet = this.acquire();
+        if (packet == null) {
+            return null;
+        }
+        final BytePointer payload;
+        if (size <= this.bufferSize) {
+            final AVBufferRef buffer = av_buffer_pool_get(this.bufferPool);
+            if (buffer == null) {
+                this.release(packet);
+                return null;
+            }
+            payload = buffer.data();
+            packet.buf(buffer);
+            packet.data(payload);
+            packet.size(size);
+        } else {
+            if (av_new_packet(packet, size) < 0) {
+                this.release(packet);
+                return null;
+            }
+            payload = packet.data();
+        }
+        Pointer.memcpy(payload, data, size);
+        Pointer.memset(payload.position(size), 0, AV_INPUT_BUFFER_PADDING_SIZE);
+        packet.flags(keyFrame ? AV_PKT_FLAG_KEY : 0);
+        return packet;
+    }
+
+    /**
+     * Returns a packet with an uninitialised pooled payload of {@link #bufferSize()} bytes, for producers that
+     * assemble the payload in place. Finish it with {@link #commitWritable(AVPacket, int)}.
+     *
+     * @return the packet or {@code null} if the pool is exhausted or out of memory
+     */
+    public AVPacket acquireWritable() {
+        final AVPacket packet = this.acquire();
+        if (packet == null) {
+            return null;
+        }
+        final AVBufferRef buffer = av_buffer_pool_get(this.bufferPool);
+        if (buffer == null) {
+            this.release(packet);
+            return null;
+        }
+        packet.buf(buffer);
+        packet.data(buffer.data());
+        packet.size(0);
+        return packet;
+    }
+
+    /**
+     * Enlarges the payload of a packet filled in place to {@code capacity} bytes and keeps its first {@code size}
+     * bytes. {@code av_grow_packet} moves the payload out of the pooled buffer into an unpooled one, so the
+     * packet's data pointer has to be read again afterwards.
+     *
+     * @return {@code false} if out of memory, the payload is unchanged then
+     */
+    public boolean growWritable(final AVPacket packet, final int size, final int capacity) {
+        packet.size(size);
+        return av_grow_packet(packet, capacity - size) >= 0;
+    }
+
+    /**
+     * Sets the size of a packet filled in place and zeroes the padding behind the payload.
+     */
+    public void commitWritable(final AVPacket packet, final int size) {
+        packet.size(size);
+        Pointer.memset(packet.data().position(size), 0, AV_INPUT_BUFFER_PADDING_SIZE);
+    }
+
+    /**
+     * Returns an empty packet.
+     *
+     * @return a packet or {@code null} if the pool is exhausted
+     */
+    public AVPacket acquire() {
+        final AVPacket packet = this.idlePackets.poll();
+        if (packet != null) {
+            return packet;
+        }
+        if (this.closed) {
+            return null;
+        }
+        for (; ; ) {
+            final int allocated = this.allocatedPackets.get();
+            if (allocated >= this.capacity) {
+                return null;
+            }
+            if (this.allocatedPackets.compareAndSet(allocated, allocated + 1)) {
+                break;
+            }
+        }
+        final AVPacket allocatedPacket = NativeResources.allocPacket();
+        if (allocatedPacket == null) {
+            this.allocatedPackets.decrementAndGet();
+        }
+        return allocatedPacket;
+    }
+
+    /**
+     * Drops the payload reference and returns the packet to the pool.
+     */
+    public void release(final AVPacket packet) {
+        if (packet == null) {
+            return;
+        }
+        av_packet_unref(packet);
+        if (this.closed || !this.idlePackets.offer(packet)) {
+            NativeResources.freePacket(packet);
+            this.allocatedPackets.decrementAndGet();
+        }
+    }
+
+    /**
+     * Replaces the buffer pool with one serving {@code bufferSize} bytes, e.g. after the stream resolution
+     * changed. Packets already handed out keep their buffers, the old pool is freed once all are returned.
+     * Must be called from the thread filling packets.
+     */
+    public void resize(final int bufferSize) {
+        if (bufferSize == this.bufferSize || this.closed) {
+            return;
+        }
+        final AVBufferPool resized = NativeResources.bufferPool(bufferSize + AV_INPUT_BUFFER_PADDING_SIZE);
+        if (resized == null) {
+            Logger.warn("Unable to resize packet buffer pool to {} bytes", bufferSize);
+            return;
+        }
+        av_buffer_pool_uninit(this.bufferPool);
+        this.bufferPool = resized;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Pooled payload size for a stream, half of a raw 4:2:0 frame covers all but pathological intra frames
+     * (larger ones still work through {@code av_new_packet}).
+     */
+    public static int bufferSizeFor(final int width, final int height) {
+        return Math.max(64 << 10, width * height * 3 / 4);
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    public int bufferSize() {
+        return this.bufferSize;
+    }
+
+    public int allocated() {
+        return this.allocatedPackets.get();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        AVPacket packet;
+        while ((packet = this.idlePackets.poll()) != null) {
+            NativeResources.freePacket(packet);
+            this.allocatedPackets.decrementAndGet();
+        }
+        if (this.bufferPool != null) {
+            // buffers still referenced by the decoder keep the pool alive until they are returned
+            av_buffer_pool_uninit(this.bufferPool);
+            this.bufferPool = null;
+        }
+        if (this.allocatedPackets.get() > 0) {
+            Logger.debug("Packet pool closed with {} packets still in use, they are freed on release", this.allocatedPackets.get());
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.grill.example;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_INPUT_BUFFER_PADDING_SIZE;
+
+/**
+ * Incremental access unit splitter for H.264 Annex-B elementary streams.
+ * <p>
+ * The file is memory-mapped window by window, so it may be larger than the heap (and larger than 2 GiB). A
+ * window is unmapped as soon as the reader moves past it. Access units are exposed as {@link BytePointer} views
+ * into the current mapping and are never copied onto the Java heap; callers copy them out, e.g. into a pooled
+ * packet buffer, before they advance. Only the very last access unit of the file is copied into a small padded
+ * native buffer, because FFmpeg reads up to {@code AV_INPUT_BUFFER_PADDING_SIZE} bytes beyond the end of a packet.
+ */
+public final class AnnexBReader implements AutoCloseable {
+
+    public static final int NAL_SLICE = 1;
+    public static final int NAL_IDR_SLICE = 5;
+    public static final int NAL_SEI = 6;
+    public static final int NAL_SPS = 7;
+    public static final int NAL_PPS = 8;
+    public static final int NAL_AUD = 9;
+
+    private static final int SEI_RECOVERY_POINT = 6;
+
+    private static final long DEFAULT_WINDOW_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long windowSize;
+
+    private MappedByteBuffer window;
+    private BytePointer windowPointer;
+    private long windowOffset;
+    private int windowLength;
+
+    private BytePointer tailBuffer;
+
+    private long position;
+    private long accessUnitOffset;
+    private int accessUnitSize;
+    private boolean keyFrame;
+    private boolean recoveryPoint;
+    private boolean parameterSets;
+    private BytePointer accessUnitData;
+
+    public AnnexBReader(final Path file) throws IOException {
+        this(file, AnnexBReader.DEFAULT_WINDOW_SIZE);
+    }
+
+    public AnnexBReader(final Path file, final long windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
+        this.windowSize = Math.max(windowSize, 4096);
+    }
+
+    /**
+     * Advances to the next access unit.
+     *
+     * @return {@code false} once the end of the file has been reached
+     */
+    public boolean nextAccessUnit() throws IOException {
+        this.accessUnitData = null;
+        this.accessUnitSize = 0;
+        if (this.position >= this.fileSize) {
+            return false;
+        }
+
+        long mappingSize = this.windowSize;
+        for (; ; ) {
+            this.ensureMapped(this.position, mappingSize);
+            final int start = (int) (this.position - this.windowOffset);
+            final boolean windowAtEof = this.windowOffset + this.windowLength == this.fileSize;
+            // keep padding readable behind every access unit that is handed out from the mapping
+            final int scanLimit = windowAtEof ? this.windowLength : this.windowLength - AV_INPUT_BUFFER_PADDING_SIZE;
+            final int end = this.findAccessUnitEnd(start, scanLimit);
+            if (end >= 0) {
+                this.publish(start, end);
+                return true;
+            }
+            if (windowAtEof) {
+                this.publish(start, this.windowLength);
+                return true;
+            }
+            // access unit crosses the window border, remap at its start and grow if a single unit does not fit
+            if (start == 0) {
+                mappingSize = mappingSize * 2;
+            }
+            this.unmap();
+        }
+    }
+
+    /**
+     * Continues reading at {@code offset}, which has to be the start of an access unit as returned by
+     * {@link #offset()}.
+     */
+    public void seek(final long offset) {
+        this.position = offset;
+        this.accessUnitData = null;
+        this.accessUnitSize = 0;
+    }
+
+    /**
+     * Returns a pointer to the current access unit, positioned at its first byte.
+     * The pointer is only valid until the next call to {@link #nextAccessUnit()} or {@link #close()}, the mapping
+     * it points into may be gone afterwards.
+     */
+    public BytePointer data() {
+        return this.accessUnitData;
+    }
+
+    public int size() {
+        return this.accessUnitSize;
+    }
+
+    /**
+     * Returns the file offset of the current access unit.
+     */
+    public long offset() {
+        return this.accessUnitOffset;
+    }
+
+    /**
+     * Returns {@code true} if the current access unit contains an IDR slice.
+     */
+    public boolean isKeyFrame() {
+        return this.keyFrame;
+    }
+
+    /**
+     * Returns {@code true} if the current access unit starts with a recovery point SEI, i.e. decoding can
+     * resume here without an IDR (periodic intra refresh streams).
+     */
+    public boolean isRecoveryPoint() {
+        return this.recoveryPoint;
+    }
+
+    /**
+     * Returns {@code true} if the current access unit carries a sequence parameter set.
+     */
+    public boolean hasParameterSets() {
+        return this.parameterSets;
+    }
+
+    public long fileSize() {
+        return this.fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.unmap();
+        if (this.tailBuffer != null) {
+            NativeResources.free(this.tailBuffer);
+            this.tailBuffer = null;
+        }
+        this.channel.close();
+    }
+
+    private void publish(final int start, final int end) {
+        this.accessUnitOffset = this.windowOffset + start;
+        this.accessUnitSize = end - start;
+        this.keyFrame = false;
+        this.recoveryPoint = false;
+        this.parameterSets = false;
+        this.classify(start, end);
+        this.position = this.accessUnitOffset + this.accessUnitSize;
+
+        if (end + AV_INPUT_BUFFER_PADDING_SIZE <= this.windowLength) {
+            this.accessUnitData = this.windowPointer.position(start);
+            return;
+        }
+        // last access unit of the file, the mapping has no readable padding behind it
+        final long required = (long) this.accessUnitSize + AV_INPUT_BUFFER_PADDING_SIZE;
+        if (this.tailBuffer == null || this.tailBuffer.capacity() < required) {
+            if (this.tailBuffer != null) {
+                NativeResources.free(this.tailBuffer);
+            }
+            this.tailBuffer = NativeResources.allocate(required);
+        }
+        Pointer.memcpy(this.tailBuffer.position(0), this.windowPointer.position(start), this.accessUnitSize);
+        Pointer.memset(this.tailBuffer.position(this.accessUnitSize), 0, AV_INPUT_BUFFER_PADDING_SIZE);
+        this.accessUnitData = this.tailBuffer.position(0);
+    }
+
+    /**
+     * Scans for the start of the next access unit following the one starting at {@code start}.
+     * Rules follow H.264 7.4.1.2.3: an AUD, SEI, SPS or PPS after a VCL NAL unit, or a VCL NAL unit with
+     * {@code first_mb_in_slice == 0} after a VCL NAL unit, begins a new access unit.
+     *
+     * @return the window index of the leading zero byte of the start code, or -1 if not found before {@code limit}
+     */
+    private int findAccessUnitEnd(final int start, final int limit) {
+        boolean seenVcl = false;
+        int i = this.findStartCode(start, limit);
+        while (i >= 0) {
+            final int header = i + 3;
+            if (header + 1 >= limit) {
+                return -1;
+            }
+            final int nalType = this.window.get(header) & 0x1F;
+            final boolean isVcl = nalType == AnnexBReader.NAL_SLICE || nalType == AnnexBReader.NAL_IDR_SLICE;
+            if (seenVcl) {
+                final boolean firstSliceOfPicture = isVcl && (this.window.get(header + 1) & 0x80) != 0;
+                final boolean prefixNal = nalType == AnnexBReader.NAL_AUD || nalType == AnnexBReader.NAL_SEI ||
+                        nalType == AnnexBReader.NAL_SPS || nalType == AnnexBReader.NAL_PPS ||
+                        (nalType >= 14 && nalType <= 18);
+                if (firstSliceOfPicture || prefixNal) {
+                    // a four byte start code belongs to the next access unit
+                    return i > start && this.window.get(i - 1) == 0 ? i - 1 : i;
+                }
+            }
+            seenVcl |= isVcl;
+            i = this.findStartCode(header, limit);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the window index of the next {@code 00 00 01} sequence at or after {@code from}, or -1.
+     */
+    private int findStartCode(final int from, final int limit) {
+        int i = from;
+        final int last = limit - 3;
+        while (i <= last) {
+            final byte third = this.window.get(i + 2);
+            if (third > 1 || third < 0) {
+                i += 3;
+            } else if (third == 0) {
+                i += 1;
+            } else if (this.window.get(i) == 0 && this.window.get(i + 1) == 0) {
+                return i;
+            } else {
+                i += 3;
+            }
+        }
+        return -1;
+    }
+
+    private void classify(final int start, final int end) {
+        int i = this.findStartCode(start, end);
+        while (i >= 0 && i + 3 < end) {
+            final int header = i + 3;
+            final int nalType = this.window.get(header) & 0x1F;
+            if (nalType == AnnexBReader.NAL_IDR_SLICE) {
+                this.keyFrame = true;
+            } else if (nalType == AnnexBReader.NAL_SPS) {
+                this.parameterSets = true;
+            } else if (nalType == AnnexBReader.NAL_SEI && header + 1 < end) {
+                // only the first SEI message is checked, later ones would need emulation prevention handling
+                int payloadType = 0;
+                int j = header + 1;
+                while (j < end && (this.window.get(j) & 0xFF) == 0xFF) {
+                    payloadType += 255;
+                    j++;
+                }
+                if (j < end && payloadType + (this.window.get(j) & 0xFF) == AnnexBReader.SEI_RECOVERY_POINT) {
+                    this.recoveryPoint = true;
+                }
+            }
+            i = this.findStartCode(header, end);
+        }
+    }
+
+    private void ensureMapped(final long offset, final long size) throws IOException {
+        if (this.window != null && offset >= this.windowOffset && offset < this.windowOffset + this.windowLength &&
+                this.windowOffset + this.windowLength - offset >= Math.min(size, this.fileSize - offset) / 2) {
+            return;
+        }
+        this.unmap();
+        final long length = Math.min(Math.min(size, Integer.MAX_VALUE), this.fileSize - offset);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        this.windowPointer = new BytePointer(this.window);
+        this.windowOffset = offset;
+        this.windowLength = (int) length;
+    }
+
+    private void unmap() {
+        MappedBuffers.unmap(this.window);
+        this.window = null;
+        this.windowPointer = null;
+        this.windowLength = 0;
+    }
+}
@@ -1,30 +1,31 @@
 package com.grill.example;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 import org.bytedeco.ffmpeg.avcodec.AVCodec;
 import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
-import org.bytedeco.ffmpeg.avcodec.AVCodecHWConfig;
 import org.bytedeco.ffmpeg.avcodec.AVPacket;
-import org.bytedeco.ffmpeg.avutil.AVBufferRef;
-import org.bytedeco.ffmpeg.avutil.AVDictionary;
 import org.bytedeco.ffmpeg.avutil.AVFrame;
-import org.bytedeco.ffmpeg.avutil.LogCallback;
 import org.bytedeco.javacpp.BytePointer;
-import org.bytedeco.javacpp.IntPointer;
 import org.bytedeco.javacpp.Pointer;
 import org.tinylog.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
-import java.util.Objects;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
-import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_SLICE;
 import static org.bytedeco.ffmpeg.global.avcodec.*;
 import static org.bytedeco.ffmpeg.global.avutil.*;
 
@@ -32,25 +33,79 @@ public class App extends Application {
 
     /**** decoder variables ****/
 
-    private AVHWContextInfo hardwareContext;
+    private VideoDecoder videoDecoder;
 
-    private AVCodec decoder;
-    private AVCodecContext m_VideoDecoderCtx;
+    private AVFramePool framePool;
+    private AVPacketPool packetPool;
 
-    private AVCodecContext.Get_format_AVCodecContext_IntPointer formatCallback;
+    private DecodePipeline pipeline;
+
+    private PixelBufferDisplay display;
+
+    private FramePacer framePacer;
+
+    private PacketRingStore packetStore;
+
+    private RtpSender rtpSender;
+
+    private final DecoderMetrics metrics = new DecoderMetrics();
 
     private final int streamResolutionX = 1920;
     private final int streamResolutionY = 1080;
+    private double streamFrameRate = 0;
 
-    // AV_HWDEVICE_TYPE_CUDA // example works with cuda
-    // AV_HWDEVICE_TYPE_DXVA2 // producing Invalid data found on keyframe
-    // AV_HWDEVICE_TYPE_D3D11VA // producing Invalid data found on keyframe
-    private static final int HW_DEVICE_TYPE = AV_HWDEVICE_TYPE_DXVA2;
+    // tried in order, override with e.g. -Ddecoder.hwDevices=cuda,vaapi
+    private static final int[] HW_DEVICE_TYPES = HardwareDevices.fromSystemProperty(DecoderSettings.defaultHwDeviceTypes());
 
     private static final boolean USE_HW_ACCEL = true;
 
     private static final boolean USE_AV_EF_EXPLODE = true;
 
+    // frames and packets in flight at the same time, pools never grow beyond this, frames include the jitter buffer
+    private static final int FRAME_POOL_SIZE = 12;
+    private static final int PACKET_POOL_SIZE = 8;
+    private static final int PACKET_BUFFER_SIZE = 1 << 20;
+
+    // queue depth between pipeline stages and what the decoder does when the output stage falls behind
+    private static final int PIPELINE_QUEUE_SIZE = 4;
+    private static final BackpressurePolicy BACKPRESSURE_POLICY = BackpressurePolicy.DROP_OLDEST;
+
+    // triple buffering, one surface displayed, one pending and one being converted into
+    private static final int DISPLAY_SURFACES = 3;
+
+    // frames received over RTP are paced to the display refresh (-Ddisplay.refreshRate) through a jitter buffer
+    private static final int JITTER_BUFFER_CAPACITY = 4;
+    private static final long MAX_JITTER_DELAY_NANOS = 200_000_000L;
+    private static final JitterBuffer.LatePolicy LATE_FRAME_POLICY = JitterBuffer.LatePolicy.DROP;
+
+    // encoded access units kept for replay and seeking, -Dstream.replayBufferMb=0 disables it and
+    // -Dstream.replayFile keeps them in a memory-mapped file instead of native memory
+    private static final long REPLAY_BUFFER_SIZE = (long) Integer.getInteger("stream.replayBufferMb", 32) << 20;
+    private static final String REPLAY_FILE = System.getProperty("stream.replayFile");
+    private static final int REPLAY_MAX_ACCESS_UNITS = 1 << 14;
+    // the R key replays this much of a streamed file, RTP frames would arrive at the pacer far too late
+    private static final long REPLAY_DURATION_NANOS = TimeUnit.SECONDS.toNanos(Integer.getInteger("stream.replaySeconds", 5));
+
+    private static final long METRICS_LOG_PERIOD_SECONDS = 10;
+
+    // Annex-B file to stream through the decoder, e.g. -Dstream.file=example_data/example.h264
+    private static final String STREAM_FILE = System.getProperty("stream.file");
+
+    // receive RTP/H.264 on this UDP port instead of reading the file, together with -Dstream.file the file is
+    // replayed to the port over loopback
+    private static final int RTP_PORT = Integer.getInteger("stream.rtp.port", 0);
+
+    // leave out every n-th RTP packet of the loopback replay to exercise loss handling, 0 disables it
+    private static final int RTP_DROP_EVERY = Integer.getInteger("stream.rtp.dropEvery", 0);
+
+    // corrupt every n-th access unit of the streamed file to measure the error recovery, 0 disables it
+    private static final int FAULT_INJECTION_INTERVAL = Integer.getInteger("stream.corruptEvery", 0);
+
+    // access units searched for the SPS/PPS before the decoder is opened with defaults
+    private static final int PARAMETER_SET_SCAN_LIMIT = 16;
+
+    private static final long KEY_FRAME_REQUEST_INTERVAL_NANOS = 500_000_000L;
+
     public static void main(final String[] args) {
         //System.setProperty("prism.order", "d3d,sw");
         System.setProperty("prism.vsync", "false");
@@ -63,191 +118,84 @@ public class App extends Application {
         dummyPane.setStyle("-fx-background-color: black");
         final Scene scene = new Scene(dummyPane, this.streamResolutionX, this.streamResolutionY);
         primaryStage.setScene(scene);
+        scene.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.R) {
+                this.replay();
+            }
+        });
         primaryStage.show();
         primaryStage.setMinWidth(480);
         primaryStage.setMinHeight(360);
 
-        this.initializeFFmpeg(result -> {
+        this.display = new PixelBufferDisplay(YuvFrameConverter.create(ForkJoinPool.commonPool()), App.DISPLAY_SURFACES, this.metrics);
+
+        // keep codec setup and decoding off the JavaFX application thread
+        final Thread initializer = new Thread(() -> this.initializeFFmpeg(result -> {
             if (!result) {
                 Logger.error("FFmpeg could not be initialized correctly, terminating program");
                 System.exit(1);
                 return;
             }
-            scene.setRoot(new StackPane());
-            this.performTestFramesFeeding();
-        });
+            Platform.runLater(() -> {
+                final StackPane videoPane = new StackPane(this.display.imageView());
+                videoPane.setStyle("-fx-background-color: black");
+                this.display.imageView().fitWidthProperty().bind(videoPane.widthProperty());
+                this.display.imageView().fitHeightProperty().bind(videoPane.heightProperty());
+                scene.setRoot(videoPane);
+                this.display.start();
+            });
+            if (App.STREAM_FILE != null || App.RTP_PORT > 0) {
+                this.startStreaming();
+            } else {
+                this.performTestFramesFeeding();
+            }
+        }), "ffmpeg-init");
+        initializer.setDaemon(true);
+        initializer.start();
     }
 
     private void initializeFFmpeg(final Consumer<Boolean> finishHandler) {
-        FFmpegLogCallback.setLevel(AV_LOG_DEBUG); // Increase log level until the first frame is decoded
+        FFmpegLogCallback.setLevel(AV_LOG_DEBUG); // Increase log level until the decoder reaches steady state
         FFmpegLogCallback.set();
-        Pointer pointer = new Pointer((Pointer) null);
-        AVCodec c;
-        while ((c = av_codec_iterate(pointer)) != null) {
-            if (av_codec_is_decoder(c) > 0)
-                Logger.debug("{}:{} ", c.name().getString(), c.type());
-        }
-
-        this.decoder = avcodec_find_decoder(AV_CODEC_ID_H264); // usually decoder name is h264 and without hardware support it's yuv420p otherwise nv12
-        if (this.decoder == null) {
-            Logger.error("Unable to find decoder for format {}", "h264");
-            finishHandler.accept(false);
-            return;
+        // walking all codecs costs start up time, only worth it when someone reads the list
+        if (Logger.isDebugEnabled()) {
+            Pointer pointer = new Pointer((Pointer) null);
+            AVCodec c;
+            while ((c = av_codec_iterate(pointer)) != null) {
+                if (av_codec_is_decoder(c) > 0)
+                    Logger.debug("{}:{} ", c.name().getString(), c.type());
+            }
         }
-        Logger.info("Current decoder name: {}, {}", this.decoder.name().getString(), this.decoder.long_name().getString());
-
-        if (true) {
-            for (; ; ) {
-                this.m_VideoDecoderCtx = avcodec_alloc_context3(this.decoder);
-                if (this.m_VideoDecoderCtx == null) {
-                    Logger.error("Unable to find decoder for format AV_CODEC_ID_H264");
-                    if (this.hardwareContext != null) {
-                        this.hardwareContext.free();
-                        this.hardwareContext = null;
-                    }
-                    continue;
-                }
-
-                if (App.USE_HW_ACCEL) {
-                    this.hardwareContext = this.createHardwareContext();
-                    if (this.hardwareContext != null) {
-                        Logger.info("Set hwaccel support");
-                        this.m_VideoDecoderCtx.hw_device_ctx(this.hardwareContext.hwContext()); // comment to disable hwaccel
-                    }
-                } else {
-                    Logger.info("Hwaccel manually disabled");
-                }
-
-                // Always request low delay decoding
-                this.m_VideoDecoderCtx.flags(this.m_VideoDecoderCtx.flags() | AV_CODEC_FLAG_LOW_DELAY);
-
-                // Allow display of corrupt frames and frames missing references
-                this.m_VideoDecoderCtx.flags(this.m_VideoDecoderCtx.flags() | AV_CODEC_FLAG_OUTPUT_CORRUPT);
-                this.m_VideoDecoderCtx.flags2(this.m_VideoDecoderCtx.flags2() | AV_CODEC_FLAG2_SHOW_ALL);
-
-                if (App.USE_AV_EF_EXPLODE) {
-                    // Report decoding errors to allow us to request a key frame
-                    this.m_VideoDecoderCtx.err_recognition(this.m_VideoDecoderCtx.err_recognition() | AV_EF_EXPLODE);
-                }
-
-                // Enable slice multi-threading for software decoding
-                if (this.m_VideoDecoderCtx.hw_device_ctx() == null) { // if not hw accelerated
-                    this.m_VideoDecoderCtx.thread_type(this.m_VideoDecoderCtx.thread_type() | FF_THREAD_SLICE);
-                    this.m_VideoDecoderCtx.thread_count(2/*AppUtil.getCpuCount()*/);
-                } else {
-                    // No threading for HW decode
-                    this.m_VideoDecoderCtx.thread_count(1);
-                }
 
-                this.m_VideoDecoderCtx.width(this.streamResolutionX);
-                this.m_VideoDecoderCtx.height(this.streamResolutionY);
-                this.m_VideoDecoderCtx.pix_fmt(this.getDefaultPixelFormat());
-
-                this.formatCallback = new AVCodecContext.Get_format_AVCodecContext_IntPointer() {
-                    @Override
-                    public int call(final AVCodecContext context, final IntPointer pixelFormats) {
-                        final boolean hwDecodingSupported = context.hw_device_ctx() != null && App.this.hardwareContext != null;
-                        final int preferredPixelFormat = hwDecodingSupported ?
-                                App.this.hardwareContext.hwConfig().pix_fmt() :
-                                context.pix_fmt();
-                        int i = 0;
-                        while (true) {
-                            final int currentSupportedFormat = pixelFormats.get(i++);
-                            System.out.println("Supported pixel formats " + currentSupportedFormat);
-                            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
-                                break;
-                            }
-                        }
-
-                        i = 0;
-                        while (true) {
-                            final int currentSupportedFormat = pixelFormats.get(i++);
-                            if (currentSupportedFormat == preferredPixelFormat) {
-                                Logger.info("[FFmpeg]: pixel format in format callback is {}", currentSupportedFormat);
-                                return currentSupportedFormat;
-                            }
-                            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
-                                break;
-                            }
-                        }
-
-                        i = 0;
-                        while (true) { // try again and search for yuv
-                            final int currentSupportedFormat = pixelFormats.get(i++);
-                            if (currentSupportedFormat == AV_PIX_FMT_YUV420P) {
-                                Logger.info("[FFmpeg]: Not found in first match so use {}", AV_PIX_FMT_YUV420P);
-                                return currentSupportedFormat;
-                            }
-                            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
-                                break;
-                            }
-                        }
-
-                        i = 0;
-                        while (true) { // try again and search for nv12
-                            final int currentSupportedFormat = pixelFormats.get(i++);
-                            if (currentSupportedFormat == AV_PIX_FMT_NV12) {
-                                Logger.info("[FFmpeg]: Not found in second match so use {}", AV_PIX_FMT_NV12);
-                                return currentSupportedFormat;
-                            }
-                            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
-                                break;
-                            }
-                        }
-
-                        Logger.info("[FFmpeg]: pixel format in format callback is using fallback {}", AV_PIX_FMT_NONE);
-                        return AV_PIX_FMT_NONE;
-                    }
-                };
-                this.m_VideoDecoderCtx.get_format(this.formatCallback);
-
-                final AVDictionary options = new AVDictionary(null);
-                final int result = avcodec_open2(this.m_VideoDecoderCtx, this.decoder, options);
-                if (result < 0) {
-                    Logger.error("avcodec_open2 was not successful");
-                    finishHandler.accept(false);
-                    return;
-                }
-                av_dict_free(options);
-                break;
+        final DecoderSettings settings = new DecoderSettings()
+                .hwAccel(App.USE_HW_ACCEL)
+                .hwDeviceTypes(App.HW_DEVICE_TYPES)
+                .explode(App.USE_AV_EF_EXPLODE)
+                .threadingPolicy(ThreadingPolicy.fromSystemProperties())
+                .width(this.streamResolutionX)
+                .height(this.streamResolutionY)
+                .pixelFormat(this.getDefaultPixelFormat());
+        int packetBufferSize = App.PACKET_BUFFER_SIZE;
+        if (App.STREAM_FILE != null) {
+            // configure from the stream's SPS/PPS instead of the defaults, FFmpeg does not need to reinitialise
+            final H264ParameterSets parameterSets = this.scanParameterSets(Paths.get(App.STREAM_FILE));
+            if (parameterSets != null) {
+                Logger.info("Stream parameters {}", parameterSets);
+                settings.parameterSets(parameterSets);
+                this.streamFrameRate = parameterSets.sps().frameRate();
+                packetBufferSize = AVPacketPool.bufferSizeFor(parameterSets.sps().width(), parameterSets.sps().height());
             }
         }
-
-        if (this.decoder == null || this.m_VideoDecoderCtx == null) {
+        this.videoDecoder = VideoDecoder.open(settings);
+        if (this.videoDecoder == null) {
             finishHandler.accept(false);
             return;
         }
-        finishHandler.accept(true);
-    }
-
-    private AVHWContextInfo createHardwareContext() {
-        AVHWContextInfo result = null;
-        for (int i = 0; ; i++) {
-            final AVCodecHWConfig config = avcodec_get_hw_config(this.decoder, i);
-            if (config == null) {
-                break;
-            }
+        Logger.info("Current decoder name: {}, {}", this.videoDecoder.decoder().name().getString(), this.videoDecoder.decoder().long_name().getString());
 
-            if ((config.methods() & AV_CODEC_HW_CONFIG_METHOD_HW_DEVICE_CTX) < 0) {
-                continue;
-            }
-            final int device_type = config.device_type();
-            if (device_type != App.HW_DEVICE_TYPE) {
-                continue;
-            }
-            final AVBufferRef hw_context = av_hwdevice_ctx_alloc(device_type);
-            if (hw_context == null || av_hwdevice_ctx_create(hw_context, device_type, (String) null, null, 0) < 0) {
-                Logger.error("HW accel not supported for type {}", device_type);
-                av_free(config);
-                av_free(hw_context);
-            } else {
-                Logger.info("HW accel created for type {}", device_type);
-                result = new AVHWContextInfo(config, hw_context);
-            }
-            break;
-        }
-
-        return result;
+        this.framePool = new AVFramePool(App.FRAME_POOL_SIZE);
+        this.packetPool = new AVPacketPool(App.PACKET_POOL_SIZE, packetBufferSize);
+        finishHandler.accept(true);
     }
 
     @Override
@@ -260,73 +208,140 @@ public class App extends Application {
     /*****************************/
     
     private void performTestFramesFeeding() {
-        final AVPacket pkt = av_packet_alloc();
-        if (pkt == null) {
-            return;
-        }
-        try (final BytePointer bp = new BytePointer(65_535 * 15)) {
-
+        final AVCodecContext m_VideoDecoderCtx = this.videoDecoder.context();
+        try (final BytePointer bp = new BytePointer(65_535 * 15);
+             final AVErrorString errorString = new AVErrorString()) {
 
             for (int i = 0; i < 1; i++) {
                 final byte[] frameData = AVTestFrames.h264KeyTestFrame;
 
                 bp.position(0);
-
                 bp.put(frameData);
-                bp.limit(frameData.length);
-
-                pkt.data(bp);
-                pkt.capacity(bp.capacity());
-                pkt.size(frameData.length);
-                pkt.position(0);
-                pkt.limit(frameData.length);
-                //pkt.flags(AV_PKT_FLAG_KEY);
-                final AVFrame avFrame = av_frame_alloc();
-                System.out.println("frameData.length " + frameData.length);
-
-                final int err = avcodec_send_packet(this.m_VideoDecoderCtx, pkt); //fill_scaling_lists
+
+                final AVPacket pkt = this.packetPool.acquire(bp, frameData.length, false);
+                if (pkt == null) {
+                    Logger.error("Packet pool exhausted");
+                    return;
+                }
+                Logger.debug("Test key frame of {} bytes", frameData.length);
+
+                final int err = avcodec_send_packet(m_VideoDecoderCtx, pkt); //fill_scaling_lists
+                this.packetPool.release(pkt);
                 if (err < 0) {
-                    final BytePointer buffer = new BytePointer(512);
-                    av_strerror(err, buffer, buffer.capacity());
-                    final String string = buffer.getString();
-                    System.out.println("Error on decoding test frame " + err + " message " + string);
-                    av_frame_free(avFrame);
+                    Logger.error("Error on decoding test frame {}: {}", err, errorString.describe(err));
                     return;
                 }
 
-                final int result = avcodec_receive_frame(this.m_VideoDecoderCtx, avFrame);
-                final AVFrame decodedFrame;
+                final AVFrame avFrame = this.framePool.acquire();
+                if (avFrame == null) {
+                    Logger.error("Frame pool exhausted");
+                    return;
+                }
+                final int result = avcodec_receive_frame(m_VideoDecoderCtx, avFrame);
                 if (result == 0) {
-                    if (this.m_VideoDecoderCtx.hw_device_ctx() == null) {
-                        decodedFrame = avFrame;
-                        System.out.println("SUCESS with SW decoding");
+                    FFmpegLogCallback.frameDecoded();
+                    if (m_VideoDecoderCtx.hw_device_ctx() == null) {
+                        Logger.info("Test key frame decoded in software");
                     } else {
-                        final AVFrame hwAvFrame = av_frame_alloc();
-                        if (av_hwframe_transfer_data(hwAvFrame, avFrame, 0) < 0) {
-                            System.out.println("Failed to transfer frame from hardware");
-                            av_frame_unref(hwAvFrame);
-                            decodedFrame = avFrame;
+                        final AVFrame hwAvFrame = this.framePool.acquire();
+                        if (hwAvFrame == null || av_hwframe_transfer_data(hwAvFrame, avFrame, 0) < 0) {
+                            Logger.error("Failed to transfer test key frame from hardware");
                         } else {
-                            av_frame_unref(avFrame);
-                            decodedFrame = hwAvFrame;
-                            System.out.println("SUCESS with HW decoding");
+                            Logger.info("Test key frame decoded in hardware");
                         }
+                        this.framePool.release(hwAvFrame);
                     }
-
-                    av_frame_unref(decodedFrame);
                 } else {
-                    final BytePointer buffer = new BytePointer(512);
-                    av_strerror(result, buffer, buffer.capacity());
-                    final String string = buffer.getString();
-                    System.out.println("error " + result + " message " + string);
-                    av_frame_free(avFrame);
+                    Logger.error("Error on receiving test frame {}: {}", result, errorString.describe(result));
                 }
+                this.framePool.release(avFrame);
             }
-        } finally {
-            if (pkt.stream_index() != -1) {
-                av_packet_unref(pkt);
+        }
+    }
+
+    /******************************/
+    /*** annex-b file streaming ***/
+    /******************************/
+
+    private void startStreaming() {
+        final DecodePipeline pipeline;
+        synchronized (this.releaseLock) {
+            if (this.released) {
+                return;
             }
-            pkt.releaseReference();
+            RtpIngest rtpIngest = null;
+            Consumer<AVFrame> frameOutput = this.display::submit;
+            if (App.RTP_PORT > 0) {
+                try {
+                    rtpIngest = new RtpIngest(new InetSocketAddress(App.RTP_PORT), this.packetPool);
+                } catch (final IOException e) {
+                    Logger.error(e, "Could not listen for RTP on port {}", App.RTP_PORT);
+                    return;
+                }
+                // network arrival is bursty, a file is decoded as fast as possible and shown unpaced
+                final long refreshInterval = FramePacer.refreshIntervalFromSystemProperty();
+                final long frameInterval = this.streamFrameRate > 0 ?
+                        (long) (TimeUnit.SECONDS.toNanos(1) / this.streamFrameRate) : refreshInterval;
+                this.framePacer = new FramePacer(this.framePool, App.JITTER_BUFFER_CAPACITY, RtpIngest.CLOCK_RATE, frameInterval,
+                        refreshInterval, App.MAX_JITTER_DELAY_NANOS, App.LATE_FRAME_POLICY, this.metrics, System::nanoTime,
+                        this.display::submit);
+                this.framePacer.start();
+                frameOutput = this.framePacer::submit;
+            }
+            pipeline = new DecodePipeline(this.videoDecoder, this.framePool, this.packetPool,
+                    App.PIPELINE_QUEUE_SIZE, App.BACKPRESSURE_POLICY, this.metrics,
+                    new StreamRecovery(() -> Logger.info("Key frame requested"), App.KEY_FRAME_REQUEST_INTERVAL_NANOS, this.metrics),
+                    frameOutput);
+            this.packetStore = this.createPacketStore();
+            pipeline.packetStore(this.packetStore);
+            if (rtpIngest != null) {
+                pipeline.start(rtpIngest);
+                if (App.STREAM_FILE != null) {
+                    this.startLoopbackSender(Paths.get(App.STREAM_FILE));
+                }
+            } else {
+                pipeline.faultInjectionInterval(App.FAULT_INJECTION_INTERVAL);
+                pipeline.start(Paths.get(App.STREAM_FILE));
+            }
+            this.pipeline = pipeline;
+            this.metrics.startReporting(App.METRICS_LOG_PERIOD_SECONDS);
+        }
+        final Thread reporter = new Thread(() -> {
+            final long startTime = System.nanoTime();
+            try {
+                pipeline.awaitCompletion();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            final double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+            Logger.info("Streamed {} access units, decoded {} frames in {} s ({} fps), dropped {}, native memory {}",
+                    pipeline.accessUnits(), pipeline.decodedFrames(), String.format("%.2f", seconds),
+                    String.format("%.1f", pipeline.decodedFrames() / seconds), pipeline.droppedFrames(),
+                    Pointer.formatBytes(Pointer.physicalBytes()));
+            Logger.info("{}", this.metrics.snapshot());
+        }, "pipeline-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private void startLoopbackSender(final Path file) {
+        try {
+            final RtpSender sender = new RtpSender(new InetSocketAddress(InetAddress.getLoopbackAddress(), App.RTP_PORT))
+                    .dropEvery(App.RTP_DROP_EVERY);
+            final Thread thread = new Thread(() -> {
+                try {
+                    sender.replay(file, true);
+                } catch (final IOException e) {
+                    if (!this.released) {
+                        Logger.error(e, "RTP replay of {} failed", file);
+                    }
+                }
+            }, "rtp-sender");
+            thread.setDaemon(true);
+            thread.start();
+            this.rtpSender = sender;
+        } catch (final IOException e) {
+            Logger.error(e, "Could not start RTP replay of {}", file);
         }
     }
 
@@ -339,23 +354,102 @@ public class App extends Application {
         }
         this.released = true;
         synchronized (this.releaseLock) {
-            // Close the video codec
-            if (this.m_VideoDecoderCtx != null) {
-                avcodec_free_context(this.m_VideoDecoderCtx);
-                this.m_VideoDecoderCtx = null;
+            this.metrics.stopReporting();
+
+            if (this.rtpSender != null) {
+                try {
+                    this.rtpSender.close();
+                } catch (final IOException e) {
+                    Logger.warn(e, "Could not close RTP sender");
+                }
+                this.rtpSender = null;
+            }
+
+            // Stop the pipeline threads before the codec context goes away
+            if (this.pipeline != null) {
+                this.pipeline.stop();
+                this.pipeline = null;
             }
 
-            // close the format callback
-            if (this.formatCallback != null) {
-                this.formatCallback.close();
-                this.formatCallback = null;
+            // the decoder thread was the only writer and there are no readers left
+            if (this.packetStore != null) {
+                try {
+                    this.packetStore.close();
+                } catch (final IOException e) {
+                    Logger.warn(e, "Could not close replay buffer");
+                }
+                this.packetStore = null;
             }
 
-            // close hw context
-            if (this.hardwareContext != null) {
-                this.hardwareContext.free();
+            // releases the buffered frame references before the display and the pool go away
+            if (this.framePacer != null) {
+                this.framePacer.close();
+                this.framePacer = null;
+            }
+
+            // nothing is submitted anymore, free the display surfaces
+            if (this.display != null) {
+                this.display.close();
+                this.display = null;
+            }
+
+            // Close the video codec, format callback and hw context
+            if (this.videoDecoder != null) {
+                this.videoDecoder.close();
+                this.videoDecoder = null;
+            }
+
+            // free pooled frames and packets
+            if (this.framePool != null) {
+                this.framePool.close();
+            }
+            if (this.packetPool != null) {
+                this.packetPool.close();
+            }
+
+            // with -Dnative.failOnLeak a frame, packet or buffer still alive here fails the run
+            try {
+                NativeResources.checkLeaks();
+            } catch (final IllegalStateException e) {
+                Logger.error(e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    private void replay() {
+        synchronized (this.releaseLock) {
+            if (this.pipeline != null && this.packetStore != null && App.RTP_PORT <= 0) {
+                this.pipeline.replay(App.REPLAY_DURATION_NANOS);
+            }
+        }
+    }
+
+    private PacketRingStore createPacketStore() {
+        if (App.REPLAY_BUFFER_SIZE <= 0) {
+            return null;
+        }
+        if (App.REPLAY_FILE != null) {
+            try {
+                return PacketRingStore.mapped(Paths.get(App.REPLAY_FILE), App.REPLAY_BUFFER_SIZE, App.REPLAY_MAX_ACCESS_UNITS);
+            } catch (final IOException e) {
+                Logger.warn(e, "Could not map replay file {}, keeping the replay buffer in memory", App.REPLAY_FILE);
             }
         }
+        return PacketRingStore.inMemory(App.REPLAY_BUFFER_SIZE, App.REPLAY_MAX_ACCESS_UNITS);
+    }
+
+    private H264ParameterSets scanParameterSets(final Path file) {
+        try {
+            final H264ParameterSets parameterSets = H264ParameterSets.scan(file, App.PARAMETER_SET_SCAN_LIMIT);
+            if (parameterSets == null) {
+                Logger.warn("No SPS/PPS found at the start of {}, using default decoder settings", file);
+            }
+            return parameterSets;
+        } catch (final IOException e) {
+            Logger.error(e, "Could not read parameter sets from {}", file);
+            return null;
+        }
     }
 
     private int getDefaultPixelFormat() {
@@ -394,56 +488,6 @@ public class App extends Application {
         }
     }
 
-    public static final class AVHWContextInfo {
-        private final AVCodecHWConfig hwConfig;
-        private final AVBufferRef hwContext;
-
-        private volatile boolean freed = false;
-
-        public AVHWContextInfo(final AVCodecHWConfig hwConfig, final AVBufferRef hwContext) {
-            this.hwConfig = hwConfig;
-            this.hwContext = hwContext;
-        }
-
-        public AVCodecHWConfig hwConfig() {
-            return this.hwConfig;
-        }
-
-        public AVBufferRef hwContext() {
-            return this.hwContext;
-        }
-
-        public void free() {
-            if (this.freed) {
-                return;
-            }
-            this.freed = true;
-            av_free(this.hwConfig);
-            av_free(this.hwContext);
-        }
-
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            AVHWContextInfo that = (AVHWContextInfo) o;
-            return freed == that.freed && Objects.equals(hwConfig, that.hwConfig) && Objects.equals(hwContext, that.hwContext);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(hwConfig, hwContext, freed);
-        }
-
-        @Override
-        public String toString() {
-            return "AVHWContextInfo[" +
-                    "hwConfig=" + this.hwConfig + ", " +
-                    "hwContext=" + this.hwContext + ']';
-        }
-    }
-
     public static final class AVTestFrames {
 
         private AVTestFrames() {
@@ -472,49 +516,4 @@ public class App extends Application {
 
         public static byte[] h264KeyTestFrame;
     }
-
-    public static class FFmpegLogCallback extends LogCallback {
-
-        private static final org.bytedeco.javacpp.tools.Logger logger = org.bytedeco.javacpp.tools.Logger.create(FFmpegLogCallback.class);
-
-        static final FFmpegLogCallback instance = new FFmpegLogCallback().retainReference();
-
-        public static FFmpegLogCallback getInstance() {
-            return instance;
-        }
-
-        /**
-         * Calls {@code avutil.setLogCallback(getInstance())}.
-         */
-        public static void set() {
-            setLogCallback(getInstance());
-        }
-
-        /**
-         * Returns {@code av_log_get_level()}.
-         **/
-        public static int getLevel() {
-            return av_log_get_level();
-        }
-
-        /**
-         * Calls {@code av_log_set_level(level)}.
-         **/
-        public static void setLevel(int level) {
-            av_log_set_level(level);
-        }
-
-        @Override
-        public void call(int level, BytePointer msg) {
-            switch (level) {
-                case AV_LOG_PANIC, AV_LOG_FATAL, AV_LOG_ERROR -> logger.error(msg.getString());
-                case AV_LOG_WARNING -> logger.warn(msg.getString());
-                case AV_LOG_INFO -> logger.info(msg.getString());
-                case AV_LOG_VERBOSE, AV_LOG_DEBUG, AV_LOG_TRACE -> logger.debug(msg.getString());
-                default -> {
-                    assert false;
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,15 @@
+package com.grill.example;
+
+/**
+ * What a pipeline stage does when its downstream queue is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Wait until the consumer made room, no element is lost.
+     */
+    BLOCK,
+    /**
+     * Evict the oldest queued element to make room for the new one, the producer never waits.
+     */
+    DROP_OLDEST
+}
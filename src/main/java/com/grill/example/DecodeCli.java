@@ -0,0 +1,261 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.Pointer;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_LOG_WARNING;
+
+/**
+ * Headless decoding without JavaFX, for servers and CI. Decodes an Annex-B file or an RTP stream through the
+ * same {@link DecodePipeline} the application uses and prints the MD5 of every frame, the throughput, the latency
+ * percentiles and the peak of the tracked native memory.
+ * <p>
+ * For a file the checksums are compared with a golden file, by default {@code <file>.md5}, which
+ * {@code --write-golden} creates; a missing golden file fails the run unless {@code --no-checksum} is given. The
+ * output queue blocks instead of dropping frames, so every frame is
+ * checksummed in order and a run is reproducible. Optional budgets for throughput and latency turn performance
+ * regressions into failures as well:
+ * <pre>
+ * DecodeCli [--golden file] [--write-golden] [--no-checksum] [--quiet] [--hw]
+ *           [--min-fps n] [--max-p99-ms n] [--rtp port --duration seconds] [file]
+ * </pre>
+ * Exits with 0 if everything matched, 1 on a checksum mismatch, a missed budget or leaked native resources and
+ * 2 on a usage or I/O error.
+ */
+public final class DecodeCli {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_ERROR = 2;
+
+    private static final int FRAME_POOL_SIZE = 8;
+    private static final int PACKET_POOL_SIZE = 8;
+    private static final int PACKET_BUFFER_SIZE = 1 << 20;
+    private static final int PIPELINE_QUEUE_SIZE = 4;
+    private static final int PARAMETER_SET_SCAN_LIMIT = 16;
+    private static final long KEY_FRAME_REQUEST_INTERVAL_NANOS = 500_000_000L;
+    private static final int DEFAULT_WIDTH = 1920;
+    private static final int DEFAULT_HEIGHT = 1080;
+
+    // mismatching frames printed in detail
+    private static final int REPORTED_MISMATCHES = 10;
+
+    private Path file;
+    private Path golden;
+    private boolean writeGolden = false;
+    private boolean checksums = true;
+    private boolean quiet = false;
+    private boolean hwAccel = false;
+    private double minFps = 0;
+    private double maxP99Millis = 0;
+    private int rtpPort = 0;
+    private long durationSeconds = 10;
+
+    private final List<String> frames = new ArrayList<>();
+
+    private DecodeCli() {
+    }
+
+    public static void main(final String[] args) {
+        final DecodeCli cli = new DecodeCli();
+        int status;
+        try {
+            status = cli.parse(args) ? cli.run() : DecodeCli.EXIT_ERROR;
+        } catch (final IOException e) {
+            System.err.println("Decoding failed: " + e.getMessage());
+            status = DecodeCli.EXIT_ERROR;
+        } catch (final InterruptedException e) {
+            status = DecodeCli.EXIT_ERROR;
+        }
+        System.exit(status);
+    }
+
+    private boolean parse(final String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--golden" -> this.golden = Paths.get(args[++i]);
+                    case "--write-golden" -> this.writeGolden = true;
+                    case "--no-checksum" -> this.checksums = false;
+                    case "--quiet" -> this.quiet = true;
+                    case "--hw" -> this.hwAccel = true;
+                    case "--min-fps" -> this.minFps = Double.parseDouble(args[++i]);
+                    case "--max-p99-ms" -> this.maxP99Millis = Double.parseDouble(args[++i]);
+                    case "--rtp" -> this.rtpPort = Integer.parseInt(args[++i]);
+                    case "--duration" -> this.durationSeconds = Long.parseLong(args[++i]);
+                    default -> {
+                        if (args[i].startsWith("--") || this.file != null) {
+                            System.err.println("Unknown argument " + args[i]);
+                            return DecodeCli.usage();
+                        }
+                        this.file = Paths.get(args[i]);
+                    }
+                }
+            }
+        } catch (final ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            return DecodeCli.usage();
+        }
+        if ((this.file == null) == (this.rtpPort <= 0)) {
+            System.err.println("Either a file or --rtp is required");
+            return DecodeCli.usage();
+        }
+        if (this.file != null && this.golden == null) {
+            this.golden = Paths.get(this.file + ".md5");
+        }
+        if (!this.checksums) {
+            this.golden = null;
+        }
+        return true;
+    }
+
+    private static boolean usage() {
+        System.err.println("Usage: DecodeCli [--golden file] [--write-golden] [--no-checksum] [--quiet] [--hw]"
+                + " [--min-fps n] [--max-p99-ms n] [--rtp port --duration seconds] [file]");
+        return false;
+    }
+
+    private int run() throws IOException, InterruptedException {
+        // no codec enumeration and no debug logging of FFmpeg, only what the decoding needs
+        FFmpegLogCallback.setLevel(AV_LOG_WARNING);
+        FFmpegLogCallback.set();
+
+        final DecoderSettings settings = new DecoderSettings()
+                .hwAccel(this.hwAccel)
+                .explode(true)
+                .threadingPolicy(ThreadingPolicy.fromSystemProperties())
+                .width(DecodeCli.DEFAULT_WIDTH)
+                .height(DecodeCli.DEFAULT_HEIGHT);
+        int packetBufferSize = DecodeCli.PACKET_BUFFER_SIZE;
+        if (this.file != null) {
+            final H264ParameterSets parameterSets = H264ParameterSets.scan(this.file, DecodeCli.PARAMETER_SET_SCAN_LIMIT);
+            if (parameterSets != null) {
+                settings.parameterSets(parameterSets);
+                packetBufferSize = AVPacketPool.bufferSizeFor(parameterSets.sps().width(), parameterSets.sps().height());
+            }
+        }
+
+        final DecoderMetrics metrics = new DecoderMetrics();
+        final long startTime;
+        final long seconds;
+        final long decodedFrames;
+        try (final VideoDecoder videoDecoder = VideoDecoder.open(settings);
+             final AVFramePool framePool = new AVFramePool(DecodeCli.FRAME_POOL_SIZE);
+             final AVPacketPool packetPool = new AVPacketPool(DecodeCli.PACKET_POOL_SIZE, packetBufferSize);
+             final FrameChecksum checksum = new FrameChecksum()) {
+            if (videoDecoder == null) {
+                System.err.println("Unable to open decoder with " + settings);
+                return DecodeCli.EXIT_ERROR;
+            }
+            final DecodePipeline pipeline = new DecodePipeline(videoDecoder, framePool, packetPool,
+                    DecodeCli.PIPELINE_QUEUE_SIZE, BackpressurePolicy.BLOCK, metrics,
+                    new StreamRecovery(() -> Logger.info("Key frame requested"), DecodeCli.KEY_FRAME_REQUEST_INTERVAL_NANOS, metrics),
+                    frame -> this.output(frame, checksum));
+            startTime = System.nanoTime();
+            if (this.file != null) {
+                pipeline.start(this.file);
+                pipeline.awaitCompletion();
+            } else {
+                pipeline.start(new RtpIngest(new InetSocketAddress(this.rtpPort), packetPool));
+                TimeUnit.SECONDS.sleep(this.durationSeconds);
+            }
+            seconds = System.nanoTime() - startTime;
+            pipeline.stop();
+            decodedFrames = pipeline.decodedFrames();
+        }
+
+        final DecoderMetrics.Snapshot snapshot = metrics.snapshot();
+        final double fps = decodedFrames / (seconds / 1e9);
+        System.out.printf("Decoded %d frames in %.3f s, %.1f frames/s%n", decodedFrames, seconds / 1e9, fps);
+        for (final DecoderMetrics.Stage stage : DecoderMetrics.Stage.values()) {
+            if (snapshot.stage(stage).count() > 0) {
+                System.out.println(snapshot.stage(stage));
+            }
+        }
+        System.out.println("Peak tracked native memory " + Pointer.formatBytes(NativeResources.peakBytes())
+                + ", physical memory " + Pointer.formatBytes(Pointer.physicalBytes()));
+
+        boolean passed = this.checkGolden();
+        if (this.minFps > 0 && fps < this.minFps) {
+            System.out.printf("FAILED: %.1f frames/s is below the budget of %.1f%n", fps, this.minFps);
+            passed = false;
+        }
+        final double p99Millis = snapshot.stage(DecoderMetrics.Stage.DECODE_LATENCY).p99() / 1e6;
+        if (this.maxP99Millis > 0 && p99Millis > this.maxP99Millis) {
+            System.out.printf("FAILED: p99 decode latency %.2f ms is above the budget of %.2f ms%n", p99Millis, this.maxP99Millis);
+            passed = false;
+        }
+        final List<String> leaks = NativeResources.leaks();
+        for (final String leak : leaks) {
+            System.out.println("FAILED: leak " + leak);
+        }
+        return passed && leaks.isEmpty() ? DecodeCli.EXIT_OK : DecodeCli.EXIT_FAILED;
+    }
+
+    /**
+     * Runs on the output thread of the pipeline.
+     */
+    private void output(final AVFrame frame, final FrameChecksum checksum) {
+        if (!this.checksums) {
+            return;
+        }
+        final String line = frame.pts() + " " + frame.width() + "x" + frame.height() + " " + checksum.md5(frame);
+        this.frames.add(line);
+        if (!this.quiet) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Writes or compares the golden file, there is nothing to compare for a stream.
+     *
+     * @return {@code false} if the checksums do not match the golden file
+     */
+    private boolean checkGolden() throws IOException {
+        if (this.golden == null) {
+            return true;
+        }
+        if (this.writeGolden) {
+            final List<String> lines = new ArrayList<>();
+            lines.add("# pts width x height md5 of " + this.file.getFileName());
+            lines.addAll(this.frames);
+            Files.write(this.golden, lines, StandardCharsets.UTF_8);
+            System.out.println("Wrote " + this.frames.size() + " checksums to " + this.golden);
+            return true;
+        }
+        if (!Files.exists(this.golden)) {
+            System.out.println("FAILED: no golden file " + this.golden + ", create it with --write-golden");
+            return false;
+        }
+        final List<String> expected = new ArrayList<>();
+        for (final String line : Files.readAllLines(this.golden, StandardCharsets.UTF_8)) {
+            if (!line.isBlank() && !line.startsWith("#")) {
+                expected.add(line.trim());
+            }
+        }
+        int mismatches = 0;
+        for (int i = 0; i < Math.max(expected.size(), this.frames.size()); i++) {
+            final String wanted = i < expected.size() ? expected.get(i) : "<none>";
+            final String actual = i < this.frames.size() ? this.frames.get(i) : "<none>";
+            if (!wanted.equals(actual) && mismatches++ < DecodeCli.REPORTED_MISMATCHES) {
+                System.out.println("Frame " + i + ": expected " + wanted + ", decoded " + actual);
+            }
+        }
+        if (mismatches > 0) {
+            System.out.println("FAILED: " + mismatches + " of " + expected.size() + " frames differ from " + this.golden);
+            return false;
+        }
+        System.out.println("All " + expected.size() + " frames match " + this.golden);
+        return true;
+    }
+}
@@ -0,0 +1,614 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.bytedeco.ffmpeg.avutil.AVFrame.AV_FRAME_FLAG_CORRUPT;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_INPUT_BUFFER_PADDING_SIZE;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_CORRUPT;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_flush_buffers;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EAGAIN;
+import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EOF;
+import static org.bytedeco.ffmpeg.global.avutil.av_hwframe_transfer_data;
+
+/**
+ * Three stage decode pipeline: ingest, decode and output each run on their own thread and are connected by
+ * {@link SpscRingBuffer}s carrying pooled native packets and frames.
+ * <p>
+ * The decoder thread is the only thread touching the codec context while the pipeline runs. The ingest queue
+ * always blocks, dropping encoded access units would corrupt every following frame until the next IDR. The
+ * configurable {@link BackpressurePolicy} applies to decoded frames waiting for the output stage.
+ * <p>
+ * Decoding errors hand over to {@link StreamRecovery}: corrupt frames are dropped and access units are skipped
+ * on the decoder thread until the next key frame. When hardware decoding or the transfer of a hardware frame
+ * fails, the decoder switches to its warmed up software context at that key frame.
+ * <p>
+ * A SPS changing the picture format in the middle of the stream is handled in place: FFmpeg reinitialises the
+ * context itself, the ingest stage only resizes the packet pool.
+ */
+public final class DecodePipeline {
+
+    private static final long POOL_WAIT_MILLIS = 10;
+
+    // slices shorter than this are left alone by the fault injection
+    private static final int MIN_FAULT_SLICE_SIZE = 64;
+
+    private final VideoDecoder videoDecoder;
+    private AVCodecContext m_VideoDecoderCtx;
+    private boolean failOverPending = false;
+    private final AVFramePool framePool;
+    private final AVPacketPool packetPool;
+    private final Consumer<AVFrame> frameOutput;
+    private final DecoderMetrics metrics;
+    private final StreamRecovery recovery;
+
+    private final SpscRingBuffer<AVPacket> packetQueue;
+    private final SpscRingBuffer<AVFrame> frameQueue;
+
+    private Thread ingestThread;
+    private Thread decoderThread;
+    private Thread outputThread;
+
+    private volatile boolean running = false;
+    private volatile long accessUnits = 0;
+    private volatile long decodedFrames = 0;
+    private volatile long outputFrames = 0;
+    private volatile long droppedFrames = 0;
+
+    private int faultInjectionInterval = 0;
+    private int keyFrameInterval = 1;
+    private PacketRingStore packetStore;
+    // duration of the replay requested from the packet store, -1 if none is pending
+    private volatile long replayNanos = -1;
+
+    private H264ParameterSets.Sps activeSps;
+    private final byte[] parameterSetBuffer = new byte[H264ParameterSets.PARAMETER_SET_PREFIX];
+
+    /**
+     * @param videoDecoder an opened decoder, owned by the decoder thread until {@link #stop()} returns
+     * @param frameOutput  called on the output thread for every decoded frame, the frame is released afterwards
+     */
+    public DecodePipeline(final VideoDecoder videoDecoder, final AVFramePool framePool, final AVPacketPool packetPool,
+                          final int queueCapacity, final BackpressurePolicy policy, final DecoderMetrics metrics,
+                          final StreamRecovery recovery, final Consumer<AVFrame> frameOutput) {
+        this.videoDecoder = videoDecoder;
+        this.m_VideoDecoderCtx = videoDecoder.context();
+        this.framePool = framePool;
+        this.packetPool = packetPool;
+        this.frameOutput = frameOutput;
+        this.metrics = metrics;
+        this.recovery = recovery;
+        this.packetQueue = new SpscRingBuffer<>(queueCapacity, BackpressurePolicy.BLOCK, packetPool::release);
+        this.frameQueue = new SpscRingBuffer<>(queueCapacity, policy, frame -> {
+            this.droppedFrames++;
+            metrics.countDroppedFrame();
+            framePool.release(frame);
+        });
+    }
+
+    /**
+     * Truncates the first slice of every {@code interval}-th access unit before it is queued, key frames
+     * included, to exercise the error recovery. 0 disables fault injection, has to be set before
+     * {@link #start(Path)}.
+     */
+    public void faultInjectionInterval(final int interval) {
+        this.faultInjectionInterval = Math.max(0, interval);
+    }
+
+    /**
+     * Keeps the key frame flag only on every {@code interval}-th access unit of a file, the others are queued as
+     * if they did not start with an IDR. Lets tests run the recovery of an all-intra stream like that of a stream
+     * with long GOPs; has to be set before {@link #start(Path)}.
+     */
+    void keyFrameInterval(final int interval) {
+        this.keyFrameInterval = Math.max(1, interval);
+    }
+
+    /**
+     * Keeps every access unit the decoder accepts in {@code store} for replay and seeking, the decoder thread is
+     * its writer. Has to be set before the pipeline is started.
+     */
+    public void packetStore(final PacketRingStore store) {
+        this.packetStore = store;
+    }
+
+    /**
+     * Decodes the last {@code durationNanos} of the stream again from the packet store, starting at a retained key
+     * frame. The decoder thread serves the request before its next access unit and then continues with the live
+     * stream, which picks up exactly where the replayed access units end. Frames keep their original pts.
+     */
+    public void replay(final long durationNanos) {
+        if (this.packetStore == null) {
+            throw new IllegalStateException("No packet store to replay from");
+        }
+        this.replayNanos = Math.max(0, durationNanos);
+    }
+
+    /**
+     * Starts all stages, the ingest stage streams the given Annex-B file.
+     */
+    public synchronized void start(final Path file) {
+        this.startStages(() -> this.runIngest(file));
+    }
+
+    /**
+     * Starts all stages, the ingest stage receives RTP until the pipeline is stopped and closes the ingest then.
+     */
+    public synchronized void start(final RtpIngest ingest) {
+        this.startStages(() -> this.runRtpIngest(ingest));
+    }
+
+    private void startStages(final Runnable ingest) {
+        if (this.running) {
+            throw new IllegalStateException("Pipeline already running");
+        }
+        this.running = true;
+        this.ingestThread = DecodePipeline.newThread(ingest, "pipeline-ingest");
+        this.decoderThread = DecodePipeline.newThread(this::runDecoder, "pipeline-decoder");
+        this.outputThread = DecodePipeline.newThread(this::runOutput, "pipeline-output");
+        this.outputThread.start();
+        this.decoderThread.start();
+        this.ingestThread.start();
+    }
+
+    /**
+     * Stops all stages and waits until the decoder thread released the codec context.
+     */
+    public synchronized void stop() {
+        this.running = false;
+        this.packetQueue.close();
+        this.frameQueue.close();
+        DecodePipeline.join(this.ingestThread);
+        DecodePipeline.join(this.decoderThread);
+        DecodePipeline.join(this.outputThread);
+
+        AVPacket pkt;
+        while ((pkt = this.packetQueue.poll()) != null) {
+            this.packetPool.release(pkt);
+        }
+        AVFrame frame;
+        while ((frame = this.frameQueue.poll()) != null) {
+            this.framePool.release(frame);
+        }
+    }
+
+    /**
+     * Waits until the whole input was decoded and output.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        if (this.outputThread != null) {
+            this.outputThread.join();
+        }
+    }
+
+    public long accessUnits() {
+        return this.accessUnits;
+    }
+
+    public long decodedFrames() {
+        return this.decodedFrames;
+    }
+
+    public long outputFrames() {
+        return this.outputFrames;
+    }
+
+    public long droppedFrames() {
+        return this.droppedFrames;
+    }
+
+    /*******************/
+    /*** ingest stage ***/
+    /*******************/
+
+    private void runIngest(final Path file) {
+        try (final AnnexBReader reader = new AnnexBReader(file)) {
+            Logger.info("Streaming {} ({} bytes)", file, reader.fileSize());
+            long index = 0;
+            for (; ; ) {
+                final long ingestStart = System.nanoTime();
+                if (!this.running || !reader.nextAccessUnit()) {
+                    break;
+                }
+                if (reader.hasParameterSets()) {
+                    this.onParameterSets(reader.data(), reader.size());
+                }
+                final AVPacket pkt = this.acquirePacket(reader);
+                if (pkt == null) {
+                    break;
+                }
+                pkt.pts(index);
+                pkt.dts(index);
+                if (index % this.keyFrameInterval != 0) {
+                    pkt.flags(pkt.flags() & ~AV_PKT_FLAG_KEY);
+                }
+                if (this.faultInjectionInterval > 0 && index % this.faultInjectionInterval == this.faultInjectionInterval - 1) {
+                    this.injectFault(pkt);
+                }
+                final long ingestEnd = System.nanoTime();
+                this.metrics.record(DecoderMetrics.Stage.INGEST, ingestEnd - ingestStart);
+                this.metrics.markIngest(index, ingestEnd);
+                index++;
+                if (!this.packetQueue.put(pkt)) {
+                    this.packetPool.release(pkt);
+                    break;
+                }
+                this.accessUnits = index;
+            }
+        } catch (final IOException e) {
+            Logger.error(e, "Could not stream file {}", file);
+        } finally {
+            this.packetQueue.close();
+        }
+    }
+
+    private void runRtpIngest(final RtpIngest ingest) {
+        try (ingest) {
+            Logger.info("Receiving RTP on {}", ingest.localAddress());
+            ingest.run(() -> this.running, pkt -> {
+                if (ingest.hasParameterSets()) {
+                    this.onParameterSets(pkt.data(), pkt.size());
+                }
+                // the pts is the unwrapped RTP timestamp, it keeps the media timing through losses
+                this.metrics.markIngest(pkt.pts(), System.nanoTime());
+                this.accessUnits++;
+                if (!this.packetQueue.put(pkt)) {
+                    this.packetPool.release(pkt);
+                    return false;
+                }
+                return true;
+            });
+            Logger.info("RTP ingest received {} packets, {} lost, {} reordered", ingest.receivedPackets(),
+                    ingest.lostPackets(), ingest.reorderedPackets());
+        } catch (final IOException e) {
+            Logger.error(e, "RTP ingest failed");
+        } finally {
+            this.packetQueue.close();
+        }
+    }
+
+    /**
+     * Resizes the packet pool when a SPS changes the resolution. Called before the access unit is filled for a
+     * file; a RTP access unit is already assembled then and grows by itself if needed, the next ones fit.
+     */
+    private void onParameterSets(final BytePointer data, final int size) {
+        final int length = Math.min(size, this.parameterSetBuffer.length);
+        data.get(this.parameterSetBuffer, 0, length);
+        final H264ParameterSets parameterSets = H264ParameterSets.parse(this.parameterSetBuffer, length);
+        if (parameterSets == null) {
+            return;
+        }
+        final H264ParameterSets.Sps sps = parameterSets.sps();
+        if (sps.changesFormat(this.activeSps)) {
+            if (this.activeSps != null) {
+                Logger.info("Stream format changed from {} to {}", this.activeSps, sps);
+            }
+            this.packetPool.resize(AVPacketPool.bufferSizeFor(sps.width(), sps.height()));
+        }
+        this.activeSps = sps;
+    }
+
+    private AVPacket acquirePacket(final AnnexBReader reader) {
+        while (this.running) {
+            // recovery points are as good as IDRs for resynchronisation
+            final AVPacket pkt = this.packetPool.acquire(reader.data(), reader.size(), reader.isKeyFrame() || reader.isRecoveryPoint());
+            if (pkt != null) {
+                return pkt;
+            }
+            // all packets are queued or inside the decoder, wait for the decoder to return one
+            DecodePipeline.sleep();
+        }
+        return null;
+    }
+
+    /********************/
+    /*** decode stage ***/
+    /********************/
+
+    private void runDecoder() {
+        try (final AVErrorString errorString = new AVErrorString()) {
+            AVPacket pkt;
+            while ((pkt = this.packetQueue.take()) != null) {
+                if (this.replayNanos >= 0 && !this.replayStored(errorString)) {
+                    this.packetPool.release(pkt);
+                    break;
+                }
+                final boolean corrupt = (pkt.flags() & AV_PKT_FLAG_CORRUPT) != 0;
+                if (corrupt) {
+                    // incomplete access unit from a lossy transport, not a decoder failure
+                    this.recovery.onDecodeError();
+                }
+                if (!this.recovery.accept(!corrupt && (pkt.flags() & AV_PKT_FLAG_KEY) != 0)) {
+                    this.metrics.countSkippedAccessUnit();
+                    this.packetPool.release(pkt);
+                    continue;
+                }
+                if (this.failOverPending && (pkt.flags() & AV_PKT_FLAG_KEY) != 0) {
+                    this.failOverPending = false;
+                    if (this.videoDecoder.failOverToSoftware()) {
+                        this.m_VideoDecoderCtx = this.videoDecoder.context();
+                    }
+                } else if (this.recovery.resynced()) {
+                    // drop references decoded from the corrupt part of the stream
+                    avcodec_flush_buffers(this.m_VideoDecoderCtx);
+                }
+                if (this.packetStore != null && !corrupt) {
+                    this.packetStore.append(pkt, System.nanoTime());
+                }
+                int err;
+                while ((err = this.sendPacket(pkt)) == AVERROR_EAGAIN()) {
+                    this.metrics.countEagain();
+                    if (!this.receiveFrames(errorString)) {
+                        break;
+                    }
+                }
+                this.packetPool.release(pkt);
+                if (err < 0 && err != AVERROR_EAGAIN()) {
+                    this.onDecodeError();
+                    Logger.warn("Error on sending packet: {}", errorString.describe(err));
+                    continue;
+                }
+                if (!this.receiveFrames(errorString)) {
+                    break;
+                }
+            }
+
+            // release whatever the ingest stage queued after a stop request
+            while ((pkt = this.packetQueue.poll()) != null) {
+                this.packetPool.release(pkt);
+            }
+            if (this.running) {
+                // drain the decoder
+                avcodec_send_packet(this.m_VideoDecoderCtx, null);
+                this.receiveFrames(errorString);
+            }
+        } finally {
+            this.frameQueue.close();
+        }
+    }
+
+    /**
+     * Sends the stored access units from the replay start up to the newest one, the one sent before the access
+     * unit waiting now. The decoder thread is the only writer of the store, nothing is evicted meanwhile.
+     *
+     * @return {@code false} if the pipeline was stopped
+     */
+    private boolean replayStored(final AVErrorString errorString) {
+        final long durationNanos = this.replayNanos;
+        this.replayNanos = -1;
+        final long end = this.packetStore.nextSequence();
+        long sequence = this.packetStore.replayStart(durationNanos);
+        if (sequence < 0) {
+            return true;
+        }
+        Logger.info("Replaying {} access units", end - sequence);
+        // output the frames still inside the decoder before the references are dropped
+        avcodec_send_packet(this.m_VideoDecoderCtx, null);
+        if (!this.receiveFrames(errorString)) {
+            return false;
+        }
+        avcodec_flush_buffers(this.m_VideoDecoderCtx);
+        for (; sequence < end; sequence++) {
+            final AVPacket pkt = this.readStored(sequence);
+            if (pkt == null) {
+                return false;
+            }
+            this.metrics.markIngest(pkt.pts(), System.nanoTime());
+            int err;
+            while ((err = this.sendPacket(pkt)) == AVERROR_EAGAIN()) {
+                this.metrics.countEagain();
+                if (!this.receiveFrames(errorString)) {
+                    break;
+                }
+            }
+            this.packetPool.release(pkt);
+            if (err < 0 && err != AVERROR_EAGAIN()) {
+                // the live stream recovers at its next key frame
+                this.onDecodeError();
+                Logger.warn("Error on sending replayed packet: {}", errorString.describe(err));
+                return true;
+            }
+            if (!this.receiveFrames(errorString)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private AVPacket readStored(final long sequence) {
+        while (this.running) {
+            final AVPacket pkt = this.packetStore.read(sequence, this.packetPool);
+            if (pkt != null) {
+                return pkt;
+            }
+            // the sequence is retained, all packets are queued by the ingest stage
+            DecodePipeline.sleep();
+        }
+        return null;
+    }
+
+    private void onDecodeError() {
+        this.metrics.countDecodeError();
+        this.recovery.onDecodeError();
+        if (this.videoDecoder.isHardwareAccelerated() && this.videoDecoder.canFailOver()) {
+            // skipping until the next key frame is up to the recovery, the switch happens there
+            this.failOverPending = true;
+        }
+    }
+
+    private int sendPacket(final AVPacket pkt) {
+        final long start = System.nanoTime();
+        final int result = avcodec_send_packet(this.m_VideoDecoderCtx, pkt);
+        this.metrics.record(DecoderMetrics.Stage.SEND_PACKET, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Receives all frames currently available from the decoder and hands them to the output stage.
+     *
+     * @return {@code false} if the pipeline was stopped
+     */
+    private boolean receiveFrames(final AVErrorString errorString) {
+        for (; ; ) {
+            final AVFrame avFrame = this.acquireFrame();
+            if (avFrame == null) {
+                return false;
+            }
+            final long receiveStart = System.nanoTime();
+            final int result = avcodec_receive_frame(this.m_VideoDecoderCtx, avFrame);
+            if (result < 0) {
+                this.framePool.release(avFrame);
+                if (result == AVERROR_EAGAIN()) {
+                    this.metrics.countEagain();
+                } else if (result == AVERROR_EOF) {
+                    this.metrics.countEof();
+                } else {
+                    this.onDecodeError();
+                    Logger.warn("Error on receiving frame: {}", errorString.describe(result));
+                }
+                return true;
+            }
+            if ((avFrame.flags() & AV_FRAME_FLAG_CORRUPT) != 0 || avFrame.decode_error_flags() != 0) {
+                // shown only because of AV_CODEC_FLAG_OUTPUT_CORRUPT, never hand concealed garbage downstream
+                this.metrics.countDroppedFrame();
+                this.onDecodeError();
+                this.framePool.release(avFrame);
+                continue;
+            }
+            this.recovery.onCleanFrame();
+            final long received = System.nanoTime();
+            this.metrics.record(DecoderMetrics.Stage.RECEIVE_FRAME, received - receiveStart);
+
+            AVFrame decodedFrame = avFrame;
+            if (this.m_VideoDecoderCtx.hw_device_ctx() != null) {
+                final AVFrame hwAvFrame = this.acquireFrame();
+                final long transferStart = System.nanoTime();
+                if (hwAvFrame == null || av_hwframe_transfer_data(hwAvFrame, avFrame, 0) < 0) {
+                    Logger.warn("Failed to transfer frame from hardware");
+                    this.framePool.release(hwAvFrame);
+                    this.framePool.release(avFrame);
+                    this.metrics.countDroppedFrame();
+                    this.onDecodeError();
+                    continue;
+                }
+                this.metrics.record(DecoderMetrics.Stage.HW_TRANSFER, System.nanoTime() - transferStart);
+                hwAvFrame.pts(avFrame.pts());
+                this.framePool.release(avFrame);
+                decodedFrame = hwAvFrame;
+            }
+            this.decodedFrames++;
+            this.metrics.countDecodedFrame();
+            FFmpegLogCallback.frameDecoded();
+            this.metrics.recordSinceIngest(DecoderMetrics.Stage.DECODE_LATENCY, decodedFrame.pts(), System.nanoTime());
+            if (!this.frameQueue.put(decodedFrame)) {
+                this.framePool.release(decodedFrame);
+                return false;
+            }
+        }
+    }
+
+    private AVFrame acquireFrame() {
+        try {
+            while (this.running) {
+                final AVFrame frame = this.framePool.acquire(DecodePipeline.POOL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame != null) {
+                    return frame;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /********************/
+    /*** output stage ***/
+    /********************/
+
+    private void runOutput() {
+        AVFrame frame;
+        while ((frame = this.frameQueue.take()) != null) {
+            try {
+                if (this.running) {
+                    this.frameOutput.accept(frame);
+                    this.outputFrames++;
+                }
+            } catch (final RuntimeException e) {
+                Logger.error(e, "Frame output failed");
+            } finally {
+                this.framePool.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Cuts the first slice of the access unit in half. The parameter sets in front of it stay intact, so a key
+     * frame is corrupted without breaking the decoder configuration, and a truncated slice is always detected.
+     * Runs on the ingest thread.
+     */
+    private void injectFault(final AVPacket pkt) {
+        final int length = Math.min(pkt.size(), this.parameterSetBuffer.length);
+        pkt.data().position(0).get(this.parameterSetBuffer, 0, length);
+        final int slice = DecodePipeline.firstSlice(this.parameterSetBuffer, length);
+        if (slice < 0 || pkt.size() - slice < DecodePipeline.MIN_FAULT_SLICE_SIZE) {
+            return;
+        }
+        final int size = slice + (pkt.size() - slice) / 2;
+        // the decoder reads ahead into the padding, it has to be zero as for any packet
+        Pointer.memset(pkt.data().position(size), 0, AV_INPUT_BUFFER_PADDING_SIZE);
+        pkt.size(size);
+    }
+
+    /**
+     * @return the offset of the first slice NAL unit header or -1 if there is none in {@code length} bytes
+     */
+    private static int firstSlice(final byte[] data, final int length) {
+        for (int i = 0; i + 3 < length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                final int nalType = data[i + 3] & 0x1F;
+                if (nalType == AnnexBReader.NAL_SLICE || nalType == AnnexBReader.NAL_IDR_SLICE) {
+                    return i + 3;
+                }
+                i += 2;
+            }
+        }
+        return -1;
+    }
+
+    private static Thread newThread(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void join(final Thread thread) {
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
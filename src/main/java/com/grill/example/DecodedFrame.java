@@ -0,0 +1,83 @@
+package com.grill.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Planar 8 bit picture returned by a {@link DecoderBackend}. The planes are views into memory owned by the
+ * backend and are only valid until the frame is released.
+ */
+public final class DecodedFrame {
+
+    private static final int MAX_PLANES = 4;
+
+    private final ByteBuffer[] planes = new ByteBuffer[DecodedFrame.MAX_PLANES];
+    private final int[] strides = new int[DecodedFrame.MAX_PLANES];
+    private final int[] planeWidths = new int[DecodedFrame.MAX_PLANES];
+    private final int[] planeHeights = new int[DecodedFrame.MAX_PLANES];
+    private int planeCount;
+    private int width;
+    private int height;
+    private long pts;
+
+    // what the backend needs to release the frame
+    Object handle;
+
+    DecodedFrame() {
+    }
+
+    void reset(final int width, final int height, final long pts) {
+        this.width = width;
+        this.height = height;
+        this.pts = pts;
+        this.planeCount = 0;
+    }
+
+    /**
+     * Adds the next plane, index 0 of {@code plane} is its first visible sample.
+     */
+    void addPlane(final ByteBuffer plane, final int stride, final int width, final int height) {
+        this.planes[this.planeCount] = plane;
+        this.strides[this.planeCount] = stride;
+        this.planeWidths[this.planeCount] = width;
+        this.planeHeights[this.planeCount] = height;
+        this.planeCount++;
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    public int height() {
+        return this.height;
+    }
+
+    public long pts() {
+        return this.pts;
+    }
+
+    public int planeCount() {
+        return this.planeCount;
+    }
+
+    /**
+     * Returns the plane, row {@code y} starts at index {@code y * stride(plane)}.
+     */
+    public ByteBuffer plane(final int plane) {
+        return this.planes[plane];
+    }
+
+    public int stride(final int plane) {
+        return this.strides[plane];
+    }
+
+    /**
+     * Visible bytes per row of the plane.
+     */
+    public int planeWidth(final int plane) {
+        return this.planeWidths[plane];
+    }
+
+    public int planeHeight(final int plane) {
+        return this.planeHeights[plane];
+    }
+}
@@ -0,0 +1,72 @@
+package com.grill.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H.264 decoder behind a backend neutral API, access units go in as Annex-B bytes and planar 8 bit frames come
+ * out. The model is the one of {@code avcodec_send_packet}/{@code avcodec_receive_frame}: after every
+ * {@link #send(ByteBuffer, long, boolean)} all frames that became available are taken with {@link #receive()}
+ * and handed back with {@link #release(DecodedFrame)}. Implementations are used from a single thread.
+ * <p>
+ * Nothing in this interface references native classes, so a backend without native code can run on nodes
+ * that do not ship the FFmpeg libraries.
+ */
+public interface DecoderBackend extends AutoCloseable {
+
+    int OK = 0;
+    /**
+     * Frames have to be received before the access unit is accepted, send it again afterwards
+     */
+    int AGAIN = 1;
+    /**
+     * The access unit could not be decoded, decoding continues with the next one
+     */
+    int ERROR = -1;
+
+    /**
+     * Opens the backend with the given name, {@code ffmpeg} or {@code jcodec}.
+     *
+     * @throws IllegalArgumentException if the name is unknown
+     * @throws IllegalStateException    if the decoder could not be opened
+     */
+    static DecoderBackend open(final String name, final DecoderSettings settings) {
+        switch (name) {
+            case FFmpegDecoderBackend.NAME:
+                return new FFmpegDecoderBackend(settings);
+            case JcodecDecoderBackend.NAME:
+                return new JcodecDecoderBackend(settings);
+            default:
+                throw new IllegalArgumentException("Unknown decoder backend " + name);
+        }
+    }
+
+    String name();
+
+    /**
+     * Decodes the access unit between position and limit of {@code accessUnit}, the buffer is not retained.
+     *
+     * @param pts carried over to the frame decoded from this access unit
+     * @return {@link #OK}, {@link #AGAIN} or {@link #ERROR}
+     */
+    int send(ByteBuffer accessUnit, long pts, boolean keyFrame);
+
+    /**
+     * Signals the end of the stream, frames held back for reordering become available to {@link #receive()}.
+     */
+    void drain();
+
+    /**
+     * @return the next frame in display order or {@code null} if none is available
+     */
+    DecodedFrame receive();
+
+    void release(DecodedFrame frame);
+
+    /**
+     * Discards buffered frames and references, e.g. before seeking. Decoding resumes at a key frame.
+     */
+    void flush();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,303 @@
+package com.grill.example;
+
+import org.tinylog.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per stage latency histograms and event counters of one decoded stream.
+ * <p>
+ * Frames are followed through the pipeline by their pts, the ingest timestamp of every access unit is kept in a
+ * small ring so the end to end latency can be computed when the frame is received and when it is displayed.
+ * Recording is lock-free and allocation-free, {@link #snapshot()} can be polled from any thread.
+ */
+public final class DecoderMetrics {
+
+    public enum Stage {
+        /**
+         * Reading an access unit and filling the packet
+         */
+        INGEST,
+        SEND_PACKET,
+        RECEIVE_FRAME,
+        HW_TRANSFER,
+        CONVERSION,
+        /**
+         * From handing the converted frame to the display until it is shown on a pulse
+         */
+        DISPLAY,
+        /**
+         * From ingest of the access unit until the decoded frame left the decoder
+         */
+        DECODE_LATENCY,
+        /**
+         * From ingest of the access unit until the frame is shown
+         */
+        GLASS_LATENCY,
+        /**
+         * From the first decoding error until the first clean frame after resynchronisation
+         */
+        RECOVERY,
+        /**
+         * From arrival in the jitter buffer until the pacer released the frame to the display
+         */
+        JITTER_BUFFER
+    }
+
+    private static final int TIMELINE_SIZE = 1024;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLongArray ingestTimes = new AtomicLongArray(DecoderMetrics.TIMELINE_SIZE);
+
+    private final AtomicLong decodeErrors = new AtomicLong();
+    private final AtomicLong eagainReturns = new AtomicLong();
+    private final AtomicLong eofReturns = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong decodedFrames = new AtomicLong();
+    private final AtomicLong displayedFrames = new AtomicLong();
+    private final AtomicLong skippedAccessUnits = new AtomicLong();
+
+    private ScheduledExecutorService reporter;
+
+    public DecoderMetrics() {
+        for (int i = 0; i < this.histograms.length; i++) {
+            this.histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(final Stage stage, final long nanos) {
+        this.histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Remembers when the access unit with the given pts entered the pipeline.
+     */
+    public void markIngest(final long pts, final long nanoTime) {
+        this.ingestTimes.set(DecoderMetrics.timelineSlot(pts), nanoTime);
+    }
+
+    /**
+     * Records the time since ingest of the access unit with the given pts.
+     */
+    public void recordSinceIngest(final Stage stage, final long pts, final long nanoTime) {
+        if (pts < 0) {
+            return;
+        }
+        final long ingestTime = this.ingestTimes.get(DecoderMetrics.timelineSlot(pts));
+        if (ingestTime != 0) {
+            this.record(stage, nanoTime - ingestTime);
+        }
+    }
+
+    /**
+     * pts are frame indexes for files and 90 kHz RTP timestamps in steps of e.g. 3000 for streams, Fibonacci
+     * hashing spreads both evenly over the timeline instead of a few slots.
+     */
+    private static int timelineSlot(final long pts) {
+        return (int) ((pts * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - Integer.numberOfTrailingZeros(DecoderMetrics.TIMELINE_SIZE)));
+    }
+
+    public LatencyHistogram histogram(final Stage stage) {
+        return this.histograms[stage.ordinal()];
+    }
+
+    public void countDecodeError() {
+        this.decodeErrors.incrementAndGet();
+    }
+
+    public void countEagain() {
+        this.eagainReturns.incrementAndGet();
+    }
+
+    public void countEof() {
+        this.eofReturns.incrementAndGet();
+    }
+
+    public void countDroppedFrame() {
+        this.droppedFrames.incrementAndGet();
+    }
+
+    public void countDecodedFrame() {
+        this.decodedFrames.incrementAndGet();
+    }
+
+    public void countDisplayedFrame() {
+        this.displayedFrames.incrementAndGet();
+    }
+
+    public void countSkippedAccessUnit() {
+        this.skippedAccessUnits.incrementAndGet();
+    }
+
+    public Snapshot snapshot() {
+        final StageStatistics[] stages = new StageStatistics[this.histograms.length];
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = this.histograms[stage.ordinal()];
+            stages[stage.ordinal()] = new StageStatistics(stage, histogram.count(), histogram.valueAtQuantile(0.5),
+                    histogram.valueAtQuantile(0.99), histogram.valueAtQuantile(0.999), histogram.max());
+        }
+        return new Snapshot(stages, this.decodedFrames.get(), this.displayedFrames.get(), this.droppedFrames.get(),
+                this.skippedAccessUnits.get(), this.decodeErrors.get(), this.eagainReturns.get(), this.eofReturns.get(),
+                NativeResources.usage());
+    }
+
+    /**
+     * Logs a snapshot every {@code periodSeconds} on a background thread until {@link #stopReporting()}.
+     */
+    public synchronized void startReporting(final long periodSeconds) {
+        if (this.reporter != null) {
+            return;
+        }
+        this.reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reporter.scheduleAtFixedRate(() -> Logger.info("{}", this.snapshot()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (this.reporter != null) {
+            this.reporter.shutdownNow();
+            this.reporter = null;
+        }
+    }
+
+    public static final class StageStatistics {
+        private final Stage stage;
+        private final long count;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        public StageStatistics(final Stage stage, final long count, final long p50, final long p99, final long p999, final long max) {
+            this.stage = stage;
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public Stage stage() {
+            return this.stage;
+        }
+
+        public long count() {
+            return this.count;
+        }
+
+        public long p50() {
+            return this.p50;
+        }
+
+        public long p99() {
+            return this.p99;
+        }
+
+        public long p999() {
+            return this.p999;
+        }
+
+        public long max() {
+            return this.max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[n=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms]", this.stage, this.count,
+                    this.p50 / 1e6, this.p99 / 1e6, this.p999 / 1e6, this.max / 1e6);
+        }
+    }
+
+    public static final class Snapshot {
+        private final StageStatistics[] stages;
+        private final long decodedFrames;
+        private final long displayedFrames;
+        private final long droppedFrames;
+        private final long skippedAccessUnits;
+        private final long decodeErrors;
+        private final long eagainReturns;
+        private final long eofReturns;
+        private final NativeResources.Usage nativeUsage;
+
+        public Snapshot(final StageStatistics[] stages, final long decodedFrames, final long displayedFrames, final long droppedFrames,
+                        final long skippedAccessUnits, final long decodeErrors, final long eagainReturns, final long eofReturns,
+                        final NativeResources.Usage nativeUsage) {
+            this.stages = stages;
+            this.decodedFrames = decodedFrames;
+            this.displayedFrames = displayedFrames;
+            this.droppedFrames = droppedFrames;
+            this.skippedAccessUnits = skippedAccessUnits;
+            this.decodeErrors = decodeErrors;
+            this.eagainReturns = eagainReturns;
+            this.eofReturns = eofReturns;
+            this.nativeUsage = nativeUsage;
+        }
+
+        public StageStatistics stage(final Stage stage) {
+            return this.stages[stage.ordinal()];
+        }
+
+        public long decodedFrames() {
+            return this.decodedFrames;
+        }
+
+        public long displayedFrames() {
+            return this.displayedFrames;
+        }
+
+        public long droppedFrames() {
+            return this.droppedFrames;
+        }
+
+        /**
+         * Access units not sent to the decoder while waiting for a key frame
+         */
+        public long skippedAccessUnits() {
+            return this.skippedAccessUnits;
+        }
+
+        public long decodeErrors() {
+            return this.decodeErrors;
+        }
+
+        public long eagainReturns() {
+            return this.eagainReturns;
+        }
+
+        public long eofReturns() {
+            return this.eofReturns;
+        }
+
+        /**
+         * Live native objects and bytes of the whole process, not only of this stream
+         */
+        public NativeResources.Usage nativeUsage() {
+            return this.nativeUsage;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("Decoder metrics: decoded=").append(this.decodedFrames)
+                    .append(" displayed=").append(this.displayedFrames)
+                    .append(" dropped=").append(this.droppedFrames)
+                    .append(" skipped=").append(this.skippedAccessUnits)
+                    .append(" errors=").append(this.decodeErrors)
+                    .append(" eagain=").append(this.eagainReturns)
+                    .append(" eof=").append(this.eofReturns)
+                    .append(' ').append(this.nativeUsage);
+            for (final StageStatistics stage : this.stages) {
+                if (stage.count() > 0) {
+                    builder.append(' ').append(stage);
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.tinylog.Logger;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EAGAIN;
+import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EOF;
+import static org.bytedeco.ffmpeg.global.avutil.av_hwframe_transfer_data;
+
+/**
+ * Decodes many independent streams on a shared, bounded pool of worker threads.
+ * <p>
+ * Every {@link Session} owns one decoder context for its lifetime. Contexts are taken from a pool of pre-opened
+ * decoders and flushed and returned to it when the session closes, so opening a session does not go through
+ * {@code avcodec_find_decoder}/{@code avcodec_alloc_context3}/{@code avcodec_open2} as long as the pool has idle
+ * contexts. Sessions with pending packets are scheduled round robin: a worker decodes at most {@link #QUANTUM}
+ * access units of a session before it moves to the back of the run queue, so one busy stream cannot starve the
+ * others. A session is never decoded by two workers at the same time.
+ */
+public final class DecoderService implements AutoCloseable {
+
+    // access units decoded per scheduling turn
+    public static final int QUANTUM = 4;
+
+    private static final int SESSION_QUEUE_SIZE = 8;
+    private static final int PACKET_BUFFER_SIZE = 256 << 10;
+
+    private final DecoderSettings settings;
+    private final ArrayBlockingQueue<VideoDecoder> idleDecoders;
+    private final ExecutorService workers;
+    private final AVPacketPool packetPool;
+    private final AVFramePool framePool;
+    private final DecoderMetrics metrics;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final int maxSessions;
+
+    private final AtomicInteger workerIndex = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * @param settings          settings every decoder context is opened with
+     * @param workerThreads     threads shared by all sessions
+     * @param maxSessions       sessions open at the same time
+     * @param preopenedContexts decoder contexts opened up front, at most {@code maxSessions} are kept idle
+     */
+    public DecoderService(final DecoderSettings settings, final int workerThreads, final int maxSessions,
+                          final int preopenedContexts, final DecoderMetrics metrics) {
+        this.settings = new DecoderSettings(settings);
+        this.maxSessions = maxSessions;
+        this.metrics = metrics;
+        this.idleDecoders = new ArrayBlockingQueue<>(Math.max(1, maxSessions));
+        // queued packets plus the one each session is sending
+        this.packetPool = new AVPacketPool(maxSessions * (DecoderService.SESSION_QUEUE_SIZE + 1), DecoderService.PACKET_BUFFER_SIZE);
+        // a worker holds at most a decoded and a transferred frame
+        this.framePool = new AVFramePool(workerThreads * 2);
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "decoder-service-" + this.workerIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < Math.min(preopenedContexts, maxSessions); i++) {
+            final VideoDecoder decoder = VideoDecoder.open(this.settings);
+            if (decoder == null) {
+                Logger.warn("Pre-opened {} of {} decoder contexts", i, preopenedContexts);
+                break;
+            }
+            this.idleDecoders.offer(decoder);
+        }
+    }
+
+    /**
+     * Pool packets submitted to sessions have to come from, e.g. {@code packetPool().acquire(data, size, key)}.
+     */
+    public AVPacketPool packetPool() {
+        return this.packetPool;
+    }
+
+    public int openSessions() {
+        return this.sessions.size();
+    }
+
+    public int idleContexts() {
+        return this.idleDecoders.size();
+    }
+
+    /**
+     * Opens a session on a pre-opened decoder context if one is idle, otherwise on a newly opened one.
+     *
+     * @param frameOutput receives every decoded frame on a worker thread, the frame is only valid during the call
+     * @return the session or {@code null} if the service is closed, full or the decoder could not be opened
+     */
+    public Session openSession(final Consumer<AVFrame> frameOutput) {
+        if (this.closed || this.sessions.size() >= this.maxSessions) {
+            return null;
+        }
+        VideoDecoder decoder = this.idleDecoders.poll();
+        if (decoder == null) {
+            decoder = VideoDecoder.open(this.settings);
+            if (decoder == null) {
+                return null;
+            }
+        }
+        final Session session = new Session(decoder, frameOutput);
+        this.sessions.add(session);
+        return session;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        for (final Session session : this.sessions) {
+            session.close();
+        }
+        this.workers.shutdown();
+        try {
+            if (!this.workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                Logger.warn("Decoder service workers did not terminate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        VideoDecoder decoder;
+        while ((decoder = this.idleDecoders.poll()) != null) {
+            decoder.close();
+        }
+        this.framePool.close();
+        this.packetPool.close();
+    }
+
+    private void schedule(final Session session) {
+        if (session.scheduled.compareAndSet(false, true)) {
+            this.workers.execute(session::runQuantum);
+        }
+    }
+
+    private void recycle(final VideoDecoder decoder) {
+        decoder.flush();
+        if (this.closed || !this.idleDecoders.offer(decoder)) {
+            decoder.close();
+        }
+    }
+
+    /**
+     * One stream decoded by the service. Packets are submitted by a single producer thread.
+     */
+    public final class Session implements AutoCloseable {
+
+        private final VideoDecoder decoder;
+        private final Consumer<AVFrame> frameOutput;
+        private final SpscRingBuffer<AVPacket> packets;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong decodedFrames = new AtomicLong();
+
+        private volatile boolean closing = false;
+        private boolean released = false;
+
+        private Session(final VideoDecoder decoder, final Consumer<AVFrame> frameOutput) {
+            this.decoder = decoder;
+            this.frameOutput = frameOutput;
+            this.packets = new SpscRingBuffer<>(DecoderService.SESSION_QUEUE_SIZE, BackpressurePolicy.BLOCK, null);
+        }
+
+        /**
+         * Queues a packet for decoding and takes ownership of it, it is returned to the service's packet pool
+         * once sent. Blocks while the session queue is full.
+         *
+         * @return {@code false} if the session is closed, the packet was released in that case
+         */
+        public boolean submit(final AVPacket packet) {
+            if (this.closing || !this.packets.put(packet)) {
+                DecoderService.this.packetPool.release(packet);
+                return false;
+            }
+            DecoderService.this.schedule(this);
+            return true;
+        }
+
+        public long decodedFrames() {
+            return this.decodedFrames.get();
+        }
+
+        public int pendingPackets() {
+            return this.packets.size();
+        }
+
+        /**
+         * Returns {@code true} if no packet is queued and no worker is decoding for the session, i.e. every packet
+         * submitted so far was sent to the decoder and the frames it returned were output.
+         */
+        public boolean isIdle() {
+            return !this.scheduled.get() && this.packets.size() == 0;
+        }
+
+        /**
+         * Stops accepting packets, discards the pending ones and returns the decoder context to the pool.
+         * Frames still in the decoder are not drained.
+         */
+        @Override
+        public void close() {
+            this.closing = true;
+            this.packets.close();
+            // whoever runs the session next (or this thread if it is idle) releases it
+            if (this.scheduled.compareAndSet(false, true)) {
+                this.release();
+            }
+        }
+
+        private void runQuantum() {
+            try {
+                if (this.closing) {
+                    this.release();
+                    return;
+                }
+                for (int i = 0; i < DecoderService.QUANTUM; i++) {
+                    final AVPacket packet = this.packets.poll();
+                    if (packet == null) {
+                        break;
+                    }
+                    this.decode(packet);
+                }
+            } catch (RuntimeException e) {
+                Logger.error(e, "Decoding failed");
+            }
+            if (this.closing) {
+                this.release();
+                return;
+            }
+            this.scheduled.set(false);
+            // close() fails its handoff while the flag is set, whoever sets it again releases the session
+            if (this.closing) {
+                if (this.scheduled.compareAndSet(false, true)) {
+                    this.release();
+                }
+                return;
+            }
+            // a packet submitted after the last poll but before the flag was cleared would be lost otherwise
+            if (this.packets.size() > 0) {
+                DecoderService.this.schedule(this);
+            }
+        }
+
+        private void decode(final AVPacket packet) {
+            final AVCodecContext context = this.decoder.context();
+            int err;
+            while ((err = this.sendPacket(context, packet)) == AVERROR_EAGAIN()) {
+                DecoderService.this.metrics.countEagain();
+                if (!this.receiveFrames(context)) {
+                    break;
+                }
+            }
+            DecoderService.this.packetPool.release(packet);
+            if (err < 0) {
+                // also EAGAIN if no frame could be taken to drain the decoder, the access unit is lost either way
+                DecoderService.this.metrics.countDecodeError();
+                Logger.warn("Error {} sending packet", err);
+                return;
+            }
+            this.receiveFrames(context);
+        }
+
+        private int sendPacket(final AVCodecContext context, final AVPacket packet) {
+            final long sendStart = System.nanoTime();
+            final int result = avcodec_send_packet(context, packet);
+            DecoderService.this.metrics.record(DecoderMetrics.Stage.SEND_PACKET, System.nanoTime() - sendStart);
+            return result;
+        }
+
+        /**
+         * Receives and outputs all frames currently available from the decoder.
+         *
+         * @return {@code false} if no frame could be taken from the pool, the decoder may still hold frames then
+         */
+        private boolean receiveFrames(final AVCodecContext context) {
+            for (; ; ) {
+                final AVFrame frame = this.acquireFrame();
+                if (frame == null) {
+                    return false;
+                }
+                final long receiveStart = System.nanoTime();
+                final int result = avcodec_receive_frame(context, frame);
+                DecoderService.this.metrics.record(DecoderMetrics.Stage.RECEIVE_FRAME, System.nanoTime() - receiveStart);
+                if (result < 0) {
+                    DecoderService.this.framePool.release(frame);
+                    if (result == AVERROR_EAGAIN()) {
+                        DecoderService.this.metrics.countEagain();
+                    } else if (result == AVERROR_EOF()) {
+                        DecoderService.this.metrics.countEof();
+                    } else {
+                        DecoderService.this.metrics.countDecodeError();
+                    }
+                    return true;
+                }
+                this.output(frame);
+            }
+        }
+
+        private void output(final AVFrame frame) {
+            AVFrame decodedFrame = frame;
+            if (this.decoder.isHardwareAccelerated()) {
+                final AVFrame swFrame = this.acquireFrame();
+                if (swFrame == null || av_hwframe_transfer_data(swFrame, frame, 0) < 0) {
+                    Logger.warn("Failed to transfer frame from hardware");
+                    DecoderService.this.framePool.release(swFrame);
+                    DecoderService.this.framePool.release(frame);
+                    return;
+                }
+                swFrame.pts(frame.pts());
+                DecoderService.this.framePool.release(frame);
+                decodedFrame = swFrame;
+            }
+            this.decodedFrames.incrementAndGet();
+            DecoderService.this.metrics.countDecodedFrame();
+            try {
+                this.frameOutput.accept(decodedFrame);
+            } finally {
+                DecoderService.this.framePool.release(decodedFrame);
+            }
+        }
+
+        private AVFrame acquireFrame() {
+            try {
+                final AVFrame frame = DecoderService.this.framePool.acquire(1, TimeUnit.SECONDS);
+                if (frame == null) {
+                    Logger.error("Frame pool exhausted");
+                }
+                return frame;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        private void release() {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            AVPacket packet;
+            while ((packet = this.packets.poll()) != null) {
+                DecoderService.this.packetPool.release(packet);
+            }
+            DecoderService.this.sessions.remove(this);
+            DecoderService.this.recycle(this.decoder);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.grill.example;
+
+import java.util.Arrays;
+
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_FRAME;
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_SLICE;
+import static org.bytedeco.ffmpeg.global.avutil.AV_HWDEVICE_TYPE_CUDA;
+import static org.bytedeco.ffmpeg.global.avutil.AV_HWDEVICE_TYPE_D3D11VA;
+import static org.bytedeco.ffmpeg.global.avutil.AV_HWDEVICE_TYPE_DXVA2;
+import static org.bytedeco.ffmpeg.global.avutil.AV_HWDEVICE_TYPE_VAAPI;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+
+/**
+ * Options used to open a {@link VideoDecoder}. Accessors follow the JavaCPP style, calling a method without
+ * argument returns the value, calling it with an argument sets the value and returns {@code this}.
+ * Defaults match the settings the application always used.
+ */
+public final class DecoderSettings {
+
+    // tried in order, software decoding if none of them is available
+    // AV_HWDEVICE_TYPE_CUDA // example works with cuda
+    // AV_HWDEVICE_TYPE_DXVA2 // producing Invalid data found on keyframe
+    // AV_HWDEVICE_TYPE_D3D11VA // producing Invalid data found on keyframe
+    private static final int[] DEFAULT_HW_DEVICE_TYPES = {
+            AV_HWDEVICE_TYPE_VAAPI, AV_HWDEVICE_TYPE_CUDA, AV_HWDEVICE_TYPE_D3D11VA, AV_HWDEVICE_TYPE_DXVA2};
+
+    private boolean hwAccel = true;
+    private int[] hwDeviceTypes = DecoderSettings.DEFAULT_HW_DEVICE_TYPES.clone();
+    private boolean lowDelay = true;
+    private boolean explode = true;
+    private boolean outputCorrupt = true;
+    private int threadType = FF_THREAD_SLICE;
+    private int threadCount = 2;
+    private ThreadingPolicy threadingPolicy;
+    private int width = 1920;
+    private int height = 1080;
+    private int pixelFormat = AV_PIX_FMT_YUV420P;
+    private byte[] extradata;
+
+    /**
+     * Hardware device types tried by default, in order of preference.
+     */
+    public static int[] defaultHwDeviceTypes() {
+        return DecoderSettings.DEFAULT_HW_DEVICE_TYPES.clone();
+    }
+
+    public DecoderSettings() {
+    }
+
+    public DecoderSettings(final DecoderSettings other) {
+        this.hwAccel = other.hwAccel;
+        this.hwDeviceTypes = other.hwDeviceTypes.clone();
+        this.lowDelay = other.lowDelay;
+        this.explode = other.explode;
+        this.outputCorrupt = other.outputCorrupt;
+        this.threadType = other.threadType;
+        this.threadCount = other.threadCount;
+        this.threadingPolicy = other.threadingPolicy;
+        this.width = other.width;
+        this.height = other.height;
+        this.pixelFormat = other.pixelFormat;
+        this.extradata = other.extradata;
+    }
+
+    public boolean hwAccel() {
+        return this.hwAccel;
+    }
+
+    public DecoderSettings hwAccel(final boolean hwAccel) {
+        this.hwAccel = hwAccel;
+        return this;
+    }
+
+    /**
+     * Hardware device types in order of preference, see {@link HardwareDevices}.
+     */
+    public int[] hwDeviceTypes() {
+        return this.hwDeviceTypes.clone();
+    }
+
+    public DecoderSettings hwDeviceTypes(final int... hwDeviceTypes) {
+        this.hwDeviceTypes = hwDeviceTypes.clone();
+        return this;
+    }
+
+    /**
+     * {@code AV_CODEC_FLAG_LOW_DELAY}
+     */
+    public boolean lowDelay() {
+        return this.lowDelay;
+    }
+
+    public DecoderSettings lowDelay(final boolean lowDelay) {
+        this.lowDelay = lowDelay;
+        return this;
+    }
+
+    /**
+     * {@code AV_EF_EXPLODE}, report decoding errors to allow us to request a key frame
+     */
+    public boolean explode() {
+        return this.explode;
+    }
+
+    public DecoderSettings explode(final boolean explode) {
+        this.explode = explode;
+        return this;
+    }
+
+    /**
+     * {@code AV_CODEC_FLAG_OUTPUT_CORRUPT} and {@code AV_CODEC_FLAG2_SHOW_ALL}
+     */
+    public boolean outputCorrupt() {
+        return this.outputCorrupt;
+    }
+
+    public DecoderSettings outputCorrupt(final boolean outputCorrupt) {
+        this.outputCorrupt = outputCorrupt;
+        return this;
+    }
+
+    /**
+     * {@code FF_THREAD_SLICE} or {@code FF_THREAD_FRAME}, only used for software decoding
+     */
+    public int threadType() {
+        return this.threadType;
+    }
+
+    public DecoderSettings threadType(final int threadType) {
+        if (threadType != FF_THREAD_SLICE && threadType != FF_THREAD_FRAME) {
+            throw new IllegalArgumentException("Unknown thread type " + threadType);
+        }
+        this.threadType = threadType;
+        return this;
+    }
+
+    /**
+     * Number of decoder threads for software decoding, 0 lets FFmpeg decide
+     */
+    public int threadCount() {
+        return this.threadCount;
+    }
+
+    public DecoderSettings threadCount(final int threadCount) {
+        this.threadCount = Math.max(0, threadCount);
+        return this;
+    }
+
+    /**
+     * When set, thread type and count are chosen by the policy when the decoder is opened and the fixed
+     * {@link #threadType()} and {@link #threadCount()} are ignored
+     */
+    public ThreadingPolicy threadingPolicy() {
+        return this.threadingPolicy;
+    }
+
+    public DecoderSettings threadingPolicy(final ThreadingPolicy threadingPolicy) {
+        this.threadingPolicy = threadingPolicy;
+        return this;
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    public DecoderSettings width(final int width) {
+        this.width = width;
+        return this;
+    }
+
+    public int height() {
+        return this.height;
+    }
+
+    public DecoderSettings height(final int height) {
+        this.height = height;
+        return this;
+    }
+
+    public int pixelFormat() {
+        return this.pixelFormat;
+    }
+
+    public DecoderSettings pixelFormat(final int pixelFormat) {
+        this.pixelFormat = pixelFormat;
+        return this;
+    }
+
+    /**
+     * Annex-B SPS/PPS handed to the decoder before {@code avcodec_open2}, may be {@code null}.
+     */
+    public byte[] extradata() {
+        return this.extradata;
+    }
+
+    public DecoderSettings extradata(final byte[] extradata) {
+        this.extradata = extradata;
+        return this;
+    }
+
+    /**
+     * Configures the decoder for the stream: size, software pixel format and extradata come from the SPS, and
+     * low delay is only requested if the stream never reorders frames (with B-frames it would output frames
+     * out of order). The threading policy follows low delay, so reordering streams may use frame threading.
+     */
+    public DecoderSettings parameterSets(final H264ParameterSets parameterSets) {
+        final H264ParameterSets.Sps sps = parameterSets.sps();
+        this.width = sps.width();
+        this.height = sps.height();
+        this.pixelFormat = sps.pixelFormat();
+        this.lowDelay = sps.reorderDepth() == 0;
+        this.extradata = parameterSets.extradata();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "DecoderSettings[" +
+                "hwAccel=" + this.hwAccel + ", " +
+                "hwDeviceTypes=" + Arrays.toString(this.hwDeviceTypes) + ", " +
+                "lowDelay=" + this.lowDelay + ", " +
+                "explode=" + this.explode + ", " +
+                "outputCorrupt=" + this.outputCorrupt + ", " +
+                "threadType=" + (this.threadType == FF_THREAD_FRAME ? "frame" : "slice") + ", " +
+                "threadCount=" + this.threadCount + ", " +
+                "threadingPolicy=" + this.threadingPolicy + ", " +
+                "resolution=" + this.width + "x" + this.height + ", " +
+                "extradata=" + (this.extradata == null ? 0 : this.extradata.length) + " bytes]";
+    }
+}
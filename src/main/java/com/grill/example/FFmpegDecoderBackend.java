@@ -0,0 +1,156 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.AVPixFmtDescriptor;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EAGAIN;
+import static org.bytedeco.ffmpeg.global.avutil.av_hwframe_transfer_data;
+import static org.bytedeco.ffmpeg.global.avutil.av_image_get_linesize;
+import static org.bytedeco.ffmpeg.global.avutil.av_pix_fmt_count_planes;
+import static org.bytedeco.ffmpeg.global.avutil.av_pix_fmt_desc_get;
+
+/**
+ * {@link DecoderBackend} on a {@link VideoDecoder}. Frames are the decoder's own buffers, hardware frames are
+ * transferred to system memory first.
+ * <p>
+ * Access units in direct buffers are copied once into a pooled packet, heap buffers need an additional copy
+ * into native memory.
+ */
+public final class FFmpegDecoderBackend implements DecoderBackend {
+
+    public static final String NAME = "ffmpeg";
+
+    // frames the caller may hold at the same time, plus one being received
+    private static final int FRAME_POOL_SIZE = 8;
+
+    private final VideoDecoder videoDecoder;
+    private final AVPacketPool packetPool;
+    private final AVFramePool framePool;
+    private final ArrayDeque<DecodedFrame> idleFrames = new ArrayDeque<>();
+    private final byte[] parameterSetBuffer = new byte[H264ParameterSets.PARAMETER_SET_PREFIX];
+    private H264ParameterSets.Sps activeSps;
+
+    public FFmpegDecoderBackend(final DecoderSettings settings) {
+        this.videoDecoder = VideoDecoder.open(settings);
+        if (this.videoDecoder == null) {
+            throw new IllegalStateException("Unable to open decoder with " + settings);
+        }
+        this.packetPool = new AVPacketPool(1, AVPacketPool.bufferSizeFor(settings.width(), settings.height()));
+        this.framePool = new AVFramePool(FFmpegDecoderBackend.FRAME_POOL_SIZE);
+    }
+
+    @Override
+    public String name() {
+        return FFmpegDecoderBackend.NAME;
+    }
+
+    @Override
+    public int send(final ByteBuffer accessUnit, final long pts, final boolean keyFrame) {
+        if (keyFrame) {
+            this.updateParameterSets(accessUnit);
+        }
+        final AVPacket packet = this.packetPool.acquire(new BytePointer(accessUnit), accessUnit.remaining(), keyFrame);
+        if (packet == null) {
+            return DecoderBackend.ERROR;
+        }
+        packet.pts(pts);
+        packet.dts(pts);
+        final int result = avcodec_send_packet(this.videoDecoder.context(), packet);
+        this.packetPool.release(packet);
+        if (result == AVERROR_EAGAIN()) {
+            return DecoderBackend.AGAIN;
+        }
+        return result < 0 ? DecoderBackend.ERROR : DecoderBackend.OK;
+    }
+
+    @Override
+    public void drain() {
+        avcodec_send_packet(this.videoDecoder.context(), null);
+    }
+
+    @Override
+    public DecodedFrame receive() {
+        final AVCodecContext context = this.videoDecoder.context();
+        AVFrame frame = this.framePool.acquire();
+        if (frame == null) {
+            return null;
+        }
+        if (avcodec_receive_frame(context, frame) < 0) {
+            this.framePool.release(frame);
+            return null;
+        }
+        if (frame.hw_frames_ctx() != null) {
+            final AVFrame softwareFrame = this.framePool.acquire();
+            if (softwareFrame == null || av_hwframe_transfer_data(softwareFrame, frame, 0) < 0) {
+                this.framePool.release(softwareFrame);
+                this.framePool.release(frame);
+                return null;
+            }
+            softwareFrame.pts(frame.pts());
+            this.framePool.release(frame);
+            frame = softwareFrame;
+        }
+
+        DecodedFrame decodedFrame = this.idleFrames.poll();
+        if (decodedFrame == null) {
+            decodedFrame = new DecodedFrame();
+        }
+        final int format = frame.format();
+        final int width = frame.width();
+        final int height = frame.height();
+        final AVPixFmtDescriptor descriptor = av_pix_fmt_desc_get(format);
+        decodedFrame.reset(width, height, frame.pts());
+        decodedFrame.handle = frame;
+        for (int i = 0; i < av_pix_fmt_count_planes(format); i++) {
+            // planes 1 and 2 are the subsampled chroma planes in YUV formats
+            final int planeHeight = i == 1 || i == 2 ? -((-height) >> descriptor.log2_chroma_h()) : height;
+            final int stride = frame.linesize(i);
+            final long size = (long) stride * planeHeight;
+            decodedFrame.addPlane(frame.data(i).capacity(size).limit(size).asByteBuffer(), stride,
+                    av_image_get_linesize(format, width, i), planeHeight);
+        }
+        return decodedFrame;
+    }
+
+    @Override
+    public void release(final DecodedFrame frame) {
+        this.framePool.release((AVFrame) frame.handle);
+        frame.handle = null;
+        this.idleFrames.offer(frame);
+    }
+
+    @Override
+    public void flush() {
+        this.videoDecoder.flush();
+    }
+
+    /**
+     * FFmpeg reconfigures itself from a SPS sent in band, only the packet pool follows a new resolution.
+     */
+    private void updateParameterSets(final ByteBuffer accessUnit) {
+        final H264ParameterSets parameterSets = H264ParameterSets.parse(accessUnit, this.parameterSetBuffer);
+        if (parameterSets == null) {
+            return;
+        }
+        final H264ParameterSets.Sps sps = parameterSets.sps();
+        if (sps.changesFormat(this.activeSps)) {
+            this.packetPool.resize(AVPacketPool.bufferSizeFor(sps.width(), sps.height()));
+        }
+        this.activeSps = sps;
+    }
+
+    @Override
+    public void close() {
+        this.videoDecoder.close();
+        this.framePool.close();
+        this.packetPool.close();
+    }
+}
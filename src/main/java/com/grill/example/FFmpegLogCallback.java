@@ -0,0 +1,220 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.LogCallback;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * FFmpeg log callback that never blocks the decoder threads.
+ * <p>
+ * Messages above the configured level are rejected before the native string is touched. Every call site (the
+ * message with digits stripped) is limited to {@link #RATE_LIMIT} messages per second before the message may take
+ * a slot, so a flood from one call site cannot crowd out the others. Accepted messages are copied into a
+ * preallocated off-heap ring and written by a background thread. Once {@link #STEADY_STATE_FRAMES} frames have
+ * been decoded the level drops to {@code AV_LOG_WARNING}.
+ */
+public class FFmpegLogCallback extends LogCallback {
+
+    private static final org.bytedeco.javacpp.tools.Logger logger = org.bytedeco.javacpp.tools.Logger.create(FFmpegLogCallback.class);
+
+    private static final int SLOT_COUNT = 256;
+    private static final int SLOT_SIZE = 256;
+    // first four bytes of a slot hold the level
+    private static final int SLOT_HEADER = 4;
+
+    private static final int CALL_SITE_COUNT = 512;
+    private static final int RATE_LIMIT = 20;
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public static final int STEADY_STATE_FRAMES = 30;
+
+    static final FFmpegLogCallback instance = new FFmpegLogCallback().retainReference();
+
+    private static volatile int level = AV_LOG_INFO;
+    private static volatile boolean steadyState = false;
+    private static final AtomicLong decodedFrames = new AtomicLong();
+
+    private final ByteBuffer ring = ByteBuffer.allocateDirect(SLOT_COUNT * SLOT_SIZE);
+    // slot i is readable once published[i] == sequence + 1
+    private final AtomicLongArray published = new AtomicLongArray(SLOT_COUNT);
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+
+    private final AtomicLongArray callSiteWindows = new AtomicLongArray(CALL_SITE_COUNT);
+    private final AtomicLongArray callSiteCounts = new AtomicLongArray(CALL_SITE_COUNT);
+    // the message is copied once per logging thread and rate limited before it may claim a ring slot
+    private final ThreadLocal<byte[]> messageBuffers = ThreadLocal.withInitial(() -> new byte[SLOT_SIZE]);
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong suppressedMessages = new AtomicLong();
+
+    private Thread drainThread;
+
+    private FFmpegLogCallback() {
+    }
+
+    public static FFmpegLogCallback getInstance() {
+        return instance;
+    }
+
+    /**
+     * Calls {@code avutil.setLogCallback(getInstance())} and starts the background writer.
+     */
+    public static synchronized void set() {
+        if (instance.drainThread == null) {
+            final Thread thread = new Thread(instance::drain, "ffmpeg-log");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+            instance.drainThread = thread;
+        }
+        setLogCallback(getInstance());
+    }
+
+    /**
+     * Returns {@code av_log_get_level()}.
+     **/
+    public static int getLevel() {
+        return av_log_get_level();
+    }
+
+    /**
+     * Calls {@code av_log_set_level(level)}, messages above the level are rejected without touching them.
+     **/
+    public static void setLevel(int level) {
+        FFmpegLogCallback.level = level;
+        av_log_set_level(level);
+    }
+
+    /**
+     * Counts a decoded frame, the level drops to {@code AV_LOG_WARNING} after {@link #STEADY_STATE_FRAMES}
+     * frames unless it already is lower.
+     */
+    public static void frameDecoded() {
+        if (steadyState) {
+            return;
+        }
+        if (decodedFrames.incrementAndGet() >= STEADY_STATE_FRAMES) {
+            steadyState = true;
+            if (level > AV_LOG_WARNING) {
+                setLevel(AV_LOG_WARNING);
+                logger.info("Decoder reached steady state, FFmpeg log level lowered to warning");
+            }
+        }
+    }
+
+    /**
+     * Messages lost because the ring was full.
+     */
+    public long droppedMessages() {
+        return this.droppedMessages.get();
+    }
+
+    /**
+     * Messages rejected by the per call site rate limit.
+     */
+    public long suppressedMessages() {
+        return this.suppressedMessages.get();
+    }
+
+    @Override
+    public void call(int level, BytePointer msg) {
+        if (level > FFmpegLogCallback.level) {
+            return;
+        }
+        final int length = (int) Math.min(BytePointer.strlen(msg), SLOT_SIZE - SLOT_HEADER - 1);
+        final byte[] message = this.messageBuffers.get();
+        msg.position(0).get(message, 0, length);
+        if (!this.allow(message, length)) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = this.tail.get();
+            if (sequence - this.head >= SLOT_COUNT) {
+                this.droppedMessages.incrementAndGet();
+                return;
+            }
+        } while (!this.tail.compareAndSet(sequence, sequence + 1));
+
+        final int index = (int) (sequence & (SLOT_COUNT - 1));
+        final int offset = index * SLOT_SIZE;
+        this.ring.put(offset + SLOT_HEADER, message, 0, length);
+        this.ring.put(offset + SLOT_HEADER + length, (byte) 0);
+        this.ring.putInt(offset, level);
+        this.published.set(index, sequence + 1);
+    }
+
+    private boolean allow(final byte[] message, final int length) {
+        // digits vary per message (addresses, frame numbers), everything else identifies the call site
+        int hash = 17;
+        for (int i = 0; i < length; i++) {
+            final byte b = message[i];
+            if (b < '0' || b > '9') {
+                hash = 31 * hash + b;
+            }
+        }
+        final int site = (hash ^ (hash >>> 16)) & (CALL_SITE_COUNT - 1);
+        final long now = System.nanoTime();
+        final long windowStart = this.callSiteWindows.get(site);
+        if (now - windowStart > RATE_WINDOW_NANOS && this.callSiteWindows.compareAndSet(site, windowStart, now)) {
+            this.callSiteCounts.set(site, 0);
+        }
+        if (this.callSiteCounts.incrementAndGet(site) > RATE_LIMIT) {
+            this.suppressedMessages.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        final byte[] text = new byte[SLOT_SIZE];
+        long reportedDrops = 0;
+        long reportedSuppressed = 0;
+        for (; ; ) {
+            final long sequence = this.head;
+            final int index = (int) (sequence & (SLOT_COUNT - 1));
+            if (this.published.get(index) != sequence + 1) {
+                final long dropped = this.droppedMessages.get();
+                final long suppressed = this.suppressedMessages.get();
+                if (dropped != reportedDrops || suppressed != reportedSuppressed) {
+                    logger.warn("FFmpeg log: " + (dropped - reportedDrops) + " messages dropped, " +
+                            (suppressed - reportedSuppressed) + " suppressed by rate limit");
+                    reportedDrops = dropped;
+                    reportedSuppressed = suppressed;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+                continue;
+            }
+            final int offset = index * SLOT_SIZE;
+            final int level = this.ring.getInt(offset);
+            int length = 0;
+            while (length < SLOT_SIZE - SLOT_HEADER && this.ring.get(offset + SLOT_HEADER + length) != 0) {
+                text[length] = this.ring.get(offset + SLOT_HEADER + length);
+                length++;
+            }
+            this.head = sequence + 1;
+            FFmpegLogCallback.write(level, new String(text, 0, length, StandardCharsets.UTF_8).stripTrailing());
+        }
+    }
+
+    private static void write(final int level, final String message) {
+        switch (level) {
+            case AV_LOG_PANIC, AV_LOG_FATAL, AV_LOG_ERROR -> logger.error(message);
+            case AV_LOG_WARNING -> logger.warn(message);
+            case AV_LOG_INFO -> logger.info(message);
+            case AV_LOG_VERBOSE, AV_LOG_DEBUG, AV_LOG_TRACE -> logger.debug(message);
+            default -> {
+                assert false;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static org.bytedeco.ffmpeg.global.avutil.av_image_copy_to_buffer;
+import static org.bytedeco.ffmpeg.global.avutil.av_image_get_buffer_size;
+
+/**
+ * MD5 over the visible picture of a software frame, the same value {@code ffmpeg -f framemd5} prints.
+ * Frames of different decoder backends with equal pictures have equal checksums.
+ * <p>
+ * The planes are packed without line padding first, so the checksum does not depend on the decoder's buffer
+ * alignment. One instance reuses its packing buffer and is not thread safe.
+ */
+public final class FrameChecksum implements AutoCloseable {
+
+    private final MessageDigest digest;
+    private BytePointer buffer;
+
+    public FrameChecksum() {
+        try {
+            this.digest = MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * @return the lower case hex digest or {@code null} if the frame could not be read, e.g. a hardware frame
+     */
+    public String md5(final AVFrame frame) {
+        final int size = av_image_get_buffer_size(frame.format(), frame.width(), frame.height(), 1);
+        if (size <= 0) {
+            return null;
+        }
+        if (this.buffer == null || this.buffer.capacity() < size) {
+            if (this.buffer != null) {
+                NativeResources.free(this.buffer);
+            }
+            this.buffer = NativeResources.allocate(size);
+        }
+        if (av_image_copy_to_buffer(this.buffer.position(0), size, frame.data(), frame.linesize(),
+                frame.format(), frame.width(), frame.height(), 1) < 0) {
+            return null;
+        }
+        this.digest.update(this.buffer.position(0).limit(size).asByteBuffer());
+        return HexFormat.of().formatHex(this.digest.digest());
+    }
+
+    /**
+     * Same as {@link #md5(AVFrame)} for a frame of any {@link DecoderBackend}, needs no native code.
+     */
+    public String md5(final DecodedFrame frame) {
+        for (int i = 0; i < frame.planeCount(); i++) {
+            final ByteBuffer plane = frame.plane(i);
+            for (int row = 0; row < frame.planeHeight(i); row++) {
+                final int start = row * frame.stride(i);
+                this.digest.update(plane.duplicate().position(start).limit(start + frame.planeWidth(i)));
+            }
+        }
+        return HexFormat.of().formatHex(this.digest.digest());
+    }
+
+    @Override
+    public void close() {
+        if (this.buffer != null) {
+            NativeResources.free(this.buffer);
+            this.buffer = null;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+
+/**
+ * Converts decoded frames into packed 32 bit BGRA with opaque alpha, the layout JavaFX uploads without any
+ * further conversion. Implementations are called from a single thread.
+ */
+public interface FrameConverter extends AutoCloseable {
+
+    /**
+     * Converts the frame into {@code destination}, which holds {@code frame.height()} rows of
+     * {@code destinationStride} bytes.
+     *
+     * @return {@code false} if the pixel format of the frame is not supported
+     */
+    boolean convert(AVFrame frame, BytePointer destination, int destinationStride);
+
+    @Override
+    void close();
+}
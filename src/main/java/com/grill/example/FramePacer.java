@@ -0,0 +1,162 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.tinylog.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_ref;
+
+/**
+ * Releases decoded frames to the display on a steady clock at the display refresh rate instead of whenever the
+ * decoder happens to finish them.
+ * <p>
+ * Frames from the pipeline go through a {@link JitterBuffer}, on every tick the newest frame that is due is
+ * handed to the display. The time a frame spent in the buffer is recorded as
+ * {@link DecoderMetrics.Stage#JITTER_BUFFER}, which is the latency the pacing adds.
+ * <p>
+ * {@link #start()} ticks on an own thread using {@link System#nanoTime()}. Without it the pacer can be driven
+ * deterministically by calling {@link #tick(long)} with a synthetic clock.
+ */
+public final class FramePacer implements AutoCloseable {
+
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final AVFramePool framePool;
+    private final JitterBuffer<AVFrame> buffer;
+    private final long refreshIntervalNanos;
+    private final DecoderMetrics metrics;
+    private final LongSupplier clock;
+    private final Consumer<AVFrame> display;
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    /**
+     * @param framePool            buffered frames are references taken into frames of this pool
+     * @param capacity             frames the jitter buffer holds at most, the pool has to have that many to spare
+     * @param clockRate            pts ticks per second, {@link RtpIngest#CLOCK_RATE} for RTP timestamps
+     * @param frameIntervalNanos   nominal distance of two frames of the stream
+     * @param maxDelayNanos        upper bound of the delay the jitter buffer adds
+     * @param clock                time source of arrival and playout times
+     * @param display              receives due frames on the ticking thread, the frame is released afterwards
+     */
+    public FramePacer(final AVFramePool framePool, final int capacity, final long clockRate, final long frameIntervalNanos,
+                      final long refreshIntervalNanos, final long maxDelayNanos, final JitterBuffer.LatePolicy latePolicy, final DecoderMetrics metrics,
+                      final LongSupplier clock, final Consumer<AVFrame> display) {
+        this.framePool = framePool;
+        this.refreshIntervalNanos = refreshIntervalNanos;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.display = display;
+        // never below one refresh, a frame can not be shown between two ticks anyway
+        this.buffer = new JitterBuffer<>(capacity, clockRate, frameIntervalNanos, refreshIntervalNanos, maxDelayNanos, latePolicy,
+                frame -> {
+                    this.framePool.release(frame);
+                    this.metrics.countDroppedFrame();
+                });
+    }
+
+    /**
+     * Refresh interval from {@code -Ddisplay.refreshRate} in Hz, 60 by default.
+     */
+    public static long refreshIntervalFromSystemProperty() {
+        final int refreshRate = Integer.getInteger("display.refreshRate", FramePacer.DEFAULT_REFRESH_RATE);
+        return TimeUnit.SECONDS.toNanos(1) / Math.max(1, refreshRate);
+    }
+
+    public JitterBuffer<AVFrame> buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Buffers a reference to the frame, the caller keeps its own reference.
+     *
+     * @return {@code false} if the frame was dropped
+     */
+    public boolean submit(final AVFrame frame) {
+        final AVFrame reference = this.framePool.acquire();
+        if (reference == null) {
+            this.metrics.countDroppedFrame();
+            return false;
+        }
+        if (av_frame_ref(reference, frame) < 0) {
+            this.framePool.release(reference);
+            this.metrics.countDroppedFrame();
+            return false;
+        }
+        return this.buffer.offer(reference, frame.pts(), this.clock.getAsLong());
+    }
+
+    /**
+     * Hands the newest due frame to the display.
+     *
+     * @return {@code true} if a frame was released
+     */
+    public boolean tick(final long nowNanos) {
+        final AVFrame frame = this.buffer.poll(nowNanos);
+        if (frame == null) {
+            return false;
+        }
+        this.metrics.record(DecoderMetrics.Stage.JITTER_BUFFER, nowNanos - this.buffer.lastPolledArrival());
+        try {
+            this.display.accept(frame);
+        } finally {
+            this.framePool.release(frame);
+        }
+        return true;
+    }
+
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+        this.thread = new Thread(this::run, "frame-pacer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops ticking and releases all buffered frames.
+     */
+    @Override
+    public synchronized void close() {
+        this.running = false;
+        if (this.thread != null) {
+            LockSupport.unpark(this.thread);
+            try {
+                this.thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.thread = null;
+        }
+        this.buffer.clear();
+        Logger.info("Frame pacer: target delay {} ms, jitter {} ms, late {}, overtaken {}, overflow {}",
+                TimeUnit.NANOSECONDS.toMillis(this.buffer.targetDelayNanos()), TimeUnit.NANOSECONDS.toMillis(this.buffer.jitterNanos()),
+                this.buffer.lateFrames(), this.buffer.overtakenFrames(), this.buffer.overflowFrames());
+    }
+
+    private void run() {
+        long nextTick = this.clock.getAsLong();
+        while (this.running) {
+            nextTick += this.refreshIntervalNanos;
+            long now;
+            while (this.running && (now = this.clock.getAsLong()) < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+            }
+            now = this.clock.getAsLong();
+            if (now - nextTick > this.refreshIntervalNanos) {
+                // missed ticks are not made up for, keep the phase instead of bursting
+                nextTick += (now - nextTick) / this.refreshIntervalNanos * this.refreshIntervalNanos;
+            }
+            if (this.running) {
+                this.tick(now);
+            }
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package com.grill.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * Minimal H.264 sequence and picture parameter set parser (ITU-T H.264 7.3.2.1 / 7.3.2.2 / E.1.1).
+ * <p>
+ * Reads what is needed to configure a decoder before {@code avcodec_open2} (resolution, profile, level, chroma
+ * format, bit depth and reorder depth) and keeps the raw NAL units as Annex-B extradata.
+ */
+public final class H264ParameterSets {
+
+    // MaxDpbMbs per level_idc, Table A-1
+    private static final int[][] MAX_DPB_MBS = {
+            {9, 396}, {10, 396}, {11, 900}, {12, 2376}, {13, 2376}, {20, 2376}, {21, 4752}, {22, 8100}, {30, 8100},
+            {31, 18000}, {32, 20480}, {40, 32768}, {41, 32768}, {42, 34816}, {50, 110400}, {51, 184320},
+            {52, 184320}, {60, 696320}, {61, 696320}, {62, 696320}
+    };
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final Sps sps;
+    private final Pps pps;
+    private final byte[] extradata;
+
+    private H264ParameterSets(final Sps sps, final Pps pps, final byte[] extradata) {
+        this.sps = sps;
+        this.pps = pps;
+        this.extradata = extradata;
+    }
+
+    /**
+     * Reads access units from the start of an Annex-B file until a SPS and a PPS have been seen.
+     *
+     * @param maxAccessUnits number of access units to look at before giving up
+     * @return the parameter sets or {@code null} if none were found
+     */
+    public static H264ParameterSets scan(final Path file, final int maxAccessUnits) throws IOException {
+        try (final AnnexBReader reader = new AnnexBReader(file)) {
+            for (int i = 0; i < maxAccessUnits && reader.nextAccessUnit(); i++) {
+                if (!reader.hasParameterSets()) {
+                    continue;
+                }
+                final byte[] accessUnit = new byte[reader.size()];
+                reader.data().get(accessUnit);
+                final H264ParameterSets parameterSets = H264ParameterSets.parse(accessUnit, accessUnit.length);
+                if (parameterSets != null && parameterSets.pps != null) {
+                    return parameterSets;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes at the start of an access unit worth parsing for parameter sets: they precede the slices, so the start
+     * of the access unit is enough to find them. The size of the scratch buffers passed to the parsers.
+     */
+    public static final int PARAMETER_SET_PREFIX = 4096;
+
+    /**
+     * Parses the parameter sets of an access unit received in band, if a SPS is among the NAL units in front of
+     * its first slice. The access unit's position is not changed.
+     *
+     * @param buffer scratch space of usually {@link #PARAMETER_SET_PREFIX} bytes, only the first
+     *               {@code buffer.length} bytes of the access unit are parsed
+     * @return the parameter sets or {@code null} if the access unit carries no valid SPS
+     */
+    public static H264ParameterSets parse(final ByteBuffer accessUnit, final byte[] buffer) {
+        final int start = accessUnit.position();
+        final int end = Math.min(accessUnit.limit(), start + buffer.length);
+        for (int i = start; i + 3 < end; i++) {
+            if (accessUnit.get(i) == 0 && accessUnit.get(i + 1) == 0 && accessUnit.get(i + 2) == 1) {
+                final int nalType = accessUnit.get(i + 3) & 0x1F;
+                if (nalType == AnnexBReader.NAL_SPS) {
+                    accessUnit.get(start, buffer, 0, end - start);
+                    return H264ParameterSets.parse(buffer, end - start);
+                }
+                if (nalType == AnnexBReader.NAL_SLICE || nalType == AnnexBReader.NAL_IDR_SLICE) {
+                    return null;
+                }
+                i += 3;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the parameter sets contained in an Annex-B access unit.
+     *
+     * @return the parameter sets or {@code null} if the access unit has no valid SPS
+     */
+    public static H264ParameterSets parse(final byte[] data, final int length) {
+        Sps sps = null;
+        Pps pps = null;
+        final ByteArrayOutputStream extradata = new ByteArrayOutputStream();
+        int start = H264ParameterSets.nextNalUnit(data, 0, length);
+        while (start >= 0 && start < length) {
+            final int next = H264ParameterSets.nextNalUnit(data, start, length);
+            final int end = H264ParameterSets.nalUnitEnd(data, start, next, length);
+            final int nalType = data[start] & 0x1F;
+            try {
+                if (nalType == AnnexBReader.NAL_SPS && sps == null) {
+                    sps = Sps.parse(H264ParameterSets.unescape(data, start + 1, end));
+                    extradata.write(H264ParameterSets.START_CODE, 0, H264ParameterSets.START_CODE.length);
+                    extradata.write(data, start, end - start);
+                } else if (nalType == AnnexBReader.NAL_PPS && pps == null) {
+                    pps = Pps.parse(H264ParameterSets.unescape(data, start + 1, end));
+                    extradata.write(H264ParameterSets.START_CODE, 0, H264ParameterSets.START_CODE.length);
+                    extradata.write(data, start, end - start);
+                }
+            } catch (IndexOutOfBoundsException e) {
+                // truncated parameter set, ignore it
+            }
+            start = next;
+        }
+        return sps == null ? null : new H264ParameterSets(sps, pps, extradata.toByteArray());
+    }
+
+    public Sps sps() {
+        return this.sps;
+    }
+
+    /**
+     * Returns the first PPS of the access unit, may be {@code null}.
+     */
+    public Pps pps() {
+        return this.pps;
+    }
+
+    /**
+     * Returns SPS and PPS as Annex-B byte stream, usable as {@code AVCodecContext.extradata}.
+     */
+    public byte[] extradata() {
+        return this.extradata.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "H264ParameterSets[" + this.sps + ", " + this.pps + ']';
+    }
+
+    /**
+     * Returns the index of the NAL header following the next start code at or after {@code from}, or -1.
+     */
+    static int nextNalUnit(final byte[] data, final int from, final int length) {
+        for (int i = from; i + 2 < length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the end of the NAL unit starting at {@code start}, given the start of the next one as returned by
+     * {@link #nextNalUnit(byte[], int, int)}. Trailing zeros belong to the next (four byte) start code.
+     */
+    static int nalUnitEnd(final byte[] data, final int start, final int next, final int length) {
+        int end = next < 0 ? length : next - 3;
+        while (end > start && data[end - 1] == 0) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Removes emulation prevention bytes ({@code 00 00 03}) from the RBSP.
+     */
+    private static byte[] unescape(final byte[] data, final int start, final int end) {
+        final byte[] rbsp = new byte[end - start];
+        int length = 0;
+        int zeros = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = data[i];
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp[length++] = b;
+        }
+        return length == rbsp.length ? rbsp : Arrays.copyOf(rbsp, length);
+    }
+
+    /**
+     * Sequence parameter set, sizes are in luma samples after cropping.
+     */
+    public static final class Sps {
+        private int profileIdc;
+        private int constraintFlags;
+        private int levelIdc;
+        private int id;
+        private int chromaFormatIdc = 1;
+        private int bitDepthLuma = 8;
+        private int bitDepthChroma = 8;
+        private int maxNumRefFrames;
+        private boolean frameMbsOnly;
+        private int widthInMbs;
+        private int heightInMbs;
+        private int width;
+        private int height;
+        private int maxNumReorderFrames = -1;
+        private boolean fullRange;
+        private long timeScale;
+        private long numUnitsInTick;
+
+        private Sps() {
+        }
+
+        private static Sps parse(final byte[] rbsp) {
+            final BitReader reader = new BitReader(rbsp);
+            final Sps sps = new Sps();
+            sps.profileIdc = reader.bits(8);
+            sps.constraintFlags = reader.bits(8);
+            sps.levelIdc = reader.bits(8);
+            sps.id = reader.ue();
+            boolean separateColourPlane = false;
+            if (Sps.isHighProfile(sps.profileIdc)) {
+                sps.chromaFormatIdc = reader.ue();
+                if (sps.chromaFormatIdc == 3) {
+                    separateColourPlane = reader.flag();
+                }
+                sps.bitDepthLuma = reader.ue() + 8;
+                sps.bitDepthChroma = reader.ue() + 8;
+                reader.flag(); // qpprime_y_zero_transform_bypass_flag
+                if (reader.flag()) { // seq_scaling_matrix_present_flag
+                    final int lists = sps.chromaFormatIdc == 3 ? 12 : 8;
+                    for (int i = 0; i < lists; i++) {
+                        if (reader.flag()) {
+                            Sps.skipScalingList(reader, i < 6 ? 16 : 64);
+                        }
+                    }
+                }
+            }
+            reader.ue(); // log2_max_frame_num_minus4
+            final int picOrderCntType = reader.ue();
+            if (picOrderCntType == 0) {
+                reader.ue(); // log2_max_pic_order_cnt_lsb_minus4
+            } else if (picOrderCntType == 1) {
+                reader.flag(); // delta_pic_order_always_zero_flag
+                reader.se(); // offset_for_non_ref_pic
+                reader.se(); // offset_for_top_to_bottom_field
+                final int cycle = reader.ue();
+                for (int i = 0; i < cycle; i++) {
+                    reader.se();
+                }
+            }
+            sps.maxNumRefFrames = reader.ue();
+            reader.flag(); // gaps_in_frame_num_value_allowed_flag
+            sps.widthInMbs = reader.ue() + 1;
+            final int heightInMapUnits = reader.ue() + 1;
+            sps.frameMbsOnly = reader.flag();
+            if (!sps.frameMbsOnly) {
+                reader.flag(); // mb_adaptive_frame_field_flag
+            }
+            reader.flag(); // direct_8x8_inference_flag
+            sps.heightInMbs = heightInMapUnits * (sps.frameMbsOnly ? 1 : 2);
+
+            int cropLeft = 0, cropRight = 0, cropTop = 0, cropBottom = 0;
+            if (reader.flag()) { // frame_cropping_flag
+                cropLeft = reader.ue();
+                cropRight = reader.ue();
+                cropTop = reader.ue();
+                cropBottom = reader.ue();
+            }
+            final int chromaArrayType = separateColourPlane ? 0 : sps.chromaFormatIdc;
+            final int cropUnitX = chromaArrayType == 0 || chromaArrayType == 3 ? 1 : 2;
+            final int cropUnitY = (chromaArrayType == 1 ? 2 : 1) * (sps.frameMbsOnly ? 1 : 2);
+            sps.width = sps.widthInMbs * 16 - cropUnitX * (cropLeft + cropRight);
+            sps.height = sps.heightInMbs * 16 - cropUnitY * (cropTop + cropBottom);
+
+            if (reader.flag()) { // vui_parameters_present_flag
+                sps.parseVui(reader);
+            }
+            return sps;
+        }
+
+        private void parseVui(final BitReader reader) {
+            if (reader.flag()) { // aspect_ratio_info_present_flag
+                if (reader.bits(8) == 255) { // Extended_SAR
+                    reader.bits(16);
+                    reader.bits(16);
+                }
+            }
+            if (reader.flag()) { // overscan_info_present_flag
+                reader.flag();
+            }
+            if (reader.flag()) { // video_signal_type_present_flag
+                reader.bits(3); // video_format
+                this.fullRange = reader.flag();
+                if (reader.flag()) { // colour_description_present_flag
+                    reader.bits(24);
+                }
+            }
+            if (reader.flag()) { // chroma_loc_info_present_flag
+                reader.ue();
+                reader.ue();
+            }
+            if (reader.flag()) { // timing_info_present_flag
+                this.numUnitsInTick = reader.bits(32) & 0xFFFFFFFFL;
+                this.timeScale = reader.bits(32) & 0xFFFFFFFFL;
+                reader.flag(); // fixed_frame_rate_flag
+            }
+            final boolean nalHrd = reader.flag();
+            if (nalHrd) {
+                Sps.skipHrdParameters(reader);
+            }
+            final boolean vclHrd = reader.flag();
+            if (vclHrd) {
+                Sps.skipHrdParameters(reader);
+            }
+            if (nalHrd || vclHrd) {
+                reader.flag(); // low_delay_hrd_flag
+            }
+            reader.flag(); // pic_struct_present_flag
+            if (reader.flag()) { // bitstream_restriction_flag
+                reader.flag(); // motion_vectors_over_pic_boundaries_flag
+                reader.ue(); // max_bytes_per_pic_denom
+                reader.ue(); // max_bits_per_mb_denom
+                reader.ue(); // log2_max_mv_length_horizontal
+                reader.ue(); // log2_max_mv_length_vertical
+                this.maxNumReorderFrames = reader.ue();
+                reader.ue(); // max_dec_frame_buffering
+            }
+        }
+
+        private static void skipHrdParameters(final BitReader reader) {
+            final int cpbCount = reader.ue() + 1;
+            reader.bits(4); // bit_rate_scale
+            reader.bits(4); // cpb_size_scale
+            for (int i = 0; i < cpbCount; i++) {
+                reader.ue(); // bit_rate_value_minus1
+                reader.ue(); // cpb_size_value_minus1
+                reader.flag(); // cbr_flag
+            }
+            reader.bits(20); // four delay and offset lengths of five bits each
+        }
+
+        private static void skipScalingList(final BitReader reader, final int size) {
+            int lastScale = 8;
+            int nextScale = 8;
+            for (int j = 0; j < size; j++) {
+                if (nextScale != 0) {
+                    nextScale = (lastScale + reader.se() + 256) % 256;
+                }
+                lastScale = nextScale == 0 ? lastScale : nextScale;
+            }
+        }
+
+        private static boolean isHighProfile(final int profileIdc) {
+            return switch (profileIdc) {
+                case 100, 110, 122, 244, 44, 83, 86, 118, 128, 138, 139, 134, 135 -> true;
+                default -> false;
+            };
+        }
+
+        public int id() {
+            return this.id;
+        }
+
+        public int profileIdc() {
+            return this.profileIdc;
+        }
+
+        public int levelIdc() {
+            return this.levelIdc;
+        }
+
+        public int chromaFormatIdc() {
+            return this.chromaFormatIdc;
+        }
+
+        public int bitDepth() {
+            return Math.max(this.bitDepthLuma, this.bitDepthChroma);
+        }
+
+        public int width() {
+            return this.width;
+        }
+
+        public int height() {
+            return this.height;
+        }
+
+        /**
+         * Width of the decoded picture before cropping, a multiple of the macroblock size.
+         */
+        public int codedWidth() {
+            return this.widthInMbs * 16;
+        }
+
+        public int codedHeight() {
+            return this.heightInMbs * 16;
+        }
+
+        public boolean fullRange() {
+            return this.fullRange;
+        }
+
+        /**
+         * Frames per second from the VUI timing information, 0 if the stream does not signal it.
+         */
+        public double frameRate() {
+            return this.numUnitsInTick == 0 ? 0 : this.timeScale / (2.0 * this.numUnitsInTick);
+        }
+
+        /**
+         * Returns the number of frames the decoder may have to hold back for reordering. Without
+         * {@code max_num_reorder_frames} in the VUI this is 0 for profiles without B slices and MaxDpbFrames
+         * of the level otherwise, as inferred by E.2.1.
+         */
+        public int reorderDepth() {
+            if (this.maxNumReorderFrames >= 0) {
+                return this.maxNumReorderFrames;
+            }
+            final boolean intraOnly = (this.constraintFlags & 0x10) != 0 &&
+                    (this.profileIdc == 44 || this.profileIdc == 86 || this.profileIdc == 100 ||
+                            this.profileIdc == 110 || this.profileIdc == 122 || this.profileIdc == 244);
+            if (this.profileIdc == 66 || intraOnly) {
+                return 0;
+            }
+            return this.maxDpbFrames();
+        }
+
+        /**
+         * MaxDpbFrames of the level for the coded picture size (A.3.1), at most 16.
+         */
+        public int maxDpbFrames() {
+            int maxDpbMbs = H264ParameterSets.MAX_DPB_MBS[H264ParameterSets.MAX_DPB_MBS.length - 1][1];
+            // level 1b is signalled as 11 with constraint_set3_flag in the Baseline, Main and Extended profiles
+            final int level = this.levelIdc == 11 && (this.constraintFlags & 0x10) != 0 &&
+                    (this.profileIdc == 66 || this.profileIdc == 77 || this.profileIdc == 88) ? 9 : this.levelIdc;
+            for (final int[] entry : H264ParameterSets.MAX_DPB_MBS) {
+                if (entry[0] == level) {
+                    maxDpbMbs = entry[1];
+                    break;
+                }
+            }
+            return Math.max(1, Math.min(16, maxDpbMbs / (this.widthInMbs * this.heightInMbs)));
+        }
+
+        /**
+         * Returns the software pixel format the stream decodes to.
+         */
+        public int pixelFormat() {
+            return switch (this.chromaFormatIdc) {
+                case 0 -> this.byBitDepth(AV_PIX_FMT_GRAY8, AV_PIX_FMT_GRAY9LE, AV_PIX_FMT_GRAY10LE,
+                        AV_PIX_FMT_GRAY12LE, AV_PIX_FMT_GRAY14LE);
+                case 2 -> this.byBitDepth(AV_PIX_FMT_YUV422P, AV_PIX_FMT_YUV422P9LE, AV_PIX_FMT_YUV422P10LE,
+                        AV_PIX_FMT_YUV422P12LE, AV_PIX_FMT_YUV422P14LE);
+                case 3 -> this.byBitDepth(AV_PIX_FMT_YUV444P, AV_PIX_FMT_YUV444P9LE, AV_PIX_FMT_YUV444P10LE,
+                        AV_PIX_FMT_YUV444P12LE, AV_PIX_FMT_YUV444P14LE);
+                default -> this.byBitDepth(AV_PIX_FMT_YUV420P, AV_PIX_FMT_YUV420P9LE, AV_PIX_FMT_YUV420P10LE,
+                        AV_PIX_FMT_YUV420P12LE, AV_PIX_FMT_YUV420P14LE);
+            };
+        }
+
+        /**
+         * Picks the format for the bit depth among the depths FFmpeg's H.264 decoder supports, for any other
+         * depth {@code AV_PIX_FMT_NONE} leaves the choice to the decoder.
+         */
+        private int byBitDepth(final int depth8, final int depth9, final int depth10, final int depth12, final int depth14) {
+            return switch (this.bitDepth()) {
+                case 8 -> depth8;
+                case 9 -> depth9;
+                case 10 -> depth10;
+                case 12 -> depth12;
+                case 14 -> depth14;
+                default -> AV_PIX_FMT_NONE;
+            };
+        }
+
+        /**
+         * Whether a stream switching from {@code other} to this SPS changes the decoded picture format.
+         */
+        public boolean changesFormat(final Sps other) {
+            return other == null || this.width != other.width || this.height != other.height ||
+                    this.chromaFormatIdc != other.chromaFormatIdc || this.bitDepth() != other.bitDepth();
+        }
+
+        @Override
+        public String toString() {
+            return "Sps[" +
+                    "id=" + this.id + ", " +
+                    "profile=" + this.profileIdc + ", " +
+                    "level=" + this.levelIdc + ", " +
+                    "size=" + this.width + "x" + this.height + ", " +
+                    "chromaFormat=" + this.chromaFormatIdc + ", " +
+                    "bitDepth=" + this.bitDepth() + ", " +
+                    "reorderDepth=" + this.reorderDepth() + ']';
+        }
+    }
+
+    /**
+     * Picture parameter set, only the fields in front of the slice group syntax.
+     */
+    public static final class Pps {
+        private int id;
+        private int spsId;
+        private boolean cabac;
+        private int sliceGroups;
+
+        private Pps() {
+        }
+
+        private static Pps parse(final byte[] rbsp) {
+            final BitReader reader = new BitReader(rbsp);
+            final Pps pps = new Pps();
+            pps.id = reader.ue();
+            pps.spsId = reader.ue();
+            pps.cabac = reader.flag();
+            reader.flag(); // bottom_field_pic_order_in_frame_present_flag
+            pps.sliceGroups = reader.ue() + 1;
+            return pps;
+        }
+
+        public int id() {
+            return this.id;
+        }
+
+        public int spsId() {
+            return this.spsId;
+        }
+
+        public boolean cabac() {
+            return this.cabac;
+        }
+
+        public int sliceGroups() {
+            return this.sliceGroups;
+        }
+
+        @Override
+        public String toString() {
+            return "Pps[" +
+                    "id=" + this.id + ", " +
+                    "spsId=" + this.spsId + ", " +
+                    "cabac=" + this.cabac + ", " +
+                    "sliceGroups=" + this.sliceGroups + ']';
+        }
+    }
+
+    /**
+     * MSB first bit reader with Exp-Golomb decoding (9.1).
+     */
+    private static final class BitReader {
+        private final byte[] data;
+        private int position;
+
+        private BitReader(final byte[] data) {
+            this.data = data;
+        }
+
+        private boolean flag() {
+            final int bit = (this.data[this.position >>> 3] >>> (7 - (this.position & 7))) & 1;
+            this.position++;
+            return bit != 0;
+        }
+
+        private int bits(final int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | (this.flag() ? 1 : 0);
+            }
+            return value;
+        }
+
+        private int ue() {
+            int leadingZeros = 0;
+            while (!this.flag()) {
+                if (++leadingZeros > 31) {
+                    throw new IndexOutOfBoundsException("Invalid Exp-Golomb code");
+                }
+            }
+            return (int) ((1L << leadingZeros) - 1 + (this.bits(leadingZeros) & 0xFFFFFFFFL));
+        }
+
+        private int se() {
+            final int value = this.ue();
+            return (value & 1) != 0 ? (value + 1) / 2 : -(value / 2);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecHWConfig;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+import org.tinylog.Logger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_HW_CONFIG_METHOD_HW_DEVICE_CTX;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_get_hw_config;
+import static org.bytedeco.ffmpeg.global.avutil.AV_HWDEVICE_TYPE_NONE;
+import static org.bytedeco.ffmpeg.global.avutil.av_hwdevice_ctx_create;
+import static org.bytedeco.ffmpeg.global.avutil.av_hwdevice_find_type_by_name;
+import static org.bytedeco.ffmpeg.global.avutil.av_hwdevice_get_type_name;
+import static org.bytedeco.ffmpeg.global.avutil.av_hwdevice_iterate_types;
+
+/**
+ * Process wide cache of hardware devices.
+ * <p>
+ * Every device type is probed at most once: types FFmpeg was built without or the decoder has no configuration
+ * for are rejected without touching a driver, and a failing {@code av_hwdevice_ctx_create} is remembered, so on
+ * machines without a GPU only the first decoder pays for the probe. Created devices are kept for the lifetime of
+ * the process and shared between decoder contexts by reference.
+ */
+public final class HardwareDevices {
+
+    private static final Map<Integer, AVBufferRef> devices = new HashMap<>();
+    private static final Set<Integer> unavailable = new HashSet<>();
+    private static Set<Integer> builtInTypes;
+
+    private HardwareDevices() {
+    }
+
+    /**
+     * Parses {@code -Ddecoder.hwDevices}, a comma separated list of FFmpeg device names like
+     * {@code vaapi,cuda,d3d11va,dxva2}. Unknown names are skipped.
+     *
+     * @return the device types or {@code defaults} if the property is not set
+     */
+    public static int[] fromSystemProperty(final int... defaults) {
+        final String property = System.getProperty("decoder.hwDevices");
+        if (property == null) {
+            return defaults;
+        }
+        return Arrays.stream(property.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .mapToInt(name -> {
+                    final int type = av_hwdevice_find_type_by_name(name);
+                    if (type == AV_HWDEVICE_TYPE_NONE) {
+                        Logger.warn("Unknown hardware device type {}", name);
+                    }
+                    return type;
+                })
+                .filter(type -> type != AV_HWDEVICE_TYPE_NONE)
+                .toArray();
+    }
+
+    /**
+     * Returns a context for the first device type in {@code priority} that is available for the decoder.
+     *
+     * @return a context holding its own device reference, or {@code null} to decode in software
+     */
+    public static synchronized AVHWContextInfo open(final AVCodec decoder, final int[] priority) {
+        for (final int type : priority) {
+            if (HardwareDevices.unavailable.contains(type)) {
+                continue;
+            }
+            final AVCodecHWConfig config = HardwareDevices.findConfig(decoder, type);
+            if (config == null) {
+                HardwareDevices.markUnavailable(type, "no decoder configuration");
+                continue;
+            }
+            AVBufferRef device = HardwareDevices.devices.get(type);
+            if (device == null) {
+                if (!HardwareDevices.builtInTypes().contains(type)) {
+                    HardwareDevices.markUnavailable(type, "not built into FFmpeg");
+                    continue;
+                }
+                device = new AVBufferRef();
+                if (av_hwdevice_ctx_create(device, type, (String) null, null, 0) < 0 || device.isNull()) {
+                    HardwareDevices.markUnavailable(type, "device creation failed");
+                    continue;
+                }
+                HardwareDevices.devices.put(type, device);
+                Logger.info("HW accel created for type {}", av_hwdevice_get_type_name(type).getString());
+            }
+            final AVBufferRef reference = NativeResources.ref(device);
+            if (reference == null) {
+                Logger.error("Unable to reference hardware device {}", type);
+                return null;
+            }
+            return new AVHWContextInfo(config, reference);
+        }
+        return null;
+    }
+
+    private static AVCodecHWConfig findConfig(final AVCodec decoder, final int type) {
+        for (int i = 0; ; i++) {
+            final AVCodecHWConfig config = avcodec_get_hw_config(decoder, i);
+            if (config == null) {
+                return null;
+            }
+            if ((config.methods() & AV_CODEC_HW_CONFIG_METHOD_HW_DEVICE_CTX) != 0 && config.device_type() == type) {
+                return config;
+            }
+        }
+    }
+
+    private static Set<Integer> builtInTypes() {
+        if (HardwareDevices.builtInTypes == null) {
+            final Set<Integer> types = new HashSet<>();
+            int type = AV_HWDEVICE_TYPE_NONE;
+            while ((type = av_hwdevice_iterate_types(type)) != AV_HWDEVICE_TYPE_NONE) {
+                types.add(type);
+            }
+            HardwareDevices.builtInTypes = types;
+        }
+        return HardwareDevices.builtInTypes;
+    }
+
+    private static void markUnavailable(final int type, final String reason) {
+        HardwareDevices.unavailable.add(type);
+        Logger.info("HW accel not available for type {}: {}", type, reason);
+    }
+}
@@ -0,0 +1,238 @@
+package com.grill.example;
+
+import org.jcodec.codecs.h264.H264Decoder;
+import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.model.Rect;
+import org.tinylog.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Pure Java {@link DecoderBackend} on the jcodec H.264 decoder, for nodes without the FFmpeg native libraries.
+ * <p>
+ * jcodec decodes synchronously and returns pictures in decoding order, so they are reordered here by picture
+ * order count with the reorder depth from the SPS, like the DPB output of a conforming decoder. jcodec stores
+ * samples as signed bytes offset by -128; they are shifted back in place when a frame is received. That is safe
+ * because jcodec copies reference pictures into buffers of its own, the output buffer belongs to the caller.
+ */
+public final class JcodecDecoderBackend implements DecoderBackend {
+
+    public static final String NAME = "jcodec";
+
+    // reorder depth until a SPS says otherwise, the largest a level allows
+    private static final int DEFAULT_REORDER_DEPTH = 16;
+
+    private H264Decoder decoder;
+    private byte[] extradata;
+    private int codedWidth;
+    private int codedHeight;
+    private int reorderDepth;
+
+    private final List<DecodedPicture> reorderBuffer = new ArrayList<>();
+    private final ArrayDeque<DecodedPicture> ready = new ArrayDeque<>();
+    private final ArrayDeque<byte[][]> idleBuffers = new ArrayDeque<>();
+    private final ArrayDeque<DecodedFrame> idleFrames = new ArrayDeque<>();
+    private final byte[] parameterSetBuffer = new byte[H264ParameterSets.PARAMETER_SET_PREFIX];
+
+    /**
+     * Picture in decoding order together with the buffer it was decoded into.
+     */
+    private static final class DecodedPicture {
+        private final Frame frame;
+        private final byte[][] buffer;
+        private final long pts;
+
+        private DecodedPicture(final Frame frame, final byte[][] buffer, final long pts) {
+            this.frame = frame;
+            this.buffer = buffer;
+            this.pts = pts;
+        }
+    }
+
+    /**
+     * Opens the decoder with the extradata of {@code settings} if there is any, otherwise the stream has to start
+     * with its parameter sets. Sizes and reorder depth come from the SPS, or from the settings until one is seen.
+     */
+    public JcodecDecoderBackend(final DecoderSettings settings) {
+        this.codedWidth = (settings.width() + 15) & ~15;
+        this.codedHeight = (settings.height() + 31) & ~31;
+        this.reorderDepth = settings.lowDelay() ? 0 : JcodecDecoderBackend.DEFAULT_REORDER_DEPTH;
+        this.extradata = settings.extradata();
+        if (this.extradata != null) {
+            final H264ParameterSets parameterSets = H264ParameterSets.parse(this.extradata, this.extradata.length);
+            if (parameterSets != null) {
+                this.configure(parameterSets.sps());
+            }
+        }
+        this.decoder = this.createDecoder();
+    }
+
+    @Override
+    public String name() {
+        return JcodecDecoderBackend.NAME;
+    }
+
+    @Override
+    public int send(final ByteBuffer accessUnit, final long pts, final boolean keyFrame) {
+        if (!this.ready.isEmpty()) {
+            return DecoderBackend.AGAIN;
+        }
+        this.updateParameterSets(accessUnit);
+        byte[][] buffer = this.idleBuffers.poll();
+        if (buffer == null) {
+            buffer = Picture.create(this.codedWidth, this.codedHeight, ColorSpace.YUV420J).getData();
+        }
+        final Frame frame;
+        try {
+            frame = this.decoder.decodeFrame(accessUnit.duplicate(), buffer);
+        } catch (final RuntimeException e) {
+            // jcodec signals broken bitstreams with all kinds of runtime exceptions
+            Logger.debug("jcodec failed to decode access unit {}: {}", pts, e.toString());
+            this.idleBuffers.offer(buffer);
+            return DecoderBackend.ERROR;
+        }
+        if (frame == null) {
+            this.idleBuffers.offer(buffer);
+            return DecoderBackend.ERROR;
+        }
+        if (keyFrame) {
+            // picture order count restarts, everything before the IDR is output first
+            this.outputAll();
+        }
+        this.reorderBuffer.add(new DecodedPicture(frame, buffer, pts));
+        while (this.reorderBuffer.size() > this.reorderDepth) {
+            this.ready.offer(this.reorderBuffer.remove(this.nextInDisplayOrder()));
+        }
+        return DecoderBackend.OK;
+    }
+
+    @Override
+    public void drain() {
+        this.outputAll();
+    }
+
+    @Override
+    public DecodedFrame receive() {
+        final DecodedPicture picture = this.ready.poll();
+        if (picture == null) {
+            return null;
+        }
+        final Frame frame = picture.frame;
+        final Rect crop = frame.getCrop();
+        final int x = crop == null ? 0 : crop.getX();
+        final int y = crop == null ? 0 : crop.getY();
+        final int width = crop == null ? frame.getWidth() : crop.getWidth();
+        final int height = crop == null ? frame.getHeight() : crop.getHeight();
+
+        DecodedFrame decodedFrame = this.idleFrames.poll();
+        if (decodedFrame == null) {
+            decodedFrame = new DecodedFrame();
+        }
+        decodedFrame.reset(width, height, picture.pts);
+        decodedFrame.handle = picture;
+        for (int i = 0; i < 3; i++) {
+            final int shift = i == 0 ? 0 : 1;
+            final int stride = frame.getPlaneWidth(i);
+            final int planeWidth = (width + shift) >> shift;
+            final int planeHeight = (height + shift) >> shift;
+            final byte[] data = frame.getPlaneData(i);
+            final int offset = (y >> shift) * stride + (x >> shift);
+            JcodecDecoderBackend.toUnsigned(data, offset, stride, planeWidth, planeHeight);
+            decodedFrame.addPlane(ByteBuffer.wrap(data, offset, data.length - offset).slice(), stride, planeWidth, planeHeight);
+        }
+        return decodedFrame;
+    }
+
+    @Override
+    public void release(final DecodedFrame frame) {
+        final DecodedPicture picture = (DecodedPicture) frame.handle;
+        frame.handle = null;
+        this.idleFrames.offer(frame);
+        if (picture.buffer.length > 0 && picture.buffer[0].length >= this.codedWidth * this.codedHeight) {
+            this.idleBuffers.offer(picture.buffer);
+        }
+    }
+
+    /**
+     * jcodec has no flush, the decoder is recreated with the last known parameter sets.
+     */
+    @Override
+    public void flush() {
+        for (final DecodedPicture picture : this.reorderBuffer) {
+            this.idleBuffers.offer(picture.buffer);
+        }
+        for (final DecodedPicture picture : this.ready) {
+            this.idleBuffers.offer(picture.buffer);
+        }
+        this.reorderBuffer.clear();
+        this.ready.clear();
+        this.decoder = this.createDecoder();
+    }
+
+    @Override
+    public void close() {
+        this.reorderBuffer.clear();
+        this.ready.clear();
+        this.idleBuffers.clear();
+        this.idleFrames.clear();
+    }
+
+    private H264Decoder createDecoder() {
+        return this.extradata != null ?
+                H264Decoder.createH264DecoderFromCodecPrivate(ByteBuffer.wrap(this.extradata)) : new H264Decoder();
+    }
+
+    /**
+     * Picks up size and reorder depth of a SPS sent in band, buffers of another size are not reused.
+     */
+    private void updateParameterSets(final ByteBuffer accessUnit) {
+        final H264ParameterSets parameterSets = H264ParameterSets.parse(accessUnit, this.parameterSetBuffer);
+        if (parameterSets == null) {
+            return;
+        }
+        this.extradata = parameterSets.extradata();
+        final int width = this.codedWidth;
+        final int height = this.codedHeight;
+        this.configure(parameterSets.sps());
+        if (width != this.codedWidth || height != this.codedHeight) {
+            this.idleBuffers.clear();
+        }
+    }
+
+    private void configure(final H264ParameterSets.Sps sps) {
+        this.codedWidth = sps.codedWidth();
+        this.codedHeight = sps.codedHeight();
+        this.reorderDepth = sps.reorderDepth();
+    }
+
+    private int nextInDisplayOrder() {
+        int next = 0;
+        for (int i = 1; i < this.reorderBuffer.size(); i++) {
+            if (this.reorderBuffer.get(i).frame.getPOC() < this.reorderBuffer.get(next).frame.getPOC()) {
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    private void outputAll() {
+        this.reorderBuffer.sort(Comparator.comparingInt(picture -> picture.frame.getPOC()));
+        this.ready.addAll(this.reorderBuffer);
+        this.reorderBuffer.clear();
+    }
+
+    private static void toUnsigned(final byte[] data, final int offset, final int stride, final int width, final int height) {
+        for (int row = 0; row < height; row++) {
+            final int rowStart = offset + row * stride;
+            for (int i = rowStart; i < rowStart + width; i++) {
+                data[i] ^= (byte) 0x80;
+            }
+        }
+    }
+}
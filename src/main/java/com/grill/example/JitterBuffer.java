@@ -0,0 +1,245 @@
+package com.grill.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Playout buffer for decoded frames keyed on pts, with a target delay that follows the measured arrival jitter.
+ * <p>
+ * The media time of a frame is its pts in a clock of {@code clockRate} ticks per second, e.g. the 90 kHz RTP
+ * timestamp, so a lost access unit or a variable frame rate does not move the deadlines of the frames after it.
+ * The transit time of a frame is arrival minus media time; the
+ * smallest transit of the recent past is the fastest path through network and decoder, so a frame is due at
+ * {@code mediaTime + minTransit + targetDelay}. Inter-arrival jitter is estimated as in RFC 3550 (6.4.1) and
+ * the target delay is a multiple of it, clamped to the configured bounds. Frames arriving after they were due
+ * are handled by the {@link LatePolicy}.
+ * <p>
+ * All times are passed in, so the buffer is deterministic and can be driven by a synthetic clock. Methods are
+ * synchronized, frames are offered by the decoder output thread and polled by the pacer.
+ */
+public final class JitterBuffer<T> {
+
+    public enum LatePolicy {
+        /**
+         * Drop frames that arrive after their playout time
+         */
+        DROP,
+        /**
+         * Show late frames as soon as possible
+         */
+        DISPLAY
+    }
+
+    // target delay in multiples of the smoothed jitter
+    private static final int JITTER_MULTIPLIER = 3;
+    // arrivals the minimum transit is taken over, forgets old minimums so clock drift is followed
+    private static final int TRANSIT_WINDOW = 128;
+
+    private final long clockRate;
+    private final long frameIntervalNanos;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final LatePolicy latePolicy;
+    private final Consumer<T> dropHandler;
+
+    private final Object[] frames;
+    private final long[] pts;
+    private final long[] arrivals;
+    private int head;
+    private int size;
+    private long lastPolledArrival;
+
+    private final long[] transits = new long[JitterBuffer.TRANSIT_WINDOW];
+    private int transitCount;
+    private int transitIndex;
+    private long minTransit;
+    private long lastTransit;
+    private double jitter;
+    private long lastPts = Long.MIN_VALUE;
+
+    private long lateFrames;
+    private long overtakenFrames;
+    private long overflowFrames;
+
+    /**
+     * @param capacity           frames held at most, the oldest is dropped when it is exceeded
+     * @param clockRate          pts ticks per second
+     * @param frameIntervalNanos nominal distance of two frames, how late a frame may be and the unit of
+     *                           {@link #targetDepth()}
+     * @param dropHandler        receives every frame the buffer drops
+     */
+    public JitterBuffer(final int capacity, final long clockRate, final long frameIntervalNanos, final long minDelayNanos,
+                        final long maxDelayNanos, final LatePolicy latePolicy, final Consumer<T> dropHandler) {
+        this.frames = new Object[capacity];
+        this.pts = new long[capacity];
+        this.arrivals = new long[capacity];
+        this.clockRate = clockRate;
+        this.frameIntervalNanos = frameIntervalNanos;
+        this.minDelayNanos = minDelayNanos;
+        this.maxDelayNanos = Math.max(minDelayNanos, maxDelayNanos);
+        this.latePolicy = latePolicy;
+        this.dropHandler = dropHandler;
+    }
+
+    /**
+     * Adds a frame that arrived at {@code arrivalNanos}.
+     *
+     * @return {@code false} if the frame was dropped
+     */
+    public synchronized boolean offer(final T frame, final long pts, final long arrivalNanos) {
+        final long transit = arrivalNanos - this.mediaTime(pts);
+        this.updateJitter(pts, transit);
+
+        if (arrivalNanos > this.playoutTime(pts) + this.frameIntervalNanos / 2) {
+            this.lateFrames++;
+            if (this.latePolicy == LatePolicy.DROP) {
+                this.dropHandler.accept(frame);
+                return false;
+            }
+        }
+        if (this.size == this.frames.length) {
+            this.overflowFrames++;
+            this.dropHandler.accept(this.removeHead());
+        }
+        // insertion keeps pts order, arrival out of order is rare so this hardly ever shifts
+        int position = this.size;
+        while (position > 0 && this.pts[this.index(position - 1)] > pts) {
+            final int from = this.index(position - 1);
+            final int to = this.index(position);
+            this.frames[to] = this.frames[from];
+            this.pts[to] = this.pts[from];
+            this.arrivals[to] = this.arrivals[from];
+            position--;
+        }
+        final int index = this.index(position);
+        this.frames[index] = frame;
+        this.pts[index] = pts;
+        this.arrivals[index] = arrivalNanos;
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Returns the newest frame that is due at {@code nowNanos}. Older due frames were overtaken and are dropped,
+     * there is no point in showing two frames on the same refresh.
+     *
+     * @return the frame or {@code null} if none is due
+     */
+    public synchronized T poll(final long nowNanos) {
+        T due = null;
+        while (this.size > 0 && this.playoutTime(this.pts[this.head]) <= nowNanos) {
+            if (due != null) {
+                this.overtakenFrames++;
+                this.dropHandler.accept(due);
+            }
+            this.lastPolledArrival = this.arrivals[this.head];
+            due = this.removeHead();
+        }
+        return due;
+    }
+
+    /**
+     * Arrival time of the frame last returned by {@link #poll(long)}.
+     */
+    public synchronized long lastPolledArrival() {
+        return this.lastPolledArrival;
+    }
+
+    /**
+     * Drops all buffered frames and forgets the timing history, e.g. after a seek or a stream restart.
+     */
+    public synchronized void clear() {
+        while (this.size > 0) {
+            this.dropHandler.accept(this.removeHead());
+        }
+        this.transitCount = 0;
+        this.transitIndex = 0;
+        this.jitter = 0;
+        this.lastPts = Long.MIN_VALUE;
+    }
+
+    /**
+     * Delay added on top of the fastest observed transit.
+     */
+    public synchronized long targetDelayNanos() {
+        final long delay = (long) (JitterBuffer.JITTER_MULTIPLIER * this.jitter);
+        return Math.max(this.minDelayNanos, Math.min(this.maxDelayNanos, delay));
+    }
+
+    /**
+     * Target delay expressed in frames.
+     */
+    public synchronized int targetDepth() {
+        return (int) ((this.targetDelayNanos() + this.frameIntervalNanos - 1) / this.frameIntervalNanos);
+    }
+
+    public synchronized long jitterNanos() {
+        return (long) this.jitter;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    public synchronized long lateFrames() {
+        return this.lateFrames;
+    }
+
+    public synchronized long overtakenFrames() {
+        return this.overtakenFrames;
+    }
+
+    public synchronized long overflowFrames() {
+        return this.overflowFrames;
+    }
+
+    private long mediaTime(final long pts) {
+        // split so that a day of 90 kHz ticks times 10^9 does not overflow
+        final long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        return pts / this.clockRate * nanosPerSecond + pts % this.clockRate * nanosPerSecond / this.clockRate;
+    }
+
+    private long playoutTime(final long pts) {
+        return this.mediaTime(pts) + this.minTransit + this.targetDelayNanos();
+    }
+
+    private void updateJitter(final long pts, final long transit) {
+        if (this.lastPts != Long.MIN_VALUE && pts > this.lastPts) {
+            final long difference = Math.abs(transit - this.lastTransit);
+            this.jitter += (difference - this.jitter) / 16.0;
+        }
+        if (pts > this.lastPts) {
+            this.lastPts = pts;
+            this.lastTransit = transit;
+        }
+
+        final long evicted = this.transits[this.transitIndex];
+        this.transits[this.transitIndex] = transit;
+        this.transitIndex = (this.transitIndex + 1) % JitterBuffer.TRANSIT_WINDOW;
+        if (this.transitCount < JitterBuffer.TRANSIT_WINDOW) {
+            this.transitCount++;
+            this.minTransit = this.transitCount == 1 ? transit : Math.min(this.minTransit, transit);
+        } else if (transit <= this.minTransit) {
+            this.minTransit = transit;
+        } else if (evicted == this.minTransit) {
+            long min = Long.MAX_VALUE;
+            for (final long value : this.transits) {
+                min = Math.min(min, value);
+            }
+            this.minTransit = min;
+        }
+    }
+
+    private int index(final int position) {
+        return (this.head + position) % this.frames.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeHead() {
+        final T frame = (T) this.frames[this.head];
+        this.frames[this.head] = null;
+        this.head = (this.head + 1) % this.frames.length;
+        this.size--;
+        return frame;
+    }
+}
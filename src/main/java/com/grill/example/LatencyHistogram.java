@@ -0,0 +1,87 @@
+package com.grill.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond durations with log-linear buckets (32 sub-buckets per power of two, about
+ * 3% relative error). Recording never allocates and may happen from any number of threads.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << LatencyHistogram.SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - LatencyHistogram.SUB_BUCKET_BITS) * LatencyHistogram.SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(LatencyHistogram.bucketOf(value));
+        this.totalCount.incrementAndGet();
+        long max = this.maxValue.get();
+        while (value > max && !this.maxValue.compareAndSet(max, value)) {
+            max = this.maxValue.get();
+        }
+    }
+
+    public long count() {
+        return this.totalCount.get();
+    }
+
+    public long max() {
+        return this.maxValue.get();
+    }
+
+    /**
+     * Returns the smallest recorded value such that {@code quantile} of all values are less than or equal
+     * to it, within the bucket precision.
+     */
+    public long valueAtQuantile(final double quantile) {
+        final long total = this.totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValueOf(i), this.maxValue.get());
+            }
+        }
+        return this.maxValue.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.totalCount.set(0);
+        this.maxValue.set(0);
+    }
+
+    private static int bucketOf(final long value) {
+        if (value < LatencyHistogram.SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - LatencyHistogram.SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (LatencyHistogram.SUB_BUCKETS - 1);
+        return (shift + 1) * LatencyHistogram.SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(final int bucket) {
+        if (bucket < LatencyHistogram.SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / LatencyHistogram.SUB_BUCKETS - 1;
+        final long subBucket = bucket % LatencyHistogram.SUB_BUCKETS;
+        if (shift >= 63 - LatencyHistogram.SUB_BUCKET_BITS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return ((LatencyHistogram.SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,56 @@
+package com.grill.example;
+
+import org.tinylog.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Unmaps memory-mapped files as soon as their owner is done with them.
+ * <p>
+ * A {@link java.nio.MappedByteBuffer} is otherwise only unmapped once the garbage collector finds it unreachable,
+ * which for a handful of large buffers on a small heap may be never: the address space and the page cache of every
+ * window stay claimed. {@code sun.misc.Unsafe.invokeCleaner} from the {@code jdk.unsupported} module releases the
+ * mapping right away. Where it is not accessible the mapping is left to the garbage collector.
+ */
+final class MappedBuffers {
+
+    private static final MethodHandle INVOKE_CLEANER = MappedBuffers.findInvokeCleaner();
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Unmaps {@code buffer}, which has to be the buffer returned by {@code FileChannel.map}, not a slice of it.
+     * Neither the buffer nor any pointer into it may be accessed afterwards.
+     */
+    static void unmap(final ByteBuffer buffer) {
+        if (buffer == null || MappedBuffers.INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            MappedBuffers.INVOKE_CLEANER.invokeExact(buffer);
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException("Unable to unmap buffer", e);
+        }
+    }
+
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            Logger.warn("Mapped files are unmapped by the garbage collector, invokeCleaner is not accessible: {}", e.toString());
+            return null;
+        }
+    }
+}
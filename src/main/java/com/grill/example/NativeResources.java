@@ -0,0 +1,373 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVBufferPool;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.Alloc_long;
+import org.bytedeco.ffmpeg.avutil.Free_Pointer_BytePointer;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.Pointer;
+import org.tinylog.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_alloc;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_create;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_pool_init;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_ref;
+import static org.bytedeco.ffmpeg.global.avutil.av_buffer_unref;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_malloc;
+
+/**
+ * Tracked allocation and release of the native objects the application owns, with live object and byte counts
+ * per {@link Type}.
+ * <p>
+ * Only objects whose release is ours go through here: frames and packets of the pools, device references we
+ * unref ourselves, the buffers behind our buffer pools and buffers we allocate. References handed over to FFmpeg,
+ * e.g. the {@code hw_device_ctx} of a codec context, are not tracked because FFmpeg frees them. Bytes are the
+ * struct size for frames and packets, the payload of the referenced buffer for buffer references and pool buffers
+ * and the capacity for byte pointers.
+ * <p>
+ * With {@code -Dnative.trackAllocations=true} the allocation site of every live object is recorded so
+ * {@link #leaks()} can tell where a leaked object came from; that costs a stack trace per allocation and is meant
+ * for debugging. With {@code -Dnative.failOnLeak=true} a decode run fails if objects are still alive after all
+ * native resources were released, see {@link #assertNoLeaks()}.
+ */
+public final class NativeResources {
+
+    public enum Type {
+        FRAME,
+        PACKET,
+        BUFFER_REF,
+        BYTE_POINTER
+    }
+
+    public static final boolean TRACK_ALLOCATIONS = Boolean.getBoolean("native.trackAllocations");
+    public static final boolean FAIL_ON_LEAK = Boolean.getBoolean("native.failOnLeak");
+
+    // allocation sites listed in a leak report, the counts cover the rest
+    private static final int REPORTED_SITES = 20;
+
+    private static final AtomicLongArray liveObjects = new AtomicLongArray(Type.values().length);
+    private static final AtomicLongArray liveBytes = new AtomicLongArray(Type.values().length);
+    private static final AtomicLongArray allocations = new AtomicLongArray(Type.values().length);
+    private static final AtomicLong totalBytes = new AtomicLong();
+    private static final AtomicLong peakBytes = new AtomicLong();
+    private static final Map<Long, Allocation> sites = new ConcurrentHashMap<>();
+
+    private static volatile long frameSize = -1;
+    private static volatile long packetSize = -1;
+
+    private NativeResources() {
+    }
+
+    /**
+     * Live object of the debug registry.
+     */
+    private static final class Allocation {
+        private final Type type;
+        private final long bytes;
+        private final Throwable site;
+
+        private Allocation(final Type type, final long bytes, final Throwable site) {
+            this.type = type;
+            this.bytes = bytes;
+            this.site = site;
+        }
+    }
+
+    /**
+     * Allocation callbacks of the buffer pools, created on first use so only pool users load the FFmpeg natives.
+     */
+    private static final class PoolBuffers {
+
+        // payload size of the live buffers by address, FFmpeg only passes the data pointer when freeing one
+        private static final Map<Long, Long> sizes = new ConcurrentHashMap<>();
+
+        // called by FFmpeg on whichever thread returns the last reference, never deallocated
+        private static final Free_Pointer_BytePointer free = new Free_Pointer_BytePointer() {
+            @Override
+            public void call(final Pointer opaque, final BytePointer data) {
+                final Long size = PoolBuffers.sizes.remove(data.address());
+                NativeResources.freed(Type.BUFFER_REF, data, size != null ? size : 0);
+                av_free(data);
+            }
+        }.retainReference();
+
+        private static final Alloc_long alloc = new Alloc_long() {
+            @Override
+            public AVBufferRef call(final long size) {
+                final BytePointer data = new BytePointer(av_malloc(size));
+                if (data.isNull()) {
+                    return null;
+                }
+                final AVBufferRef buffer = av_buffer_create(data, size, PoolBuffers.free, null, 0);
+                if (buffer == null) {
+                    av_free(data);
+                    return null;
+                }
+                PoolBuffers.sizes.put(data.address(), size);
+                NativeResources.allocated(Type.BUFFER_REF, data, size);
+                return buffer;
+            }
+        }.retainReference();
+    }
+
+    /*************************/
+    /*** tracked lifetimes ***/
+    /*************************/
+
+    /**
+     * {@code av_frame_alloc}, release with {@link #freeFrame(AVFrame)}.
+     */
+    public static AVFrame allocFrame() {
+        final AVFrame frame = av_frame_alloc();
+        if (frame != null) {
+            if (NativeResources.frameSize < 0) {
+                NativeResources.frameSize = Loader.sizeof(AVFrame.class);
+            }
+            NativeResources.allocated(Type.FRAME, frame, NativeResources.frameSize);
+        }
+        return frame;
+    }
+
+    public static void freeFrame(final AVFrame frame) {
+        if (frame == null) {
+            return;
+        }
+        NativeResources.freed(Type.FRAME, frame, NativeResources.frameSize);
+        av_frame_free(frame);
+    }
+
+    /**
+     * {@code av_packet_alloc}, release with {@link #freePacket(AVPacket)}.
+     */
+    public static AVPacket allocPacket() {
+        final AVPacket packet = av_packet_alloc();
+        if (packet != null) {
+            if (NativeResources.packetSize < 0) {
+                NativeResources.packetSize = Loader.sizeof(AVPacket.class);
+            }
+            NativeResources.allocated(Type.PACKET, packet, NativeResources.packetSize);
+        }
+        return packet;
+    }
+
+    public static void freePacket(final AVPacket packet) {
+        if (packet == null) {
+            return;
+        }
+        NativeResources.freed(Type.PACKET, packet, NativeResources.packetSize);
+        av_packet_free(packet);
+    }
+
+    /**
+     * {@code av_buffer_ref}, release with {@link #unref(AVBufferRef)}.
+     */
+    public static AVBufferRef ref(final AVBufferRef buffer) {
+        final AVBufferRef reference = av_buffer_ref(buffer);
+        if (reference != null) {
+            NativeResources.allocated(Type.BUFFER_REF, reference, reference.size());
+        }
+        return reference;
+    }
+
+    public static void unref(final AVBufferRef reference) {
+        if (reference == null || reference.isNull()) {
+            return;
+        }
+        NativeResources.freed(Type.BUFFER_REF, reference, reference.size());
+        av_buffer_unref(reference);
+    }
+
+    /**
+     * {@code av_buffer_pool_init} with buffers counted as {@link Type#BUFFER_REF} from their allocation until the
+     * pool frees them, which is after {@code av_buffer_pool_uninit} once every buffer was returned.
+     */
+    public static AVBufferPool bufferPool(final long size) {
+        return av_buffer_pool_init(size, PoolBuffers.alloc);
+    }
+
+    /**
+     * Native buffer of {@code size} bytes, release with {@link #free(BytePointer)}.
+     */
+    public static BytePointer allocate(final long size) {
+        final BytePointer pointer = new BytePointer(size);
+        NativeResources.allocated(Type.BYTE_POINTER, pointer, pointer.capacity());
+        return pointer;
+    }
+
+    public static void free(final BytePointer pointer) {
+        if (pointer == null || pointer.isNull()) {
+            return;
+        }
+        NativeResources.freed(Type.BYTE_POINTER, pointer, pointer.capacity());
+        pointer.close();
+    }
+
+    /****************/
+    /*** counters ***/
+    /****************/
+
+    public static long liveObjects(final Type type) {
+        return NativeResources.liveObjects.get(type.ordinal());
+    }
+
+    public static long liveBytes(final Type type) {
+        return NativeResources.liveBytes.get(type.ordinal());
+    }
+
+    /**
+     * Objects of the type allocated since start, freed ones included.
+     */
+    public static long allocations(final Type type) {
+        return NativeResources.allocations.get(type.ordinal());
+    }
+
+    /**
+     * Highest number of live bytes over all types since start.
+     */
+    public static long peakBytes() {
+        return NativeResources.peakBytes.get();
+    }
+
+    public static Usage usage() {
+        final long[] objects = new long[Type.values().length];
+        final long[] bytes = new long[Type.values().length];
+        for (final Type type : Type.values()) {
+            objects[type.ordinal()] = NativeResources.liveObjects(type);
+            bytes[type.ordinal()] = NativeResources.liveBytes(type);
+        }
+        return new Usage(objects, bytes, NativeResources.peakBytes());
+    }
+
+    /*********************/
+    /*** leak checking ***/
+    /*********************/
+
+    /**
+     * Describes every object that is still alive, with its allocation site if allocations are tracked.
+     *
+     * @return one entry per type with live objects and up to {@value #REPORTED_SITES} allocation sites
+     */
+    public static List<String> leaks() {
+        final List<String> leaks = new ArrayList<>();
+        for (final Type type : Type.values()) {
+            final long objects = NativeResources.liveObjects(type);
+            if (objects != 0) {
+                leaks.add(objects + " " + type + " (" + NativeResources.liveBytes(type) + " bytes) not released");
+            }
+        }
+        int reported = 0;
+        for (final Map.Entry<Long, Allocation> entry : NativeResources.sites.entrySet()) {
+            if (reported++ == NativeResources.REPORTED_SITES) {
+                break;
+            }
+            final Allocation allocation = entry.getValue();
+            final StringBuilder site = new StringBuilder().append(allocation.type).append(" 0x")
+                    .append(Long.toHexString(entry.getKey())).append(" (").append(allocation.bytes).append(" bytes) allocated");
+            for (final StackTraceElement element : allocation.site.getStackTrace()) {
+                site.append("\n\tat ").append(element);
+            }
+            leaks.add(site.toString());
+        }
+        return leaks;
+    }
+
+    /**
+     * Fails if any tracked object is still alive, to be called after everything was released.
+     *
+     * @throws IllegalStateException listing the leaks
+     */
+    public static void assertNoLeaks() {
+        final List<String> leaks = NativeResources.leaks();
+        if (!leaks.isEmpty()) {
+            throw new IllegalStateException("Native resources leaked:\n" + String.join("\n", leaks));
+        }
+    }
+
+    /**
+     * Logs the leaks and, in {@link #FAIL_ON_LEAK} mode, fails with {@link #assertNoLeaks()}.
+     */
+    public static void checkLeaks() {
+        final List<String> leaks = NativeResources.leaks();
+        if (leaks.isEmpty()) {
+            Logger.info("All tracked native resources released, peak {} bytes", NativeResources.peakBytes());
+            return;
+        }
+        for (final String leak : leaks) {
+            Logger.warn("Leak: {}", leak);
+        }
+        if (NativeResources.FAIL_ON_LEAK) {
+            NativeResources.assertNoLeaks();
+        }
+    }
+
+    private static void allocated(final Type type, final Pointer pointer, final long bytes) {
+        NativeResources.liveObjects.incrementAndGet(type.ordinal());
+        NativeResources.liveBytes.addAndGet(type.ordinal(), bytes);
+        NativeResources.allocations.incrementAndGet(type.ordinal());
+        final long total = NativeResources.totalBytes.addAndGet(bytes);
+        NativeResources.peakBytes.accumulateAndGet(total, Math::max);
+        if (NativeResources.TRACK_ALLOCATIONS) {
+            NativeResources.sites.put(pointer.address(), new Allocation(type, bytes, new Throwable()));
+        }
+    }
+
+    private static void freed(final Type type, final Pointer pointer, final long bytes) {
+        NativeResources.liveObjects.decrementAndGet(type.ordinal());
+        NativeResources.liveBytes.addAndGet(type.ordinal(), -bytes);
+        NativeResources.totalBytes.addAndGet(-bytes);
+        if (NativeResources.TRACK_ALLOCATIONS && NativeResources.sites.remove(pointer.address()) == null) {
+            Logger.warn("{} 0x{} released but not allocated through NativeResources", type, Long.toHexString(pointer.address()));
+        }
+    }
+
+    /**
+     * Live objects and bytes per type at one point in time.
+     */
+    public static final class Usage {
+        private final long[] objects;
+        private final long[] bytes;
+        private final long peakBytes;
+
+        private Usage(final long[] objects, final long[] bytes, final long peakBytes) {
+            this.objects = objects;
+            this.bytes = bytes;
+            this.peakBytes = peakBytes;
+        }
+
+        public long objects(final Type type) {
+            return this.objects[type.ordinal()];
+        }
+
+        public long bytes(final Type type) {
+            return this.bytes[type.ordinal()];
+        }
+
+        public long peakBytes() {
+            return this.peakBytes;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("native[");
+            for (final Type type : Type.values()) {
+                builder.append(type.name().toLowerCase()).append('=').append(this.objects[type.ordinal()])
+                        .append('/').append(this.bytes[type.ordinal()] >> 10).append("k ");
+            }
+            return builder.append("peak=").append(this.peakBytes >> 10).append("k]").toString();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+
+/**
+ * Off-heap circular store of encoded access units with an index of their key frames, for replaying the last
+ * seconds of a live stream or seeking in it without keeping decoded frames around.
+ * <p>
+ * Access units are stored back to back in a fixed native buffer, or in a memory-mapped file. When the budget
+ * is used up the oldest GOP is evicted as a whole, so every retained access unit can be decoded by starting at
+ * a retained key frame. Every access unit gets a sequence number; readers find a start with
+ * {@link #keyFrameAtOrBefore(long)} or {@link #replayStart(long)} and then {@link #read(long, AVPacketPool)}
+ * sequence after sequence.
+ * <p>
+ * There is exactly one writer, usually the decoder thread. Readers never block it: the writer advances the
+ * first retained sequence before it overwrites evicted bytes, and a reader validates after copying that the
+ * sequence it copied is still retained, like a seqlock. A reader that fell behind the eviction gets
+ * {@code null} and {@code sequence < firstSequence()}, and seeks again.
+ */
+public final class PacketRingStore implements AutoCloseable {
+
+    private final BytePointer storage;
+    // the file mapping behind the storage, unmapped on close
+    private final ByteBuffer mapping;
+    private final FileChannel channel;
+    private final long capacity;
+    private final int mask;
+
+    // entry metadata, slot is the sequence & mask; published to readers by the volatile nextSequence
+    private final long[] positions;
+    private final int[] sizes;
+    private final long[] pts;
+    private final long[] arrivals;
+    private final boolean[] keyFrames;
+
+    // sequences of the retained key frames in [firstKey, nextKey)
+    private final AtomicLongArray keys;
+    private volatile long firstKey;
+    private volatile long nextKey;
+
+    private volatile long firstSequence;
+    private volatile long nextSequence;
+    // logical byte position, the physical offset is position % capacity
+    private long writePosition;
+
+    private volatile long evictedGops;
+    private volatile long rejectedAccessUnits;
+
+    private PacketRingStore(final BytePointer storage, final ByteBuffer mapping, final FileChannel channel, final long capacity,
+                            final int maxEntries) {
+        final int entries = Integer.highestOneBit(maxEntries) == maxEntries ? maxEntries : Integer.highestOneBit(maxEntries) << 1;
+        this.storage = storage;
+        this.mapping = mapping;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.mask = entries - 1;
+        this.positions = new long[entries];
+        this.sizes = new int[entries];
+        this.pts = new long[entries];
+        this.arrivals = new long[entries];
+        this.keyFrames = new boolean[entries];
+        this.keys = new AtomicLongArray(entries);
+    }
+
+    /**
+     * Store in native memory.
+     *
+     * @param budgetBytes encoded bytes retained at most
+     * @param maxEntries  access units retained at most, rounded up to a power of two
+     */
+    public static PacketRingStore inMemory(final long budgetBytes, final int maxEntries) {
+        return new PacketRingStore(NativeResources.allocate(budgetBytes), null, null, budgetBytes, maxEntries);
+    }
+
+    /**
+     * Store in a memory-mapped file that is created or truncated to {@code budgetBytes}. The page cache spills it
+     * to disk, so the budget can be larger than what should stay resident.
+     */
+    public static PacketRingStore mapped(final Path file, final long budgetBytes, final int maxEntries) throws IOException {
+        if (budgetBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mapped budget is limited to 2 GiB: " + budgetBytes);
+        }
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            final ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, budgetBytes);
+            return new PacketRingStore(new BytePointer(mapping), mapping, channel, budgetBytes, maxEntries);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*******************/
+    /*** writer side ***/
+    /*******************/
+
+    /**
+     * Appends the payload of a packet, see {@link #append(Pointer, int, long, boolean, long)}.
+     */
+    public boolean append(final AVPacket packet, final long arrivalNanos) {
+        return this.append(packet.data(), packet.size(), packet.pts(), (packet.flags() & AV_PKT_FLAG_KEY) != 0, arrivalNanos);
+    }
+
+    /**
+     * Appends an access unit, evicting the oldest GOPs until it fits. Writer thread only.
+     *
+     * @return {@code false} if the access unit was not stored because it is larger than the budget or no key
+     * frame it depends on is retained
+     */
+    public boolean append(final Pointer data, final int size, final long pts, final boolean keyFrame, final long arrivalNanos) {
+        if (size <= 0 || size > this.capacity || (!keyFrame && this.nextKey == this.firstKey)) {
+            this.rejectedAccessUnits++;
+            return false;
+        }
+        long physical = this.writePosition % this.capacity;
+        if (physical + size > this.capacity) {
+            // keep every access unit contiguous, the tail of the buffer stays unused this round
+            this.writePosition += this.capacity - physical;
+            physical = 0;
+        }
+        final long sequence = this.nextSequence;
+        while (this.firstSequence < sequence && (this.writePosition + size - this.positions[this.slot(this.firstSequence)] > this.capacity ||
+                sequence - this.firstSequence > this.mask)) {
+            this.evictOldestGop();
+        }
+        if (!keyFrame && this.nextKey == this.firstKey) {
+            // the GOP being written was larger than the budget and evicted itself
+            this.rejectedAccessUnits++;
+            return false;
+        }
+
+        Pointer.memcpy(this.storage.position(physical), data, size);
+        final int slot = this.slot(sequence);
+        this.positions[slot] = this.writePosition;
+        this.sizes[slot] = size;
+        this.pts[slot] = pts;
+        this.arrivals[slot] = arrivalNanos;
+        this.keyFrames[slot] = keyFrame;
+        this.writePosition += size;
+        if (keyFrame) {
+            this.keys.set((int) (this.nextKey & this.mask), sequence);
+            this.nextKey++;
+        }
+        // publishes the entry to readers
+        this.nextSequence = sequence + 1;
+        return true;
+    }
+
+    private void evictOldestGop() {
+        final long first = this.firstSequence;
+        long end = this.nextSequence;
+        long key = this.firstKey;
+        // the key frame starting the oldest GOP goes with it, the GOP ends at the next key frame
+        if (key < this.nextKey && this.keys.get((int) (key & this.mask)) == first) {
+            key++;
+        }
+        if (key < this.nextKey) {
+            end = this.keys.get((int) (key & this.mask));
+        }
+        this.firstKey = key;
+        this.firstSequence = end;
+        // readers have to see the eviction before any of the evicted bytes change
+        VarHandle.storeStoreFence();
+        this.evictedGops++;
+    }
+
+    /*******************/
+    /*** reader side ***/
+    /*******************/
+
+    /**
+     * Sequence of the newest retained key frame with a pts at or before {@code pts}, or of the oldest retained key
+     * frame if all are later.
+     *
+     * @return the sequence or -1 if the store holds no key frame
+     */
+    public long keyFrameAtOrBefore(final long pts) {
+        long best = -1;
+        // few GOPs are retained, walk back from the newest
+        for (long key = this.nextKey - 1; key >= this.firstKey; key--) {
+            final long sequence = this.keys.get((int) (key & this.mask));
+            best = sequence;
+            if (this.pts[this.slot(sequence)] <= pts) {
+                break;
+            }
+        }
+        return this.validate(best) ? best : -1;
+    }
+
+    /**
+     * Sequence of the key frame to start from to replay the last {@code durationNanos} before the newest
+     * access unit, by arrival time.
+     *
+     * @return the sequence or -1 if the store holds no key frame
+     */
+    public long replayStart(final long durationNanos) {
+        final long newest = this.nextSequence - 1;
+        if (newest < this.firstSequence) {
+            return -1;
+        }
+        final long from = this.arrivals[this.slot(newest)] - durationNanos;
+        long best = -1;
+        for (long key = this.nextKey - 1; key >= this.firstKey; key--) {
+            final long sequence = this.keys.get((int) (key & this.mask));
+            best = sequence;
+            if (this.arrivals[this.slot(sequence)] <= from) {
+                break;
+            }
+        }
+        return this.validate(best) ? best : -1;
+    }
+
+    /**
+     * Copies an access unit into a packet of {@code pool}, with pts and key frame flag as appended.
+     *
+     * @return the packet or {@code null} if the sequence is not written yet, was evicted or the pool is exhausted
+     */
+    public AVPacket read(final long sequence, final AVPacketPool pool) {
+        if (sequence < this.firstSequence || sequence >= this.nextSequence) {
+            return null;
+        }
+        final int slot = this.slot(sequence);
+        final long position = this.positions[slot];
+        final int size = this.sizes[slot];
+        final long entryPts = this.pts[slot];
+        final boolean keyFrame = this.keyFrames[slot];
+        if (!this.validate(sequence)) {
+            return null;
+        }
+        final AVPacket packet = pool.acquire(new BytePointer(this.storage).position(position % this.capacity), size, keyFrame);
+        if (packet == null) {
+            return null;
+        }
+        if (!this.validate(sequence)) {
+            // overwritten while copying
+            pool.release(packet);
+            return null;
+        }
+        packet.pts(entryPts);
+        packet.dts(entryPts);
+        return packet;
+    }
+
+    /**
+     * Oldest retained sequence, readers behind it have to seek again.
+     */
+    public long firstSequence() {
+        return this.firstSequence;
+    }
+
+    /**
+     * Sequence the next appended access unit will get.
+     */
+    public long nextSequence() {
+        return this.nextSequence;
+    }
+
+    public long retainedGops() {
+        return this.nextKey - this.firstKey;
+    }
+
+    public long evictedGops() {
+        return this.evictedGops;
+    }
+
+    public long rejectedAccessUnits() {
+        return this.rejectedAccessUnits;
+    }
+
+    public long capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Frees the storage, no reader may be active anymore.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.storage.close();
+            MappedBuffers.unmap(this.mapping);
+            this.channel.close();
+        } else {
+            NativeResources.free(this.storage);
+        }
+    }
+
+    private boolean validate(final long sequence) {
+        // the reads of the entry must not move behind the check
+        VarHandle.loadLoadFence();
+        return sequence >= this.firstSequence;
+    }
+
+    private int slot(final long sequence) {
+        return (int) (sequence & this.mask);
+    }
+}
@@ -0,0 +1,311 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EAGAIN;
+
+/**
+ * Offline decoder for Annex-B files that decodes independent segments of the file on separate decoder contexts
+ * in parallel, for batch transcoding and analysis where one context is the bottleneck.
+ * <p>
+ * The file is first indexed at its IDR access units. Nothing after an IDR references pictures before it, so
+ * every run of access units starting at an IDR is a closed GOP that decodes to the same pictures on a fresh
+ * context. Adjacent GOPs are merged into segments of at least {@code minSegmentAccessUnits} access units, so
+ * all-intra or short-GOP streams do not pay a context flush per picture.
+ * <p>
+ * Segments are decoded by a fixed set of workers, each with its own pre-opened context, and handed out in file
+ * order. Every segment has a small bounded frame queue; the caller's thread drains the queues strictly in
+ * segment order, which restores display order. A worker blocks when its queue is full, and segments are
+ * longer than the queue, so a worker can not finish a segment and take the next one before the caller reached
+ * it: at most one segment per worker is in flight and memory is bounded by {@code workers * (queueSize + 1)}
+ * frames no matter how far ahead the other workers are. Segments are started in file order, so the segment at
+ * the head is always being decoded and this cannot dead lock. Only access units that decode to no frame at all
+ * can let a worker finish early; when that exhausts the frame pool the decode fails instead of hanging.
+ * <p>
+ * If the output or a worker fails, the remaining segments are cancelled and every queued frame is released
+ * before {@link #decode(Path, Consumer)} returns.
+ * <p>
+ * Contexts are opened with the settings' extradata, the SPS/PPS only have to be in front of the first segment.
+ */
+public final class ParallelGopDecoder implements AutoCloseable {
+
+    // frames a segment can be ahead of the consumer
+    private static final int SEGMENT_QUEUE_SIZE = 8;
+
+    private final ArrayBlockingQueue<VideoDecoder> idleDecoders;
+    private final ExecutorService workers;
+    private final AVFramePool framePool;
+    private final AVPacketPool packetPool;
+    private final int workerThreads;
+    private final int minSegmentAccessUnits;
+
+    private final AtomicInteger workerIndex = new AtomicInteger();
+
+    /**
+     * A run of access units starting at an IDR.
+     */
+    public static final class Segment {
+        private final long offset;
+        private final long firstAccessUnit;
+        private int accessUnits;
+
+        Segment(final long offset, final long firstAccessUnit) {
+            this.offset = offset;
+            this.firstAccessUnit = firstAccessUnit;
+        }
+
+        public long offset() {
+            return this.offset;
+        }
+
+        public long firstAccessUnit() {
+            return this.firstAccessUnit;
+        }
+
+        public int accessUnits() {
+            return this.accessUnits;
+        }
+    }
+
+    /**
+     * @param settings              settings every context is opened with, hardware decoding is switched off
+     * @param workerThreads         contexts decoding at the same time, 0 uses one per core
+     * @param minSegmentAccessUnits GOPs are merged until a segment has at least this many access units, raised to
+     *                              one more than the frame queue of a segment holds
+     */
+    public ParallelGopDecoder(final DecoderSettings settings, final int workerThreads, final int minSegmentAccessUnits) {
+        this.workerThreads = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+        // a shorter segment fits into its queue and its worker moves on, the memory bound needs workers to block
+        this.minSegmentAccessUnits = Math.max(ParallelGopDecoder.SEGMENT_QUEUE_SIZE + 1, minSegmentAccessUnits);
+        final DecoderSettings contextSettings = new DecoderSettings(settings).hwAccel(false);
+        this.idleDecoders = new ArrayBlockingQueue<>(this.workerThreads);
+        for (int i = 0; i < this.workerThreads; i++) {
+            final VideoDecoder decoder = VideoDecoder.open(contextSettings);
+            if (decoder == null) {
+                this.close();
+                throw new IllegalStateException("Unable to open decoder with " + contextSettings);
+            }
+            this.idleDecoders.offer(decoder);
+        }
+        // every worker fills its queue and receives one more, the consumer holds one
+        this.framePool = new AVFramePool(this.workerThreads * (ParallelGopDecoder.SEGMENT_QUEUE_SIZE + 1) + 1);
+        this.packetPool = new AVPacketPool(this.workerThreads,
+                AVPacketPool.bufferSizeFor(contextSettings.width(), contextSettings.height()));
+        this.workers = Executors.newFixedThreadPool(this.workerThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "gop-decoder-" + this.workerIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Splits the file into segments of closed GOPs. Access units in front of the first IDR are part of the first
+     * segment, a sequential decoder can not decode them either.
+     */
+    public static List<Segment> index(final Path file, final int minSegmentAccessUnits) throws IOException {
+        final List<Segment> segments = new ArrayList<>();
+        Segment segment = null;
+        long accessUnit = 0;
+        try (final AnnexBReader reader = new AnnexBReader(file)) {
+            while (reader.nextAccessUnit()) {
+                if (segment == null || (reader.isKeyFrame() && segment.accessUnits >= minSegmentAccessUnits)) {
+                    segment = new Segment(reader.offset(), accessUnit);
+                    segments.add(segment);
+                }
+                segment.accessUnits++;
+                accessUnit++;
+            }
+        }
+        return segments;
+    }
+
+    public int workerThreads() {
+        return this.workerThreads;
+    }
+
+    /**
+     * Decodes the whole file and hands every frame to {@code output} in display order on the calling thread.
+     * Frame pts are the access unit index in the file, like the sequential pipeline sets them.
+     *
+     * @param output receives the frames, the frame is only valid during the call
+     * @return the number of decoded frames
+     */
+    public long decode(final Path file, final Consumer<AVFrame> output) throws IOException {
+        final List<Segment> segments = ParallelGopDecoder.index(file, this.minSegmentAccessUnits);
+        final List<SpscRingBuffer<AVFrame>> queues = new ArrayList<>(segments.size());
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(segments.size());
+        for (final Segment segment : segments) {
+            final SpscRingBuffer<AVFrame> queue = new SpscRingBuffer<>(ParallelGopDecoder.SEGMENT_QUEUE_SIZE, BackpressurePolicy.BLOCK, null);
+            queues.add(queue);
+            this.workers.execute(() -> {
+                try {
+                    if (!cancelled.get() && failure.get() == null) {
+                        this.decodeSegment(file, segment, queue);
+                    }
+                } catch (final Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    queue.close();
+                    finished.countDown();
+                }
+            });
+        }
+
+        long frames = 0;
+        try {
+            for (final SpscRingBuffer<AVFrame> queue : queues) {
+                AVFrame frame;
+                while ((frame = queue.take()) != null) {
+                    try {
+                        if (failure.get() == null) {
+                            output.accept(frame);
+                            frames++;
+                        }
+                    } finally {
+                        this.framePool.release(frame);
+                    }
+                }
+                if (failure.get() != null) {
+                    throw new IOException("Decoding " + file + " failed", failure.get());
+                }
+            }
+            return frames;
+        } finally {
+            // all queues are drained after a complete decode, otherwise the output or a worker failed
+            cancelled.set(true);
+            this.cancel(queues, finished);
+        }
+    }
+
+    /**
+     * Stops the workers of a decode and releases the frames they queued. Closed queues refuse frames, so blocked
+     * workers return, and segments not started yet are skipped.
+     */
+    private void cancel(final List<SpscRingBuffer<AVFrame>> queues, final CountDownLatch finished) {
+        for (final SpscRingBuffer<AVFrame> queue : queues) {
+            queue.close();
+        }
+        // frees frames for workers waiting on the pool, the caller's thread is still the only consumer
+        this.releaseQueued(queues);
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                finished.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        this.releaseQueued(queues);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void releaseQueued(final List<SpscRingBuffer<AVFrame>> queues) {
+        for (final SpscRingBuffer<AVFrame> queue : queues) {
+            AVFrame frame;
+            while ((frame = queue.poll()) != null) {
+                this.framePool.release(frame);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.workers != null) {
+            this.workers.shutdown();
+            try {
+                this.workers.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        VideoDecoder decoder;
+        while ((decoder = this.idleDecoders.poll()) != null) {
+            decoder.close();
+        }
+        if (this.framePool != null) {
+            this.framePool.close();
+        }
+        if (this.packetPool != null) {
+            this.packetPool.close();
+        }
+    }
+
+    private void decodeSegment(final Path file, final Segment segment, final SpscRingBuffer<AVFrame> queue)
+            throws IOException, InterruptedException {
+        // there are as many contexts as workers, one is always idle here
+        final VideoDecoder decoder = this.idleDecoders.take();
+        try (final AnnexBReader reader = new AnnexBReader(file)) {
+            final AVCodecContext context = decoder.context();
+            reader.seek(segment.offset);
+            for (int i = 0; i < segment.accessUnits && !queue.isClosed() && reader.nextAccessUnit(); i++) {
+                final AVPacket packet = this.packetPool.acquire(reader.data(), reader.size(), reader.isKeyFrame());
+                if (packet == null) {
+                    throw new IOException("Unable to allocate packet for access unit at " + reader.offset());
+                }
+                packet.pts(segment.firstAccessUnit + i);
+                packet.dts(segment.firstAccessUnit + i);
+                int result;
+                while ((result = avcodec_send_packet(context, packet)) == AVERROR_EAGAIN()) {
+                    if (!this.receiveFrames(context, queue)) {
+                        break;
+                    }
+                }
+                this.packetPool.release(packet);
+                if (result < 0 && !queue.isClosed()) {
+                    Logger.warn("Error {} sending access unit {}", result, segment.firstAccessUnit + i);
+                }
+                this.receiveFrames(context, queue);
+            }
+            // drain the reordered tail of the segment
+            avcodec_send_packet(context, null);
+            this.receiveFrames(context, queue);
+        } finally {
+            decoder.flush();
+            this.idleDecoders.offer(decoder);
+        }
+    }
+
+    /**
+     * @return {@code false} if the queue was closed because the decode was cancelled
+     */
+    private boolean receiveFrames(final AVCodecContext context, final SpscRingBuffer<AVFrame> queue) throws InterruptedException {
+        for (; ; ) {
+            final AVFrame frame = this.framePool.acquire(1, TimeUnit.SECONDS);
+            if (frame == null) {
+                throw new IllegalStateException("Frame pool exhausted");
+            }
+            if (avcodec_receive_frame(context, frame) < 0) {
+                this.framePool.release(frame);
+                return true;
+            }
+            if (!queue.put(frame)) {
+                this.framePool.release(frame);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.grill.example;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shows decoded frames in an {@link ImageView} without copying them onto the Java heap.
+ * <p>
+ * Frames are converted straight into native BGRA surfaces that back a {@link PixelBuffer} through a direct
+ * {@link ByteBuffer}. Several surfaces rotate (one displayed, one pending, one being written), so the decoder
+ * side never waits for the UI. Only the newest pending surface is shown on the next pulse, a slow UI therefore
+ * drops frames instead of queueing them. Works with every Prism pipeline including {@code prism.order=sw}.
+ */
+public final class PixelBufferDisplay implements AutoCloseable {
+
+    private static final int FREE = 0;
+    private static final int WRITING = 1;
+    private static final int PENDING = 2;
+    private static final int DISPLAYED = 3;
+    private static final int CLOSED = 4;
+
+    private final ImageView imageView = new ImageView();
+    private final FrameConverter converter;
+    private final int surfaceCount;
+    private final DecoderMetrics metrics;
+
+    private final AtomicReference<Surface> pendingSurface = new AtomicReference<>();
+    private volatile Surface[] surfaces = new Surface[0];
+    private Surface displayedSurface; // only accessed on the JavaFX application thread
+
+    private final AnimationTimer pulseListener = new AnimationTimer() {
+        @Override
+        public void handle(final long now) {
+            PixelBufferDisplay.this.present();
+        }
+    };
+
+    private volatile long submittedFrames = 0;
+    private volatile long presentedFrames = 0;
+    private volatile long droppedFrames = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param surfaceCount 2 for double or 3 for triple buffering
+     */
+    public PixelBufferDisplay(final FrameConverter converter, final int surfaceCount, final DecoderMetrics metrics) {
+        if (surfaceCount < 2) {
+            throw new IllegalArgumentException("At least two surfaces are required: " + surfaceCount);
+        }
+        this.converter = converter;
+        this.surfaceCount = surfaceCount;
+        this.metrics = metrics;
+        this.imageView.setPreserveRatio(true);
+        this.imageView.setSmooth(true);
+    }
+
+    public ImageView imageView() {
+        return this.imageView;
+    }
+
+    /**
+     * Starts presenting on every pulse, has to be called on the JavaFX application thread.
+     */
+    public void start() {
+        this.pulseListener.start();
+    }
+
+    /**
+     * Converts the frame into a free surface and marks it for presentation on the next pulse. Must always be
+     * called from the same thread, usually the pipeline output stage.
+     *
+     * @return {@code false} if the frame was dropped
+     */
+    public boolean submit(final AVFrame frame) {
+        if (this.closed) {
+            return false;
+        }
+        this.submittedFrames++;
+        final Surface surface = this.acquireSurface(frame.width(), frame.height());
+        if (surface == null) {
+            this.countDroppedFrame();
+            return false;
+        }
+        final long conversionStart = System.nanoTime();
+        if (!this.converter.convert(frame, surface.memory, surface.stride)) {
+            this.recycle(surface);
+            this.countDroppedFrame();
+            return false;
+        }
+        surface.pts = frame.pts();
+        surface.submitTime = System.nanoTime();
+        this.metrics.record(DecoderMetrics.Stage.CONVERSION, surface.submitTime - conversionStart);
+        surface.state.set(PixelBufferDisplay.PENDING);
+        final Surface replaced = this.pendingSurface.getAndSet(surface);
+        if (replaced != null && replaced.state.compareAndSet(PixelBufferDisplay.PENDING, PixelBufferDisplay.WRITING)) {
+            // the UI did not pick up the previous frame in time
+            this.recycle(replaced);
+            this.countDroppedFrame();
+        }
+        return true;
+    }
+
+    public long submittedFrames() {
+        return this.submittedFrames;
+    }
+
+    public long presentedFrames() {
+        return this.presentedFrames;
+    }
+
+    public long droppedFrames() {
+        return this.droppedFrames;
+    }
+
+    /**
+     * Stops presenting and frees all surfaces, has to be called on the JavaFX application thread after the
+     * producer stopped submitting frames.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.pulseListener.stop();
+        this.imageView.setImage(null);
+        this.pendingSurface.set(null);
+        this.displayedSurface = null;
+        for (final Surface surface : this.surfaces) {
+            surface.close();
+        }
+        this.surfaces = new Surface[0];
+        this.converter.close();
+    }
+
+    /*********************/
+    /*** producer side ***/
+    /*********************/
+
+    private void countDroppedFrame() {
+        this.droppedFrames++;
+        this.metrics.countDroppedFrame();
+    }
+
+    private Surface acquireSurface(final int width, final int height) {
+        Surface[] current = this.surfaces;
+        if (current.length == 0 || current[0].width != width || current[0].height != height) {
+            current = this.reallocate(width, height);
+        }
+        for (final Surface surface : current) {
+            if (surface.state.compareAndSet(PixelBufferDisplay.FREE, PixelBufferDisplay.WRITING)) {
+                return surface;
+            }
+        }
+        return null;
+    }
+
+    private Surface[] reallocate(final int width, final int height) {
+        final Surface[] retired = this.surfaces;
+        final Surface[] current = new Surface[this.surfaceCount];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = new Surface(width, height);
+        }
+        this.surfaces = current;
+        for (final Surface surface : retired) {
+            surface.retired = true;
+            // pending and displayed surfaces are closed once the UI let go of them
+            if (surface.state.compareAndSet(PixelBufferDisplay.FREE, PixelBufferDisplay.CLOSED)) {
+                NativeResources.free(surface.memory);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Hands a surface back after the producer or the UI let go of it. {@link #reallocate(int, int)} retires surfaces
+     * from the producer thread and only closes those that are free, so the retired flag is read again after the
+     * surface became free: either this side sees the flag or the producer sees the free state, and the transition
+     * to closed happens exactly once.
+     */
+    private void recycle(final Surface surface) {
+        for (; ; ) {
+            final int state = surface.state.get();
+            if (state == PixelBufferDisplay.CLOSED) {
+                return;
+            }
+            if (surface.retired) {
+                surface.close();
+                return;
+            }
+            if (surface.state.compareAndSet(state, PixelBufferDisplay.FREE)) {
+                if (surface.retired && surface.state.compareAndSet(PixelBufferDisplay.FREE, PixelBufferDisplay.CLOSED)) {
+                    NativeResources.free(surface.memory);
+                }
+                return;
+            }
+        }
+    }
+
+    /***************/
+    /*** UI side ***/
+    /***************/
+
+    private void present() {
+        final Surface next = this.pendingSurface.getAndSet(null);
+        if (next == null || !next.state.compareAndSet(PixelBufferDisplay.PENDING, PixelBufferDisplay.DISPLAYED)) {
+            return;
+        }
+        // the whole buffer changed, Prism uploads it during this pulse
+        next.pixelBuffer.updateBuffer(buffer -> null);
+        if (this.imageView.getImage() != next.image) {
+            this.imageView.setImage(next.image);
+        }
+        final Surface previous = this.displayedSurface;
+        this.displayedSurface = next;
+        if (previous != null && previous != next) {
+            this.recycle(previous);
+        }
+        this.presentedFrames++;
+        final long presented = System.nanoTime();
+        this.metrics.countDisplayedFrame();
+        this.metrics.record(DecoderMetrics.Stage.DISPLAY, presented - next.submitTime);
+        this.metrics.recordSinceIngest(DecoderMetrics.Stage.GLASS_LATENCY, next.pts, presented);
+    }
+
+    private static final class Surface {
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final BytePointer memory;
+        private final PixelBuffer<ByteBuffer> pixelBuffer;
+        private final WritableImage image;
+        private final AtomicInteger state = new AtomicInteger(PixelBufferDisplay.FREE);
+
+        private volatile boolean retired = false;
+        // written by the producer before the surface is published as pending
+        private long pts;
+        private long submitTime;
+
+        private Surface(final int width, final int height) {
+            this.width = width;
+            this.height = height;
+            this.stride = width * 4; // PixelBuffer expects tightly packed rows
+            this.memory = NativeResources.allocate((long) this.stride * height);
+            this.pixelBuffer = new PixelBuffer<>(width, height, this.memory.asByteBuffer(), PixelFormat.getByteBgraPreInstance());
+            this.image = new WritableImage(this.pixelBuffer);
+        }
+
+        private void close() {
+            if (this.state.getAndSet(PixelBufferDisplay.CLOSED) != PixelBufferDisplay.CLOSED) {
+                NativeResources.free(this.memory);
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_CORRUPT;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avutil.AV_NOPTS_VALUE;
+
+/**
+ * Receives RTP/H.264 (RFC 6184) on a non-blocking {@link DatagramChannel} and assembles access units.
+ * <p>
+ * Datagrams are received into direct buffers, put back into sequence number order within a small reorder window
+ * and depacketised (single NAL unit, STAP-A and FU-A). NAL units are written with start codes straight into the
+ * pooled payload of the {@link AVPacket} that is later sent to the decoder, the only copy is from the receive
+ * buffer into that payload. Access units outgrowing the pooled payload move once into a larger unpooled one. An
+ * access unit ends with the marker bit or a new RTP timestamp.
+ * <p>
+ * The pts of an access unit is its RTP timestamp, unwrapped to 64 bits, in the {@link #CLOCK_RATE} media clock.
+ * <p>
+ * A lost packet marks the access unit it belongs to with {@code AV_PKT_FLAG_CORRUPT}, the decoder stage hands
+ * such packets to {@link StreamRecovery} which requests a key frame and skips until it arrives.
+ */
+public final class RtpIngest implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 5004;
+    // RTP timestamp ticks per second of H.264 video, RFC 6184 5.1
+    public static final long CLOCK_RATE = 90_000;
+
+    private static final int MAX_DATAGRAM_SIZE = 2048;
+    // datagrams held back waiting for a missing sequence number, a gap is declared lost after this many
+    private static final int REORDER_WINDOW = 32;
+    private static final int SOCKET_RECEIVE_BUFFER = 4 << 20;
+    private static final long SELECT_TIMEOUT_MILLIS = 10;
+    // larger access units are dropped as corrupt, the pooled payload grows on demand up to this size
+    private static final int MAX_ACCESS_UNIT_SIZE = 64 << 20;
+
+    private static final int NAL_STAP_A = 24;
+    private static final int NAL_FU_A = 28;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final AVPacketPool packetPool;
+
+    private final ByteBuffer[] buffers = new ByteBuffer[RtpIngest.REORDER_WINDOW + 1];
+    private final BytePointer[] bufferPointers = new BytePointer[RtpIngest.REORDER_WINDOW + 1];
+    private final int[] freeBuffers = new int[RtpIngest.REORDER_WINDOW + 1];
+    private int freeCount;
+    // buffer index per sequence number slot, -1 if not received yet
+    private final int[] pending = new int[RtpIngest.REORDER_WINDOW];
+    private int pendingCount;
+    private int expectedSequence = -1;
+    private int highestSequence = -1;
+
+    private AVPacket accessUnit;
+    private BytePointer accessUnitData;
+    private int accessUnitSize;
+    private int accessUnitCapacity;
+    private long accessUnitTimestamp;
+    // last RTP timestamp extended beyond 32 bits, Long.MIN_VALUE until the first access unit
+    private long extendedTimestamp = Long.MIN_VALUE;
+    private boolean accessUnitCorrupt;
+    private boolean accessUnitParameterSets;
+    private boolean inFragment;
+    // a packet was lost while no access unit was open, it may have been the start of the next one
+    private boolean lossPending;
+
+    private long receivedPackets;
+    private long lostPackets;
+    private long reorderedPackets;
+    private long accessUnits;
+
+    /**
+     * Binds the channel, e.g. to {@code new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT)}.
+     */
+    public RtpIngest(final InetSocketAddress address, final AVPacketPool packetPool) throws IOException {
+        this.packetPool = packetPool;
+        this.channel = DatagramChannel.open();
+        this.channel.setOption(StandardSocketOptions.SO_RCVBUF, RtpIngest.SOCKET_RECEIVE_BUFFER);
+        this.channel.bind(address);
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.channel.register(this.selector, SelectionKey.OP_READ);
+
+        final ByteBuffer memory = ByteBuffer.allocateDirect(this.buffers.length * RtpIngest.MAX_DATAGRAM_SIZE);
+        for (int i = 0; i < this.buffers.length; i++) {
+            memory.limit((i + 1) * RtpIngest.MAX_DATAGRAM_SIZE).position(i * RtpIngest.MAX_DATAGRAM_SIZE);
+            this.buffers[i] = memory.slice();
+            this.bufferPointers[i] = new BytePointer(this.buffers[i]);
+            this.freeBuffers[this.freeCount++] = i;
+        }
+        Arrays.fill(this.pending, -1);
+    }
+
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) this.channel.getLocalAddress();
+    }
+
+    /**
+     * Receives until {@code running} returns {@code false} and hands every completed access unit to
+     * {@code output}, which takes ownership of the packet.
+     *
+     * @param output returns {@code false} to stop receiving, the packet is released by the output in any case
+     */
+    public void run(final BooleanSupplier running, final Predicate<AVPacket> output) throws IOException {
+        while (running.getAsBoolean()) {
+            if (this.selector.select(RtpIngest.SELECT_TIMEOUT_MILLIS) == 0) {
+                // nothing arrived for a while, a missing packet is not going to be reordered anymore
+                if (this.pendingCount > 0 && !this.skipGap(output)) {
+                    return;
+                }
+                continue;
+            }
+            this.selector.selectedKeys().clear();
+            for (; ; ) {
+                final int index = this.freeBuffers[--this.freeCount];
+                final ByteBuffer buffer = this.buffers[index].clear();
+                if (this.channel.receive(buffer) == null) {
+                    this.freeBuffers[this.freeCount++] = index;
+                    break;
+                }
+                this.receivedPackets++;
+                if (!this.onDatagram(index, output)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public long receivedPackets() {
+        return this.receivedPackets;
+    }
+
+    public long lostPackets() {
+        return this.lostPackets;
+    }
+
+    public long reorderedPackets() {
+        return this.reorderedPackets;
+    }
+
+    public long accessUnits() {
+        return this.accessUnits;
+    }
+
+    /**
+     * Whether the access unit just handed to the output carries a SPS, like {@link AnnexBReader#hasParameterSets()}.
+     */
+    public boolean hasParameterSets() {
+        return this.accessUnitParameterSets;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.accessUnit != null) {
+            this.packetPool.release(this.accessUnit);
+            this.accessUnit = null;
+        }
+        this.selector.close();
+        this.channel.close();
+    }
+
+    /*********************/
+    /*** reorder stage ***/
+    /*********************/
+
+    private boolean onDatagram(final int index, final Predicate<AVPacket> output) {
+        final ByteBuffer buffer = this.buffers[index];
+        if (buffer.position() < 12 || (buffer.get(0) & 0xC0) != 0x80) {
+            this.freeBuffers[this.freeCount++] = index;
+            return true;
+        }
+        final int sequence = buffer.getShort(2) & 0xFFFF;
+        if (this.expectedSequence < 0) {
+            this.expectedSequence = sequence;
+        }
+        int distance = (short) (sequence - this.expectedSequence);
+        if (distance < 0 && distance > -2 * RtpIngest.REORDER_WINDOW) {
+            // late duplicate or a packet that was already declared lost
+            this.freeBuffers[this.freeCount++] = index;
+            return true;
+        }
+        if (distance < 0 || distance >= 2 * RtpIngest.REORDER_WINDOW) {
+            // sender restarted or a long outage, flush the window and resynchronise on this packet
+            Logger.warn("RTP sequence jumped from {} to {}", this.expectedSequence, sequence);
+            if (!this.declareLost(RtpIngest.REORDER_WINDOW, output)) {
+                this.freeBuffers[this.freeCount++] = index;
+                return false;
+            }
+            this.lostPackets++;
+            this.onLoss();
+            this.expectedSequence = sequence;
+            this.highestSequence = -1;
+            distance = 0;
+        }
+        while (distance >= RtpIngest.REORDER_WINDOW) {
+            // the window is full, give up on the oldest gap
+            if (!this.declareLost(1, output)) {
+                this.freeBuffers[this.freeCount++] = index;
+                return false;
+            }
+            distance = (short) (sequence - this.expectedSequence);
+        }
+        final int slot = sequence % RtpIngest.REORDER_WINDOW;
+        if (this.pending[slot] >= 0) {
+            this.freeBuffers[this.freeCount++] = index;
+            return true;
+        }
+        if (this.highestSequence >= 0 && (short) (sequence - this.highestSequence) < 0) {
+            this.reorderedPackets++;
+        } else {
+            this.highestSequence = sequence;
+        }
+        this.pending[slot] = index;
+        this.pendingCount++;
+        return this.deliverInOrder(output);
+    }
+
+    private boolean deliverInOrder(final Predicate<AVPacket> output) {
+        for (; ; ) {
+            final int slot = this.expectedSequence % RtpIngest.REORDER_WINDOW;
+            final int index = this.pending[slot];
+            if (index < 0) {
+                return true;
+            }
+            this.pending[slot] = -1;
+            this.pendingCount--;
+            this.expectedSequence = (this.expectedSequence + 1) & 0xFFFF;
+            final boolean accepted = this.onRtpPacket(index, output);
+            this.freeBuffers[this.freeCount++] = index;
+            if (!accepted) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Moves the window forward by {@code count} sequence numbers, delivering whatever was received for them.
+     */
+    private boolean declareLost(final int count, final Predicate<AVPacket> output) {
+        for (int i = 0; i < count; i++) {
+            final int slot = this.expectedSequence % RtpIngest.REORDER_WINDOW;
+            final int index = this.pending[slot];
+            this.expectedSequence = (this.expectedSequence + 1) & 0xFFFF;
+            if (index < 0) {
+                this.lostPackets++;
+                this.onLoss();
+                continue;
+            }
+            this.pending[slot] = -1;
+            this.pendingCount--;
+            final boolean accepted = this.onRtpPacket(index, output);
+            this.freeBuffers[this.freeCount++] = index;
+            if (!accepted) {
+                return false;
+            }
+        }
+        return this.deliverInOrder(output);
+    }
+
+    /**
+     * Declares the sequence numbers up to the next received packet lost.
+     */
+    private boolean skipGap(final Predicate<AVPacket> output) {
+        int missing = 0;
+        while (this.pending[(this.expectedSequence + missing) % RtpIngest.REORDER_WINDOW] < 0) {
+            missing++;
+        }
+        return this.declareLost(missing, output);
+    }
+
+    /**************************/
+    /*** depacketiser stage ***/
+    /**************************/
+
+    private boolean onRtpPacket(final int index, final Predicate<AVPacket> output) {
+        final ByteBuffer buffer = this.buffers[index];
+        final int length = buffer.position();
+        final int first = buffer.get(0);
+        final boolean marker = (buffer.get(1) & 0x80) != 0;
+        final long timestamp = buffer.getInt(4) & 0xFFFFFFFFL;
+        int offset = 12 + 4 * (first & 0x0F);
+        if ((first & 0x10) != 0 && offset + 4 <= length) {
+            offset += 4 + 4 * (buffer.getShort(offset + 2) & 0xFFFF);
+        }
+        int end = length;
+        if ((first & 0x20) != 0) {
+            end -= buffer.get(length - 1) & 0xFF;
+        }
+        if (offset >= end) {
+            return true;
+        }
+
+        if (this.accessUnit != null && timestamp != this.accessUnitTimestamp && !this.emit(output)) {
+            return false;
+        }
+        if (this.accessUnit == null && !this.beginAccessUnit(timestamp)) {
+            // the decoder is behind, this part of the stream is lost
+            this.lossPending = true;
+            return true;
+        }
+
+        final int nalHeader = buffer.get(offset) & 0xFF;
+        final int nalType = nalHeader & 0x1F;
+        if (nalType == RtpIngest.NAL_STAP_A) {
+            this.inFragment = false;
+            int position = offset + 1;
+            while (position + 2 <= end) {
+                final int size = buffer.getShort(position) & 0xFFFF;
+                position += 2;
+                if (size == 0 || position + size > end) {
+                    this.accessUnitCorrupt = true;
+                    break;
+                }
+                this.appendNalUnit(index, position, size, true);
+                position += size;
+            }
+        } else if (nalType == RtpIngest.NAL_FU_A) {
+            if (offset + 2 > end) {
+                this.accessUnitCorrupt = true;
+            } else {
+                final int fuHeader = buffer.get(offset + 1) & 0xFF;
+                final boolean start = (fuHeader & 0x80) != 0;
+                if (start) {
+                    // the reconstructed NAL header replaces the FU header in the receive buffer
+                    buffer.put(offset + 1, (byte) ((nalHeader & 0xE0) | (fuHeader & 0x1F)));
+                    this.appendNalUnit(index, offset + 1, end - offset - 1, true);
+                    this.inFragment = (fuHeader & 0x40) == 0;
+                } else if (this.inFragment) {
+                    this.appendNalUnit(index, offset + 2, end - offset - 2, false);
+                    this.inFragment = (fuHeader & 0x40) == 0;
+                } else {
+                    // continuation of a fragment whose start was lost
+                    this.accessUnitCorrupt = true;
+                }
+            }
+        } else if (nalType >= 1 && nalType <= 23) {
+            this.inFragment = false;
+            this.appendNalUnit(index, offset, end - offset, true);
+        }
+        return !marker || this.emit(output);
+    }
+
+    private boolean beginAccessUnit(final long timestamp) {
+        this.accessUnit = this.packetPool.acquireWritable();
+        if (this.accessUnit == null) {
+            return false;
+        }
+        this.accessUnitData = this.accessUnit.data();
+        this.accessUnitSize = 0;
+        this.accessUnitCapacity = this.packetPool.bufferSize();
+        this.accessUnitTimestamp = timestamp;
+        this.accessUnitCorrupt = this.lossPending;
+        this.accessUnitParameterSets = false;
+        this.lossPending = false;
+        this.accessUnit.flags(0);
+        return true;
+    }
+
+    private void appendNalUnit(final int index, final int offset, final int size, final boolean startCode) {
+        final int required = this.accessUnitSize + (startCode ? 4 : 0) + size;
+        if (required > this.accessUnitCapacity && !this.growAccessUnit(required)) {
+            this.accessUnitCorrupt = true;
+            return;
+        }
+        if (startCode) {
+            Pointer.memset(this.accessUnitData.position(this.accessUnitSize), 0, 3);
+            this.accessUnitData.position(this.accessUnitSize + 3).put((byte) 1);
+            this.accessUnitSize += 4;
+            final int nalType = this.buffers[index].get(offset) & 0x1F;
+            if (nalType == AnnexBReader.NAL_IDR_SLICE) {
+                this.accessUnit.flags(this.accessUnit.flags() | AV_PKT_FLAG_KEY);
+            } else if (nalType == AnnexBReader.NAL_SPS) {
+                this.accessUnitParameterSets = true;
+            }
+        }
+        Pointer.memcpy(this.accessUnitData.position(this.accessUnitSize), this.bufferPointers[index].position(offset), size);
+        this.accessUnitSize += size;
+    }
+
+    /**
+     * Moves an access unit that outgrew the pooled payload, e.g. an intra frame of a 4K stream, into a larger
+     * unpooled one. Dropping it instead would lose the very IDR the stream needs to resynchronise.
+     */
+    private boolean growAccessUnit(final int required) {
+        if (required > RtpIngest.MAX_ACCESS_UNIT_SIZE) {
+            return false;
+        }
+        final int capacity = (int) Math.min(Math.max(required, 2L * this.accessUnitCapacity), RtpIngest.MAX_ACCESS_UNIT_SIZE);
+        if (!this.packetPool.growWritable(this.accessUnit, this.accessUnitSize, capacity)) {
+            return false;
+        }
+        this.accessUnitData = this.accessUnit.data();
+        this.accessUnitCapacity = capacity;
+        return true;
+    }
+
+    /**
+     * Extends a 32 bit RTP timestamp to the value closest to the previous one, so wrap arounds and timestamps
+     * slightly behind the previous one (B-frames) keep counting on.
+     */
+    private long unwrap(final long timestamp) {
+        if (this.extendedTimestamp == Long.MIN_VALUE) {
+            this.extendedTimestamp = timestamp;
+        } else {
+            this.extendedTimestamp += (int) (timestamp - this.extendedTimestamp);
+        }
+        return this.extendedTimestamp;
+    }
+
+    private void onLoss() {
+        if (this.accessUnit != null) {
+            this.accessUnitCorrupt = true;
+        } else {
+            this.lossPending = true;
+        }
+        this.inFragment = false;
+    }
+
+    private boolean emit(final Predicate<AVPacket> output) {
+        final AVPacket packet = this.accessUnit;
+        this.accessUnit = null;
+        this.accessUnitData = null;
+        this.inFragment = false;
+        if (this.accessUnitSize == 0) {
+            this.packetPool.release(packet);
+            return true;
+        }
+        if (this.accessUnitCorrupt) {
+            packet.flags(packet.flags() | AV_PKT_FLAG_CORRUPT);
+        }
+        // RTP timestamps are presentation times, the decode order is left to the decoder
+        packet.pts(this.unwrap(this.accessUnitTimestamp));
+        packet.dts(AV_NOPTS_VALUE);
+        this.packetPool.commitWritable(packet, this.accessUnitSize);
+        this.accessUnits++;
+        return output.test(packet);
+    }
+}
@@ -0,0 +1,207 @@
+package com.grill.example;
+
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays an Annex-B file as RTP/H.264 (RFC 6184, non-interleaved mode) in real time, e.g. to test
+ * {@link RtpIngest} over loopback.
+ * <p>
+ * Parameter sets and other small NAL units in front of the slices are aggregated into STAP-A packets, NAL units
+ * larger than the payload size are split into FU-A fragments and the last packet of an access unit carries the
+ * marker bit.
+ */
+public final class RtpSender implements AutoCloseable {
+
+    private static final int PAYLOAD_TYPE = 96;
+    private static final int CLOCK_RATE = 90_000;
+    private static final int HEADER_SIZE = 12;
+    // keeps datagrams below a 1500 byte MTU including IP and UDP headers
+    private static final int MAX_PAYLOAD_SIZE = 1400;
+
+    private final DatagramChannel channel;
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(RtpSender.HEADER_SIZE + RtpSender.MAX_PAYLOAD_SIZE);
+    private final int ssrc = ThreadLocalRandom.current().nextInt();
+
+    private int sequence = ThreadLocalRandom.current().nextInt(0x10000);
+    private int dropEvery = 0;
+    private long sentPackets;
+    private volatile boolean running = true;
+
+    private byte[] accessUnit = new byte[1 << 20];
+
+    public RtpSender(final InetSocketAddress target) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.connect(target);
+    }
+
+    /**
+     * Replays {@code example_data/example.h264} (or the first argument) to localhost:5004 (or host and port
+     * given as second and third argument) until stopped.
+     */
+    public static void main(final String[] args) throws IOException {
+        final Path file = Paths.get(args.length > 0 ? args[0] : "example_data/example.h264");
+        final InetAddress host = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : RtpIngest.DEFAULT_PORT;
+        try (final RtpSender sender = new RtpSender(new InetSocketAddress(host, port))) {
+            sender.replay(file, true);
+        }
+    }
+
+    /**
+     * Leaves out every {@code dropEvery}-th packet to simulate loss, 0 sends everything.
+     */
+    public RtpSender dropEvery(final int dropEvery) {
+        this.dropEvery = Math.max(0, dropEvery);
+        return this;
+    }
+
+    public long sentPackets() {
+        return this.sentPackets;
+    }
+
+    /**
+     * Sends the file paced by the frame rate signalled in its SPS (60 fps if there is none).
+     *
+     * @param loop start over at the end of the file until {@link #close()} is called
+     */
+    public void replay(final Path file, final boolean loop) throws IOException {
+        final H264ParameterSets parameterSets = H264ParameterSets.scan(file, 16);
+        final double frameRate = parameterSets != null && parameterSets.sps().frameRate() > 0 ?
+                parameterSets.sps().frameRate() : 60;
+        final long frameNanos = (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+        Logger.info("Replaying {} to {} at {} fps", file, this.channel.getRemoteAddress(), String.format("%.2f", frameRate));
+
+        final long start = System.nanoTime();
+        long frame = 0;
+        do {
+            try (final AnnexBReader reader = new AnnexBReader(file)) {
+                while (this.running && reader.nextAccessUnit()) {
+                    final long due = start + frame * frameNanos;
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    if (this.accessUnit.length < reader.size()) {
+                        this.accessUnit = new byte[reader.size()];
+                    }
+                    reader.data().get(this.accessUnit, 0, reader.size());
+                    // through long, a double cast to int saturates instead of wrapping like a RTP timestamp
+                    this.sendAccessUnit(this.accessUnit, reader.size(), (int) (long) (frame * RtpSender.CLOCK_RATE / frameRate));
+                    frame++;
+                }
+            }
+        } while (loop && this.running);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.channel.close();
+    }
+
+    private void sendAccessUnit(final byte[] data, final int length, final int timestamp) throws IOException {
+        int start = H264ParameterSets.nextNalUnit(data, 0, length);
+        int aggregateStart = -1;
+        int aggregateSize = 1;
+        while (start >= 0) {
+            final int next = H264ParameterSets.nextNalUnit(data, start, length);
+            final int size = H264ParameterSets.nalUnitEnd(data, start, next, length) - start;
+            final boolean last = next < 0;
+            final int nalType = data[start] & 0x1F;
+            final boolean aggregate = !last && 1 + 2 + size <= RtpSender.MAX_PAYLOAD_SIZE &&
+                    nalType != AnnexBReader.NAL_SLICE && nalType != AnnexBReader.NAL_IDR_SLICE;
+
+            if (aggregateStart >= 0 && (!aggregate || aggregateSize + 2 + size > RtpSender.MAX_PAYLOAD_SIZE)) {
+                // end of the aggregate is the start code in front of this NAL unit
+                this.sendStapA(data, aggregateStart, start - 3, timestamp);
+                aggregateStart = -1;
+                aggregateSize = 1;
+            }
+            if (aggregate) {
+                if (aggregateStart < 0) {
+                    aggregateStart = start;
+                }
+                aggregateSize += 2 + size;
+            } else if (size <= RtpSender.MAX_PAYLOAD_SIZE) {
+                this.beginPacket(last, timestamp);
+                this.datagram.put(data, start, size);
+                this.send();
+            } else {
+                this.sendFuA(data, start, size, last, timestamp);
+            }
+            start = next;
+        }
+        if (aggregateStart >= 0) {
+            this.sendStapA(data, aggregateStart, length, timestamp);
+        }
+    }
+
+    /**
+     * Sends the NAL units between {@code from} and {@code to} as one STAP-A packet.
+     */
+    private void sendStapA(final byte[] data, final int from, final int to, final int timestamp) throws IOException {
+        this.beginPacket(false, timestamp);
+        final int headerPosition = this.datagram.position();
+        this.datagram.put((byte) 0);
+        int nri = 0;
+        int start = from;
+        while (start >= 0 && start < to) {
+            final int next = H264ParameterSets.nextNalUnit(data, start, to);
+            final int end = H264ParameterSets.nalUnitEnd(data, start, next, to);
+            nri = Math.max(nri, data[start] & 0x60);
+            this.datagram.putShort((short) (end - start));
+            this.datagram.put(data, start, end - start);
+            start = next;
+        }
+        this.datagram.put(headerPosition, (byte) (nri | 24));
+        this.send();
+    }
+
+    private void sendFuA(final byte[] data, final int start, final int size, final boolean last, final int timestamp) throws IOException {
+        final int header = data[start] & 0xFF;
+        int position = start + 1;
+        final int end = start + size;
+        boolean first = true;
+        while (position < end) {
+            final int chunk = Math.min(RtpSender.MAX_PAYLOAD_SIZE - 2, end - position);
+            final boolean lastFragment = position + chunk == end;
+            this.beginPacket(last && lastFragment, timestamp);
+            this.datagram.put((byte) ((header & 0xE0) | 28));
+            this.datagram.put((byte) ((first ? 0x80 : 0) | (lastFragment ? 0x40 : 0) | (header & 0x1F)));
+            this.datagram.put(data, position, chunk);
+            this.send();
+            position += chunk;
+            first = false;
+        }
+    }
+
+    private void beginPacket(final boolean marker, final int timestamp) {
+        this.datagram.clear();
+        this.datagram.put((byte) 0x80);
+        this.datagram.put((byte) ((marker ? 0x80 : 0) | RtpSender.PAYLOAD_TYPE));
+        this.datagram.putShort((short) this.sequence);
+        this.datagram.putInt(timestamp);
+        this.datagram.putInt(this.ssrc);
+        this.sequence = (this.sequence + 1) & 0xFFFF;
+    }
+
+    private void send() throws IOException {
+        this.sentPackets++;
+        if (this.dropEvery > 0 && this.sentPackets % this.dropEvery == 0) {
+            return;
+        }
+        this.datagram.flip();
+        this.channel.write(this.datagram);
+    }
+}
@@ -0,0 +1,20 @@
+package com.grill.example;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Portable YUV to BGRA conversion, used when the Vector API is not available.
+ */
+public final class ScalarFrameConverter extends YuvFrameConverter {
+
+    public ScalarFrameConverter(final ForkJoinPool pool) {
+        super(pool);
+    }
+
+    @Override
+    protected void convertRows(final Planes planes, final int rowStart, final int rowEnd) {
+        for (int row = rowStart; row < rowEnd; row++) {
+            YuvFrameConverter.convertRowScalar(planes, row, 0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.grill.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring buffer for exactly one producer and one consumer thread.
+ * <p>
+ * With {@link BackpressurePolicy#DROP_OLDEST} the producer may additionally evict the element at the head,
+ * which is why the head is advanced with a CAS by both sides. Evicted elements are handed to the drop handler
+ * so pooled native resources can be returned.
+ */
+public final class SpscRingBuffer<E> {
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final AtomicReferenceArray<E> elements;
+    private final int mask;
+    private final BackpressurePolicy policy;
+    private final Consumer<E> dropHandler;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public SpscRingBuffer(final int capacity, final BackpressurePolicy policy, final Consumer<E> dropHandler) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.policy = policy;
+        this.dropHandler = dropHandler;
+    }
+
+    /**
+     * Producer side: enqueues the element according to the backpressure policy.
+     *
+     * @return {@code false} if the buffer was closed, the element was not enqueued in that case
+     */
+    public boolean put(final E element) {
+        int idle = 0;
+        while (!this.closed) {
+            if (this.offer(element)) {
+                return true;
+            }
+            if (this.policy == BackpressurePolicy.DROP_OLDEST) {
+                final E dropped = this.poll();
+                if (dropped != null && this.dropHandler != null) {
+                    this.dropHandler.accept(dropped);
+                }
+            } else {
+                idle = SpscRingBuffer.idle(idle);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Producer side: enqueues the element if there is room.
+     */
+    public boolean offer(final E element) {
+        final long currentTail = this.tail.get();
+        if (currentTail - this.head.get() > this.mask) {
+            return false;
+        }
+        this.elements.lazySet((int) currentTail & this.mask, element);
+        this.tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side (or producer side when evicting): dequeues the oldest element.
+     *
+     * @return the element or {@code null} if the buffer is empty
+     */
+    public E poll() {
+        for (; ; ) {
+            final long currentHead = this.head.get();
+            if (currentHead >= this.tail.get()) {
+                return null;
+            }
+            final E element = this.elements.get((int) currentHead & this.mask);
+            if (this.head.compareAndSet(currentHead, currentHead + 1)) {
+                return element;
+            }
+        }
+    }
+
+    /**
+     * Consumer side: waits for the next element.
+     *
+     * @return the element or {@code null} once the buffer is closed and drained
+     */
+    public E take() {
+        int idle = 0;
+        for (; ; ) {
+            final E element = this.poll();
+            if (element != null) {
+                return element;
+            }
+            if (this.closed) {
+                return this.poll();
+            }
+            idle = SpscRingBuffer.idle(idle);
+        }
+    }
+
+    /**
+     * Signals that no more elements will be produced, waiting producers and consumers return.
+     */
+    public void close() {
+        this.closed = true;
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    public int size() {
+        return (int) Math.max(0, this.tail.get() - this.head.get());
+    }
+
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    private static int idle(final int idle) {
+        if (idle < SpscRingBuffer.SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(SpscRingBuffer.PARK_NANOS);
+        }
+        return idle + 1;
+    }
+}
@@ -0,0 +1,130 @@
+package com.grill.example;
+
+import org.tinylog.Logger;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Drop-until-IDR resynchronisation driven by the errors {@code AV_EF_EXPLODE} reports.
+ * <p>
+ * After a decoding error the stream is considered corrupt: access units are skipped at the bitstream level
+ * instead of being sent to the decoder until an IDR or recovery point access unit arrives, and a key frame is
+ * requested from the sender. Requests are repeated while the stream stays corrupt, but not more often than the
+ * configured interval. The decoder has to be flushed when {@link #accept(boolean)} signals a resync.
+ * Not thread safe, used by the thread owning the decoder.
+ */
+public final class StreamRecovery {
+
+    public enum State {
+        HEALTHY,
+        CORRUPT
+    }
+
+    private final Runnable keyFrameRequester;
+    private final long requestIntervalNanos;
+    private final LongSupplier clock;
+    private final DecoderMetrics metrics;
+
+    private State state = State.HEALTHY;
+    private long corruptSince;
+    private long lastRequest;
+    private boolean resynced;
+    private boolean awaitingCleanFrame;
+
+    private long skippedAccessUnits = 0;
+    private long keyFrameRequests = 0;
+
+    /**
+     * @param keyFrameRequester    called on the decoder thread, should only signal the sender and return quickly
+     * @param requestIntervalNanos minimum time between two key frame requests
+     */
+    public StreamRecovery(final Runnable keyFrameRequester, final long requestIntervalNanos, final DecoderMetrics metrics) {
+        this(keyFrameRequester, requestIntervalNanos, metrics, System::nanoTime);
+    }
+
+    public StreamRecovery(final Runnable keyFrameRequester, final long requestIntervalNanos, final DecoderMetrics metrics,
+                          final LongSupplier clock) {
+        this.keyFrameRequester = keyFrameRequester;
+        this.requestIntervalNanos = requestIntervalNanos;
+        this.metrics = metrics;
+        this.clock = clock;
+    }
+
+    /**
+     * Marks the stream as corrupt after the decoder reported an error or a corrupt frame.
+     */
+    public void onDecodeError() {
+        final long now = this.clock.getAsLong();
+        if (this.state == State.HEALTHY) {
+            Logger.warn("Decoding error, dropping access units until the next key frame");
+            this.state = State.CORRUPT;
+            this.corruptSince = now;
+            this.awaitingCleanFrame = false;
+        }
+        this.requestKeyFrameIfDue(now);
+    }
+
+    /**
+     * Decides whether an access unit is sent to the decoder.
+     *
+     * @param keyFrame the access unit contains an IDR slice or starts with a recovery point SEI
+     * @return {@code false} if the access unit has to be skipped
+     */
+    public boolean accept(final boolean keyFrame) {
+        this.resynced = false;
+        if (this.state == State.HEALTHY) {
+            return true;
+        }
+        if (keyFrame) {
+            Logger.info("Resynchronised on key frame after {} skipped access units", this.skippedAccessUnits);
+            this.state = State.HEALTHY;
+            this.resynced = true;
+            this.awaitingCleanFrame = true;
+            return true;
+        }
+        this.skippedAccessUnits++;
+        this.requestKeyFrameIfDue(this.clock.getAsLong());
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if the access unit last passed to {@link #accept(boolean)} ended a corrupt phase,
+     * the decoder should be flushed before it is sent so no broken references survive.
+     */
+    public boolean resynced() {
+        return this.resynced;
+    }
+
+    /**
+     * Called for every clean frame leaving the decoder, records the time the stream was unusable.
+     */
+    public void onCleanFrame() {
+        if (this.awaitingCleanFrame) {
+            this.awaitingCleanFrame = false;
+            this.metrics.record(DecoderMetrics.Stage.RECOVERY, this.clock.getAsLong() - this.corruptSince);
+        }
+    }
+
+    public State state() {
+        return this.state;
+    }
+
+    public long skippedAccessUnits() {
+        return this.skippedAccessUnits;
+    }
+
+    public long keyFrameRequests() {
+        return this.keyFrameRequests;
+    }
+
+    private void requestKeyFrameIfDue(final long now) {
+        if (this.keyFrameRequests > 0 && now - this.lastRequest < this.requestIntervalNanos) {
+            return;
+        }
+        this.lastRequest = now;
+        this.keyFrameRequests++;
+        if (this.keyFrameRequester != null) {
+            this.keyFrameRequester.run();
+        }
+    }
+}
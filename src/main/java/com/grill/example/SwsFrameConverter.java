@@ -0,0 +1,51 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_BGRA;
+import static org.bytedeco.ffmpeg.global.swscale.SWS_BILINEAR;
+import static org.bytedeco.ffmpeg.global.swscale.sws_freeContext;
+import static org.bytedeco.ffmpeg.global.swscale.sws_getCachedContext;
+import static org.bytedeco.ffmpeg.global.swscale.sws_scale;
+
+/**
+ * {@link FrameConverter} backed by libswscale. The scaler context is cached and only recreated when the frame
+ * size or pixel format changes.
+ */
+public final class SwsFrameConverter implements FrameConverter {
+
+    private final PointerPointer<BytePointer> destinationData = new PointerPointer<>(4);
+    private final IntPointer destinationLinesize = new IntPointer(4);
+
+    private SwsContext swsContext;
+
+    @Override
+    public boolean convert(final AVFrame frame, final BytePointer destination, final int destinationStride) {
+        final int width = frame.width();
+        final int height = frame.height();
+        this.swsContext = sws_getCachedContext(this.swsContext, width, height, frame.format(),
+                width, height, AV_PIX_FMT_BGRA, SWS_BILINEAR, null, null, (DoublePointer) null);
+        if (this.swsContext == null) {
+            return false;
+        }
+        this.destinationData.put(0, destination);
+        this.destinationLinesize.put(0, destinationStride);
+        return sws_scale(this.swsContext, frame.data(), frame.linesize(), 0, height,
+                this.destinationData, this.destinationLinesize) == height;
+    }
+
+    @Override
+    public void close() {
+        if (this.swsContext != null) {
+            sws_freeContext(this.swsContext);
+            this.swsContext = null;
+        }
+        this.destinationData.close();
+        this.destinationLinesize.close();
+    }
+}
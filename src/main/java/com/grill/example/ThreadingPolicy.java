@@ -0,0 +1,137 @@
+package com.grill.example;
+
+import org.tinylog.Logger;
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_FRAME;
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_SLICE;
+
+/**
+ * Chooses the software decoder threading from the CPU topology and the number of decoders sharing the machine.
+ * <p>
+ * Frame threading scales best but delays every frame by one frame per extra thread, so low delay decoders use
+ * slice threading. Threads are sized from physical cores (hyper-threads add little to CABAC decoding), divided
+ * by the number of concurrent decoders, and capped by what the JVM is allowed to use (e.g. container limits).
+ */
+public final class ThreadingPolicy {
+
+    public enum Mode {
+        /**
+         * Slice threading for low delay decoders, frame threading otherwise
+         */
+        AUTO,
+        SLICE,
+        FRAME
+    }
+
+    // FFmpeg does not scale beyond this for a single h264 context (MAX_AUTO_THREADS)
+    private static final int MAX_THREADS_PER_DECODER = 16;
+    // typical encoders emit few slices per frame, more slice threads than slices idle
+    private static final int MAX_SLICE_THREADS = 8;
+
+    private Mode mode = Mode.AUTO;
+    private int threadCount = 0;
+    private int concurrentDecoders = 1;
+
+    /**
+     * Reads {@code decoder.threading} (auto, slice or frame), {@code decoder.threads} (0 sizes automatically)
+     * and {@code decoder.streams} (number of decoders running at the same time).
+     */
+    public static ThreadingPolicy fromSystemProperties() {
+        final ThreadingPolicy policy = new ThreadingPolicy();
+        try {
+            policy.mode(Mode.valueOf(System.getProperty("decoder.threading", "auto").toUpperCase()));
+            policy.threadCount(Integer.parseInt(System.getProperty("decoder.threads", "0")));
+            policy.concurrentDecoders(Integer.parseInt(System.getProperty("decoder.streams", "1")));
+        } catch (final IllegalArgumentException e) {
+            Logger.error(e, "Invalid decoder threading property, using automatic threading");
+            return new ThreadingPolicy();
+        }
+        return policy;
+    }
+
+    public Mode mode() {
+        return this.mode;
+    }
+
+    public ThreadingPolicy mode(final Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * Fixed number of threads per decoder, 0 sizes from the available cores
+     */
+    public int threadCount() {
+        return this.threadCount;
+    }
+
+    public ThreadingPolicy threadCount(final int threadCount) {
+        this.threadCount = Math.max(0, threadCount);
+        return this;
+    }
+
+    public int concurrentDecoders() {
+        return this.concurrentDecoders;
+    }
+
+    public ThreadingPolicy concurrentDecoders(final int concurrentDecoders) {
+        this.concurrentDecoders = Math.max(1, concurrentDecoders);
+        return this;
+    }
+
+    /**
+     * Returns {@code FF_THREAD_SLICE} or {@code FF_THREAD_FRAME}.
+     */
+    public int threadType(final boolean lowDelay) {
+        return switch (this.mode) {
+            case SLICE -> FF_THREAD_SLICE;
+            case FRAME -> FF_THREAD_FRAME;
+            case AUTO -> lowDelay ? FF_THREAD_SLICE : FF_THREAD_FRAME;
+        };
+    }
+
+    public int threadCount(final boolean lowDelay) {
+        if (this.threadCount > 0) {
+            return this.threadCount;
+        }
+        final int cores = Math.min(Topology.PHYSICAL_CORES, Runtime.getRuntime().availableProcessors());
+        final int share = Math.max(1, cores / this.concurrentDecoders);
+        final int limit = this.threadType(lowDelay) == FF_THREAD_SLICE ?
+                ThreadingPolicy.MAX_SLICE_THREADS :
+                ThreadingPolicy.MAX_THREADS_PER_DECODER;
+        return Math.min(share, limit);
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadingPolicy[" +
+                "mode=" + this.mode + ", " +
+                "threadCount=" + this.threadCount + ", " +
+                "concurrentDecoders=" + this.concurrentDecoders + ", " +
+                "physicalCores=" + Topology.PHYSICAL_CORES + ']';
+    }
+
+    /**
+     * CPU topology, probed once because oshi initialisation is slow.
+     */
+    private static final class Topology {
+
+        static final int PHYSICAL_CORES = Topology.probePhysicalCores();
+
+        private static int probePhysicalCores() {
+            try {
+                final CentralProcessor processor = new SystemInfo().getHardware().getProcessor();
+                final int physical = processor.getPhysicalProcessorCount();
+                Logger.info("CPU {}: {} physical, {} logical cores", processor.getName(), physical, processor.getLogicalProcessorCount());
+                if (physical > 0) {
+                    return physical;
+                }
+            } catch (final RuntimeException | LinkageError e) {
+                Logger.warn(e, "Could not read CPU topology, falling back to available processors");
+            }
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+}
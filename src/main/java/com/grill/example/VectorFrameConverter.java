@@ -0,0 +1,101 @@
+package com.grill.example;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * YUV to BGRA conversion with the Vector API ({@code --add-modules jdk.incubator.vector}).
+ * <p>
+ * Every iteration converts one int lane per pixel. Luma bytes are widened to ints, chroma bytes are duplicated
+ * for the two pixels sharing them with a shuffle (and de-interleaved for NV12) before widening. The remaining
+ * pixels of a row and rows too close to the end of a plane for a full vector load use the scalar path.
+ */
+public final class VectorFrameConverter extends YuvFrameConverter {
+
+    // at least 8 lanes, the byte species for the loads needs a shape of 64 bits or more
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED.length() >= 8 ?
+            IntVector.SPECIES_PREFERRED : IntVector.SPECIES_256;
+    private static final int LANES = VectorFrameConverter.INT_SPECIES.length();
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(VectorFrameConverter.LANES * Byte.SIZE));
+
+    private static final VectorShuffle<Byte> HALF = VectorShuffle.fromOp(VectorFrameConverter.BYTE_SPECIES, i -> i / 2);
+    private static final VectorShuffle<Byte> EVEN = VectorShuffle.fromOp(VectorFrameConverter.BYTE_SPECIES, i -> i & ~1);
+    private static final VectorShuffle<Byte> ODD = VectorShuffle.fromOp(VectorFrameConverter.BYTE_SPECIES, i -> i | 1);
+
+    public VectorFrameConverter(final ForkJoinPool pool) {
+        super(pool);
+    }
+
+    @Override
+    protected void convertRows(final Planes planes, final int rowStart, final int rowEnd) {
+        final YuvColorMatrix matrix = planes.matrix;
+        final int width = planes.width;
+        final int yCapacity = planes.y.capacity();
+        final int uCapacity = planes.u.capacity();
+        final int vCapacity = planes.v.capacity();
+
+        for (int row = rowStart; row < rowEnd; row++) {
+            final int yRow = row * planes.yStride;
+            final int uRow = (row >> 1) * planes.uStride;
+            final int vRow = (row >> 1) * planes.vStride;
+            final int bgraRow = row * planes.bgraStride;
+
+            int x = 0;
+            for (; x + VectorFrameConverter.LANES <= width; x += VectorFrameConverter.LANES) {
+                final int yOffset = yRow + x;
+                final int uOffset = planes.nv12 ? uRow + x : uRow + (x >> 1);
+                final int vOffset = vRow + (x >> 1);
+                if (yOffset + VectorFrameConverter.LANES > yCapacity || uOffset + VectorFrameConverter.LANES > uCapacity ||
+                        (!planes.nv12 && vOffset + VectorFrameConverter.LANES > vCapacity)) {
+                    break;
+                }
+
+                final IntVector y = VectorFrameConverter.widen(
+                        ByteVector.fromByteBuffer(VectorFrameConverter.BYTE_SPECIES, planes.y, yOffset, ByteOrder.nativeOrder()));
+                final IntVector u;
+                final IntVector v;
+                if (planes.nv12) {
+                    final ByteVector uv = ByteVector.fromByteBuffer(VectorFrameConverter.BYTE_SPECIES, planes.u, uOffset, ByteOrder.nativeOrder());
+                    u = VectorFrameConverter.widen(uv.rearrange(VectorFrameConverter.EVEN));
+                    v = VectorFrameConverter.widen(uv.rearrange(VectorFrameConverter.ODD));
+                } else {
+                    u = VectorFrameConverter.widen(ByteVector.fromByteBuffer(VectorFrameConverter.BYTE_SPECIES, planes.u, uOffset, ByteOrder.nativeOrder())
+                            .rearrange(VectorFrameConverter.HALF));
+                    v = VectorFrameConverter.widen(ByteVector.fromByteBuffer(VectorFrameConverter.BYTE_SPECIES, planes.v, vOffset, ByteOrder.nativeOrder())
+                            .rearrange(VectorFrameConverter.HALF));
+                }
+
+                final IntVector c = y.sub(matrix.yOffset).mul(matrix.yScale).add(YuvColorMatrix.ROUND);
+                final IntVector d = u.sub(128);
+                final IntVector e = v.sub(128);
+                final IntVector r = VectorFrameConverter.toChannel(c.add(e.mul(matrix.rV)));
+                final IntVector g = VectorFrameConverter.toChannel(c.sub(d.mul(matrix.gU)).sub(e.mul(matrix.gV)));
+                final IntVector b = VectorFrameConverter.toChannel(c.add(d.mul(matrix.bU)));
+
+                b.or(g.lanewise(VectorOperators.LSHL, 8))
+                        .or(r.lanewise(VectorOperators.LSHL, 16))
+                        .or(0xFF000000)
+                        .intoByteBuffer(planes.bgra, bgraRow + x * 4, ByteOrder.LITTLE_ENDIAN);
+            }
+            if (x < width) {
+                YuvFrameConverter.convertRowScalar(planes, row, x);
+            }
+        }
+    }
+
+    private static IntVector widen(final ByteVector bytes) {
+        return ((IntVector) bytes.convertShape(VectorOperators.B2I, VectorFrameConverter.INT_SPECIES, 0)).and(0xFF);
+    }
+
+    private static IntVector toChannel(final IntVector value) {
+        return value.lanewise(VectorOperators.ASHR, YuvColorMatrix.SHIFT).max(0).min(255);
+    }
+}
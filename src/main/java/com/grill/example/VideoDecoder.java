@@ -0,0 +1,288 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.tinylog.Logger;
+
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_FRAME;
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * Opened H.264 decoder context together with the native resources it depends on (hardware device context and
+ * format callback).
+ * <p>
+ * A hardware accelerated decoder also keeps an opened software context, so {@link #failOverToSoftware()} can
+ * switch to it without the cost of opening a decoder in the middle of a stream.
+ */
+public final class VideoDecoder implements AutoCloseable {
+
+    private final AVCodec decoder;
+    private final DecoderSettings settings;
+
+    private AVHWContextInfo hardwareContext;
+    private AVCodecContext m_VideoDecoderCtx;
+    private AVCodecContext.Get_format_AVCodecContext_IntPointer formatCallback;
+
+    private VideoDecoder softwareFallback;
+    private boolean failedOver = false;
+
+    private VideoDecoder(final AVCodec decoder, final DecoderSettings settings) {
+        this.decoder = decoder;
+        this.settings = new DecoderSettings(settings);
+    }
+
+    /**
+     * Allocates and opens a decoder context.
+     *
+     * @return the decoder or {@code null} if it could not be opened
+     */
+    public static VideoDecoder open(final DecoderSettings settings) {
+        final AVCodec decoder = avcodec_find_decoder(AV_CODEC_ID_H264); // usually decoder name is h264 and without hardware support it's yuv420p otherwise nv12
+        if (decoder == null) {
+            Logger.error("Unable to find decoder for format {}", "h264");
+            return null;
+        }
+        final VideoDecoder videoDecoder = new VideoDecoder(decoder, settings);
+        if (!videoDecoder.openContext()) {
+            videoDecoder.close();
+            return null;
+        }
+        if (videoDecoder.isHardwareAccelerated()) {
+            videoDecoder.softwareFallback = new VideoDecoder(decoder, new DecoderSettings(settings).hwAccel(false));
+            if (!videoDecoder.softwareFallback.openContext()) {
+                Logger.warn("Unable to open software fallback decoder");
+                videoDecoder.softwareFallback.close();
+                videoDecoder.softwareFallback = null;
+            }
+        }
+        return videoDecoder;
+    }
+
+    public AVCodec decoder() {
+        return this.decoder;
+    }
+
+    /**
+     * Returns the active context, the software fallback after {@link #failOverToSoftware()}.
+     */
+    public AVCodecContext context() {
+        return this.failedOver ? this.softwareFallback.context() : this.m_VideoDecoderCtx;
+    }
+
+    public DecoderSettings settings() {
+        return this.settings;
+    }
+
+    public boolean isHardwareAccelerated() {
+        final AVCodecContext context = this.context();
+        return context != null && context.hw_device_ctx() != null;
+    }
+
+    /**
+     * Whether {@link #failOverToSoftware()} has a warmed up software context to switch to.
+     */
+    public boolean canFailOver() {
+        return !this.failedOver && this.softwareFallback != null;
+    }
+
+    /**
+     * Releases the hardware context and continues on the software fallback. The caller has to resume with a key
+     * frame, the fallback has not seen any of the previous packets.
+     *
+     * @return {@code false} if there is no fallback to switch to
+     */
+    public boolean failOverToSoftware() {
+        if (!this.canFailOver()) {
+            return false;
+        }
+        this.closeContext();
+        this.failedOver = true;
+        Logger.warn("Hardware decoding failed, switched to software decoding");
+        return true;
+    }
+
+    /**
+     * Discards all buffered frames and packets, e.g. before decoding the same stream again.
+     */
+    public void flush() {
+        final AVCodecContext context = this.context();
+        if (context != null) {
+            avcodec_flush_buffers(context);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closeContext();
+        if (this.softwareFallback != null) {
+            this.softwareFallback.close();
+            this.softwareFallback = null;
+        }
+    }
+
+    private void closeContext() {
+        // Close the video codec
+        if (this.m_VideoDecoderCtx != null) {
+            avcodec_free_context(this.m_VideoDecoderCtx);
+            this.m_VideoDecoderCtx = null;
+        }
+
+        // close the format callback
+        if (this.formatCallback != null) {
+            this.formatCallback.close();
+            this.formatCallback = null;
+        }
+
+        // close hw context
+        if (this.hardwareContext != null) {
+            this.hardwareContext.free();
+            this.hardwareContext = null;
+        }
+    }
+
+    private boolean openContext() {
+        this.m_VideoDecoderCtx = avcodec_alloc_context3(this.decoder);
+        if (this.m_VideoDecoderCtx == null) {
+            Logger.error("Unable to allocate decoder context for format AV_CODEC_ID_H264");
+            return false;
+        }
+
+        if (this.settings.hwAccel()) {
+            this.hardwareContext = HardwareDevices.open(this.decoder, this.settings.hwDeviceTypes());
+            if (this.hardwareContext != null) {
+                Logger.info("Set hwaccel support");
+                // the context unrefs hw_device_ctx when it is freed, so it gets a reference of its own
+                this.m_VideoDecoderCtx.hw_device_ctx(av_buffer_ref(this.hardwareContext.hwContext())); // comment to disable hwaccel
+            } else {
+                Logger.info("No hardware device available, decoding in software");
+            }
+        } else {
+            Logger.info("Hwaccel manually disabled");
+        }
+
+        if (this.settings.lowDelay()) {
+            // Request low delay decoding
+            this.m_VideoDecoderCtx.flags(this.m_VideoDecoderCtx.flags() | AV_CODEC_FLAG_LOW_DELAY);
+        }
+
+        if (this.settings.outputCorrupt()) {
+            // Allow display of corrupt frames and frames missing references
+            this.m_VideoDecoderCtx.flags(this.m_VideoDecoderCtx.flags() | AV_CODEC_FLAG_OUTPUT_CORRUPT);
+            this.m_VideoDecoderCtx.flags2(this.m_VideoDecoderCtx.flags2() | AV_CODEC_FLAG2_SHOW_ALL);
+        }
+
+        if (this.settings.explode()) {
+            // Report decoding errors to allow us to request a key frame
+            this.m_VideoDecoderCtx.err_recognition(this.m_VideoDecoderCtx.err_recognition() | AV_EF_EXPLODE);
+        }
+
+        // Enable multi-threading for software decoding
+        if (this.m_VideoDecoderCtx.hw_device_ctx() == null) { // if not hw accelerated
+            final ThreadingPolicy threadingPolicy = this.settings.threadingPolicy();
+            if (threadingPolicy != null) {
+                this.m_VideoDecoderCtx.thread_type(threadingPolicy.threadType(this.settings.lowDelay()));
+                this.m_VideoDecoderCtx.thread_count(threadingPolicy.threadCount(this.settings.lowDelay()));
+                Logger.info("Software decoding with {} {} threads ({})", this.m_VideoDecoderCtx.thread_count(),
+                        this.m_VideoDecoderCtx.thread_type() == FF_THREAD_FRAME ? "frame" : "slice", threadingPolicy);
+            } else {
+                this.m_VideoDecoderCtx.thread_type(this.settings.threadType());
+                this.m_VideoDecoderCtx.thread_count(this.settings.threadCount());
+            }
+        } else {
+            // No threading for HW decode
+            this.m_VideoDecoderCtx.thread_count(1);
+        }
+
+        this.m_VideoDecoderCtx.width(this.settings.width());
+        this.m_VideoDecoderCtx.height(this.settings.height());
+        this.m_VideoDecoderCtx.pix_fmt(this.settings.pixelFormat());
+
+        final byte[] extradata = this.settings.extradata();
+        if (extradata != null && extradata.length > 0) {
+            // owned and freed by the context, FFmpeg requires zeroed padding behind it
+            final BytePointer data = new BytePointer(av_mallocz(extradata.length + AV_INPUT_BUFFER_PADDING_SIZE));
+            if (data.isNull()) {
+                Logger.error("Unable to allocate decoder extradata");
+                return false;
+            }
+            data.put(extradata);
+            this.m_VideoDecoderCtx.extradata(data);
+            this.m_VideoDecoderCtx.extradata_size(extradata.length);
+        }
+
+        this.formatCallback = new AVCodecContext.Get_format_AVCodecContext_IntPointer() {
+            @Override
+            public int call(final AVCodecContext context, final IntPointer pixelFormats) {
+                return VideoDecoder.this.selectPixelFormat(context, pixelFormats);
+            }
+        };
+        this.m_VideoDecoderCtx.get_format(this.formatCallback);
+
+        final AVDictionary options = new AVDictionary(null);
+        final int result = avcodec_open2(this.m_VideoDecoderCtx, this.decoder, options);
+        av_dict_free(options);
+        if (result < 0) {
+            Logger.error("avcodec_open2 was not successful");
+            return false;
+        }
+        return true;
+    }
+
+    private int selectPixelFormat(final AVCodecContext context, final IntPointer pixelFormats) {
+        final boolean hwDecodingSupported = context.hw_device_ctx() != null && this.hardwareContext != null;
+        final int preferredPixelFormat = hwDecodingSupported ?
+                this.hardwareContext.hwConfig().pix_fmt() :
+                context.pix_fmt();
+        int i = 0;
+        while (true) {
+            final int currentSupportedFormat = pixelFormats.get(i++);
+            Logger.debug("Supported pixel formats {}", currentSupportedFormat);
+            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
+                break;
+            }
+        }
+
+        i = 0;
+        while (true) {
+            final int currentSupportedFormat = pixelFormats.get(i++);
+            if (currentSupportedFormat == preferredPixelFormat) {
+                Logger.info("[FFmpeg]: pixel format in format callback is {}", currentSupportedFormat);
+                return currentSupportedFormat;
+            }
+            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
+                break;
+            }
+        }
+
+        i = 0;
+        while (true) { // try again and search for yuv
+            final int currentSupportedFormat = pixelFormats.get(i++);
+            if (currentSupportedFormat == AV_PIX_FMT_YUV420P) {
+                Logger.info("[FFmpeg]: Not found in first match so use {}", AV_PIX_FMT_YUV420P);
+                return currentSupportedFormat;
+            }
+            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
+                break;
+            }
+        }
+
+        i = 0;
+        while (true) { // try again and search for nv12
+            final int currentSupportedFormat = pixelFormats.get(i++);
+            if (currentSupportedFormat == AV_PIX_FMT_NV12) {
+                Logger.info("[FFmpeg]: Not found in second match so use {}", AV_PIX_FMT_NV12);
+                return currentSupportedFormat;
+            }
+            if (currentSupportedFormat == AV_PIX_FMT_NONE) {
+                break;
+            }
+        }
+
+        Logger.info("[FFmpeg]: pixel format in format callback is using fallback {}", AV_PIX_FMT_NONE);
+        return AV_PIX_FMT_NONE;
+    }
+}
@@ -0,0 +1,78 @@
+package com.grill.example;
+
+import static org.bytedeco.ffmpeg.global.avutil.AVCOL_RANGE_JPEG;
+import static org.bytedeco.ffmpeg.global.avutil.AVCOL_SPC_BT470BG;
+import static org.bytedeco.ffmpeg.global.avutil.AVCOL_SPC_BT709;
+import static org.bytedeco.ffmpeg.global.avutil.AVCOL_SPC_SMPTE170M;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUVJ420P;
+
+/**
+ * Fixed point YCbCr to RGB coefficients for BT.601 and BT.709 in limited (16-235) and full (0-255) range.
+ * All coefficients are scaled by {@code 1 << SHIFT}.
+ */
+public enum YuvColorMatrix {
+    BT601_LIMITED(0.299, 0.114, false),
+    BT601_FULL(0.299, 0.114, true),
+    BT709_LIMITED(0.2126, 0.0722, false),
+    BT709_FULL(0.2126, 0.0722, true);
+
+    public static final int SHIFT = 12;
+    public static final int ROUND = 1 << (YuvColorMatrix.SHIFT - 1);
+
+    public final int yOffset;
+    public final int yScale;
+    public final int rV;
+    public final int gU;
+    public final int gV;
+    public final int bU;
+
+    YuvColorMatrix(final double kr, final double kb, final boolean fullRange) {
+        final double kg = 1.0 - kr - kb;
+        final double yScale = fullRange ? 1.0 : 255.0 / 219.0;
+        final double cScale = fullRange ? 1.0 : 255.0 / 224.0;
+        final double one = 1 << YuvColorMatrix.SHIFT;
+        this.yOffset = fullRange ? 0 : 16;
+        this.yScale = (int) Math.round(yScale * one);
+        this.rV = (int) Math.round(2.0 * (1.0 - kr) * cScale * one);
+        this.bU = (int) Math.round(2.0 * (1.0 - kb) * cScale * one);
+        this.gU = (int) Math.round(2.0 * kb * (1.0 - kb) / kg * cScale * one);
+        this.gV = (int) Math.round(2.0 * kr * (1.0 - kr) / kg * cScale * one);
+    }
+
+    /**
+     * Picks the matrix signalled in the frame. Unspecified colour spaces are treated as BT.709 for HD and as
+     * BT.601 for SD content, which is what players commonly assume.
+     */
+    public static YuvColorMatrix forFrame(final int colorspace, final int colorRange, final int pixelFormat, final int height) {
+        final boolean fullRange = colorRange == AVCOL_RANGE_JPEG || pixelFormat == AV_PIX_FMT_YUVJ420P;
+        final boolean bt709;
+        if (colorspace == AVCOL_SPC_BT709) {
+            bt709 = true;
+        } else if (colorspace == AVCOL_SPC_BT470BG || colorspace == AVCOL_SPC_SMPTE170M) {
+            bt709 = false;
+        } else {
+            bt709 = height >= 720;
+        }
+        if (bt709) {
+            return fullRange ? YuvColorMatrix.BT709_FULL : YuvColorMatrix.BT709_LIMITED;
+        }
+        return fullRange ? YuvColorMatrix.BT601_FULL : YuvColorMatrix.BT601_LIMITED;
+    }
+
+    /**
+     * Converts one pixel into a little endian BGRA int with opaque alpha.
+     */
+    public int toBgra(final int y, final int u, final int v) {
+        final int c = (y - this.yOffset) * this.yScale + YuvColorMatrix.ROUND;
+        final int d = u - 128;
+        final int e = v - 128;
+        final int r = YuvColorMatrix.clamp((c + this.rV * e) >> YuvColorMatrix.SHIFT);
+        final int g = YuvColorMatrix.clamp((c - this.gU * d - this.gV * e) >> YuvColorMatrix.SHIFT);
+        final int b = YuvColorMatrix.clamp((c + this.bU * d) >> YuvColorMatrix.SHIFT);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+}
@@ -0,0 +1,186 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_NV12;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUVJ420P;
+
+/**
+ * Base for YUV420P and NV12 to BGRA converters working directly on the plane pointers and strides of the frame.
+ * <p>
+ * Large frames are split into horizontal stripes that are converted in parallel on a {@link ForkJoinPool}.
+ * The stripe tasks are allocated once and reinitialised for every frame. Other pixel formats are passed to
+ * libswscale.
+ */
+public abstract class YuvFrameConverter implements FrameConverter {
+
+    // frames with fewer pixels are converted on the calling thread, forking costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 1280 * 720;
+    private static final int MIN_STRIPE_ROWS = 64;
+
+    private final ForkJoinPool pool;
+    private final int maxStripes;
+    private SwsFrameConverter fallback;
+
+    private StripeTask[] stripes = new StripeTask[0];
+
+    // state of the frame currently converted, read by the stripe tasks
+    private final Planes planes = new Planes();
+
+    protected YuvFrameConverter(final ForkJoinPool pool) {
+        this.pool = pool;
+        this.maxStripes = Math.max(1, pool.getParallelism());
+    }
+
+    /**
+     * Returns the best converter available, the Vector API one if the {@code jdk.incubator.vector} module is
+     * present, otherwise the scalar one.
+     */
+    public static FrameConverter create(final ForkJoinPool pool) {
+        try {
+            return new VectorFrameConverter(pool);
+        } catch (final LinkageError e) {
+            return new ScalarFrameConverter(pool);
+        }
+    }
+
+    @Override
+    public boolean convert(final AVFrame frame, final BytePointer destination, final int destinationStride) {
+        final int format = frame.format();
+        final boolean nv12 = format == AV_PIX_FMT_NV12;
+        if (!nv12 && format != AV_PIX_FMT_YUV420P && format != AV_PIX_FMT_YUVJ420P) {
+            if (this.fallback == null) {
+                this.fallback = new SwsFrameConverter();
+            }
+            return this.fallback.convert(frame, destination, destinationStride);
+        }
+        final int width = frame.width();
+        final int height = frame.height();
+        final int chromaHeight = (height + 1) / 2;
+
+        final Planes planes = this.planes;
+        planes.width = width;
+        planes.nv12 = nv12;
+        planes.matrix = YuvColorMatrix.forFrame(frame.colorspace(), frame.color_range(), format, height);
+        planes.yStride = frame.linesize(0);
+        planes.uStride = frame.linesize(1);
+        planes.vStride = nv12 ? planes.uStride : frame.linesize(2);
+        planes.y = YuvFrameConverter.plane(frame.data(0), (long) planes.yStride * height);
+        planes.u = YuvFrameConverter.plane(frame.data(1), (long) planes.uStride * chromaHeight);
+        planes.v = nv12 ? planes.u : YuvFrameConverter.plane(frame.data(2), (long) planes.vStride * chromaHeight);
+        planes.bgraStride = destinationStride;
+        planes.bgra = destination.position(0).asByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+        final int stripeCount = (long) width * height < YuvFrameConverter.PARALLEL_THRESHOLD ? 1 :
+                Math.min(this.maxStripes, height / YuvFrameConverter.MIN_STRIPE_ROWS);
+        if (stripeCount <= 1) {
+            this.convertRows(planes, 0, height);
+            return true;
+        }
+        if (this.stripes.length != stripeCount) {
+            this.stripes = new StripeTask[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                this.stripes[i] = new StripeTask();
+            }
+        }
+        // stripes start at even rows so every stripe owns whole chroma rows
+        final int rowsPerStripe = ((height / stripeCount) + 1) & ~1;
+        for (int i = 0; i < stripeCount; i++) {
+            final StripeTask stripe = this.stripes[i];
+            stripe.reinitialize();
+            stripe.rowStart = Math.min(height, i * rowsPerStripe);
+            stripe.rowEnd = i == stripeCount - 1 ? height : Math.min(height, (i + 1) * rowsPerStripe);
+        }
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(this.stripes);
+        } else {
+            this.pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(YuvFrameConverter.this.stripes);
+                }
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (this.fallback != null) {
+            this.fallback.close();
+            this.fallback = null;
+        }
+    }
+
+    /**
+     * Converts rows {@code [rowStart, rowEnd)}, {@code rowStart} is always even.
+     */
+    protected abstract void convertRows(Planes planes, int rowStart, int rowEnd);
+
+    /**
+     * Scalar conversion of the pixels {@code [xStart, width)} of one row, also used for the tail of vector loops.
+     */
+    protected static void convertRowScalar(final Planes planes, final int row, final int xStart) {
+        final YuvColorMatrix matrix = planes.matrix;
+        final int yRow = row * planes.yStride;
+        final int chromaRow = (row >> 1) * planes.uStride;
+        final int vRow = (row >> 1) * planes.vStride;
+        final int bgraRow = row * planes.bgraStride;
+        for (int x = xStart; x < planes.width; x++) {
+            final int y = planes.y.get(yRow + x) & 0xFF;
+            final int u;
+            final int v;
+            if (planes.nv12) {
+                u = planes.u.get(chromaRow + (x & ~1)) & 0xFF;
+                v = planes.u.get(chromaRow + (x & ~1) + 1) & 0xFF;
+            } else {
+                u = planes.u.get(chromaRow + (x >> 1)) & 0xFF;
+                v = planes.v.get(vRow + (x >> 1)) & 0xFF;
+            }
+            planes.bgra.putInt(bgraRow + x * 4, matrix.toBgra(y, u, v));
+        }
+    }
+
+    private static ByteBuffer plane(final BytePointer data, final long size) {
+        return data.capacity(size).limit(size).asByteBuffer();
+    }
+
+    /**
+     * Planes and layout of the frame being converted.
+     */
+    protected static final class Planes {
+        protected int width;
+        protected boolean nv12;
+        protected YuvColorMatrix matrix;
+        protected ByteBuffer y;
+        protected ByteBuffer u;
+        protected ByteBuffer v;
+        protected ByteBuffer bgra;
+        protected int yStride;
+        protected int uStride;
+        protected int vStride;
+        protected int bgraStride;
+    }
+
+    // fork/join tasks are never serialized
+    @SuppressWarnings("serial")
+    private final class StripeTask extends RecursiveAction {
+        private int rowStart;
+        private int rowEnd;
+
+        @Override
+        protected void compute() {
+            if (this.rowStart < this.rowEnd) {
+                YuvFrameConverter.this.convertRows(YuvFrameConverter.this.planes, this.rowStart, this.rowEnd);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.grill.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.ffmpeg.avcodec.AVCodecContext.FF_THREAD_SLICE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes {@code example_data/example.h264} through the whole pipeline.
+ */
+@EnabledIf(ExampleStream.FFMPEG_AVAILABLE)
+class DecodePipelineTest {
+
+    private static final int FAULT_INTERVAL = 7;
+    // the example stream is all IDR, only every n-th is presented as key frame so the recovery has to skip
+    private static final int KEY_FRAME_INTERVAL = 10;
+    // recovery of a file runs at decoding speed, a few frames take milliseconds
+    private static final long MAX_RECOVERY_NANOS = 2_000_000_000L;
+    // far longer than decoding the file takes, the replay starts at the oldest retained key frame
+    private static final long REPLAY_ALL_NANOS = 3_600_000_000_000L;
+    // holds the whole example file
+    private static final long PACKET_STORE_SIZE = 1 << 20;
+
+    /**
+     * Decodes the file with a single slice thread, so frames leave the decoder in the order the access units
+     * were sent and every error is reported for the access unit that caused it.
+     *
+     * @return pts of the clean frames in output order, the pts is the access unit index
+     */
+    static List<Long> decode(final int faultInterval, final int keyFrameInterval, final DecoderMetrics metrics)
+            throws IOException, InterruptedException {
+        return DecodePipelineTest.decode(faultInterval, keyFrameInterval, metrics, null, -1);
+    }
+
+    /**
+     * Like {@link #decode(int, int, DecoderMetrics)}, keeps the access units in {@code store} and requests a replay
+     * of everything retained once the frame with pts {@code replayAfterPts} was output.
+     */
+    static List<Long> decode(final int faultInterval, final int keyFrameInterval, final DecoderMetrics metrics,
+                             final PacketRingStore store, final long replayAfterPts) throws IOException, InterruptedException {
+        final H264ParameterSets parameterSets = H264ParameterSets.scan(ExampleStream.FILE, 16);
+        assertNotNull(parameterSets, "no SPS/PPS in " + ExampleStream.FILE);
+        final DecoderSettings settings = new DecoderSettings()
+                .hwAccel(false)
+                .explode(true)
+                .threadType(FF_THREAD_SLICE)
+                .threadCount(1)
+                .parameterSets(parameterSets);
+        final List<Long> frames = new ArrayList<>();
+        try (final VideoDecoder videoDecoder = VideoDecoder.open(settings);
+             final AVFramePool framePool = new AVFramePool(8);
+             final AVPacketPool packetPool = new AVPacketPool(8,
+                     AVPacketPool.bufferSizeFor(parameterSets.sps().width(), parameterSets.sps().height()))) {
+            assertNotNull(videoDecoder, "unable to open decoder with " + settings);
+            final DecodePipeline[] replayed = new DecodePipeline[1];
+            final DecodePipeline pipeline = new DecodePipeline(videoDecoder, framePool, packetPool, 4,
+                    BackpressurePolicy.BLOCK, metrics, new StreamRecovery(null, 0, metrics), frame -> {
+                frames.add(frame.pts());
+                if (frame.pts() == replayAfterPts && replayed[0] != null) {
+                    replayed[0].replay(DecodePipelineTest.REPLAY_ALL_NANOS);
+                    replayed[0] = null;
+                }
+            });
+            pipeline.faultInjectionInterval(faultInterval);
+            pipeline.keyFrameInterval(keyFrameInterval);
+            if (store != null) {
+                pipeline.packetStore(store);
+                replayed[0] = pipeline;
+            }
+            pipeline.start(ExampleStream.FILE);
+            pipeline.awaitCompletion();
+            pipeline.stop();
+        }
+        return frames;
+    }
+
+    /**
+     * @return whether each access unit of the file is presented as key frame with the given key frame interval
+     */
+    static List<Boolean> keyFrames(final int keyFrameInterval) throws IOException {
+        final List<Boolean> keyFrames = new ArrayList<>();
+        try (final AnnexBReader reader = new AnnexBReader(ExampleStream.FILE)) {
+            while (reader.nextAccessUnit()) {
+                keyFrames.add((reader.isKeyFrame() || reader.isRecoveryPoint()) && keyFrames.size() % keyFrameInterval == 0);
+            }
+        }
+        return keyFrames;
+    }
+
+    @Test
+    @Timeout(60)
+    void decodesEveryAccessUnit() throws IOException, InterruptedException {
+        final int accessUnits = DecodePipelineTest.keyFrames(1).size();
+        final DecoderMetrics metrics = new DecoderMetrics();
+        final List<Long> frames = DecodePipelineTest.decode(0, 1, metrics);
+        assertEquals(accessUnits, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(i, frames.get(i).longValue());
+        }
+        assertEquals(0, metrics.snapshot().decodeErrors());
+        assertEquals(0, metrics.snapshot().skippedAccessUnits());
+    }
+
+    @Test
+    @Timeout(60)
+    void recoversOnTheNextKeyFrameAfterEachFault() throws IOException, InterruptedException {
+        final List<Boolean> keyFrames = DecodePipelineTest.keyFrames(DecodePipelineTest.KEY_FRAME_INTERVAL);
+        final DecoderMetrics metrics = new DecoderMetrics();
+        final List<Long> frames = DecodePipelineTest.decode(DecodePipelineTest.FAULT_INTERVAL,
+                DecodePipelineTest.KEY_FRAME_INTERVAL, metrics);
+
+        int faults = 0;
+        for (int fault = DecodePipelineTest.FAULT_INTERVAL - 1; fault < keyFrames.size(); fault += DecodePipelineTest.FAULT_INTERVAL) {
+            int nextKeyFrame = fault + 1;
+            while (nextKeyFrame < keyFrames.size() && !keyFrames.get(nextKeyFrame)) {
+                nextKeyFrame++;
+            }
+            if (nextKeyFrame == keyFrames.size()) {
+                break;
+            }
+            faults++;
+            long firstClean = -1;
+            for (final long pts : frames) {
+                if (pts >= fault) {
+                    firstClean = pts;
+                    break;
+                }
+            }
+            // the corrupt access unit and everything up to the next key frame is lost, nothing more
+            assertEquals(nextKeyFrame - fault, firstClean - fault, "frames until the first clean frame after the fault at " + fault);
+        }
+        assertTrue(faults > 0, "no fault injected into " + keyFrames.size() + " access units");
+        for (int fault = DecodePipelineTest.FAULT_INTERVAL - 1; fault < keyFrames.size(); fault += DecodePipelineTest.FAULT_INTERVAL) {
+            assertFalse(frames.contains((long) fault), "corrupt access unit " + fault + " was output");
+        }
+        final DecoderMetrics.Snapshot snapshot = metrics.snapshot();
+        assertTrue(snapshot.decodeErrors() >= faults, "decode errors " + snapshot.decodeErrors());
+
+        // replay of the recovery: a corrupt stream skips everything up to the next key frame
+        boolean corrupt = false;
+        long skipped = 0;
+        long recoveries = 0;
+        for (int i = 0; i < keyFrames.size(); i++) {
+            if (corrupt && !keyFrames.get(i)) {
+                skipped++;
+                continue;
+            }
+            final boolean fault = i % DecodePipelineTest.FAULT_INTERVAL == DecodePipelineTest.FAULT_INTERVAL - 1;
+            if (corrupt && !fault) {
+                recoveries++;
+            }
+            corrupt = fault;
+        }
+        assertTrue(skipped > 0, "no access unit skipped");
+        assertEquals(skipped, snapshot.skippedAccessUnits());
+        final DecoderMetrics.StageStatistics recovery = snapshot.stage(DecoderMetrics.Stage.RECOVERY);
+        assertEquals(recoveries, recovery.count(), "recoveries " + recovery);
+        assertTrue(recovery.max() > 0 && recovery.max() < DecodePipelineTest.MAX_RECOVERY_NANOS, "recovery " + recovery);
+    }
+
+    @Test
+    @Timeout(60)
+    void replaysFromThePacketStore() throws IOException, InterruptedException {
+        final int accessUnits = DecodePipelineTest.keyFrames(1).size();
+        final DecoderMetrics metrics = new DecoderMetrics();
+        final List<Long> frames;
+        try (final PacketRingStore store = PacketRingStore.inMemory(DecodePipelineTest.PACKET_STORE_SIZE, accessUnits)) {
+            frames = DecodePipelineTest.decode(0, DecodePipelineTest.KEY_FRAME_INTERVAL, metrics, store,
+                    DecodePipelineTest.KEY_FRAME_INTERVAL);
+            assertEquals(accessUnits, store.nextSequence());
+            assertEquals(0, store.evictedGops());
+        }
+
+        // live up to the access unit the replay was served before, everything stored again, then the rest live
+        int replayed = 1;
+        while (replayed < frames.size() && frames.get(replayed) > frames.get(replayed - 1)) {
+            replayed++;
+        }
+        assertTrue(replayed > DecodePipelineTest.KEY_FRAME_INTERVAL && replayed < accessUnits, "replayed " + replayed + " access units");
+        assertEquals(accessUnits + replayed, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            final long expected = i < replayed ? i : i - replayed;
+            assertEquals(expected, frames.get(i).longValue(), "pts of frame " + i);
+        }
+        assertEquals(0, metrics.snapshot().decodeErrors());
+    }
+}
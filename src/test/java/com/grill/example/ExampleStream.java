@@ -0,0 +1,37 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacpp.Loader;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The example stream the decoding tests run on. Tests decoding with FFmpeg are annotated with
+ * {@code @EnabledIf(ExampleStream.FFMPEG_AVAILABLE)} and are skipped where the natives for the platform can not
+ * be loaded.
+ */
+final class ExampleStream {
+
+    static final Path FILE = Paths.get("example_data", "example.h264");
+
+    static final String FFMPEG_AVAILABLE = "com.grill.example.ExampleStream#ffmpegAvailable";
+
+    private static final boolean NATIVES_LOADED = ExampleStream.loadNatives();
+
+    private ExampleStream() {
+    }
+
+    static boolean ffmpegAvailable() {
+        return ExampleStream.NATIVES_LOADED;
+    }
+
+    private static boolean loadNatives() {
+        try {
+            Loader.load(avcodec.class);
+            return true;
+        } catch (final LinkageError e) {
+            return false;
+        }
+    }
+}
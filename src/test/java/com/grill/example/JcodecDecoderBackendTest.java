@@ -0,0 +1,97 @@
+package com.grill.example;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Decodes {@code example_data/example.h264} with the pure Java backend. Only the comparison with FFmpeg needs
+ * the FFmpeg natives, reading the file needs the JavaCPP ones.
+ */
+class JcodecDecoderBackendTest {
+
+    private static final List<ByteBuffer> accessUnits = new ArrayList<>();
+    private static final List<Boolean> keyFrames = new ArrayList<>();
+    private static DecoderSettings settings;
+
+    @BeforeAll
+    static void readAccessUnits() throws IOException {
+        try (final AnnexBReader reader = new AnnexBReader(ExampleStream.FILE)) {
+            while (reader.nextAccessUnit()) {
+                final byte[] data = new byte[reader.size()];
+                reader.data().get(data);
+                final ByteBuffer accessUnit = ByteBuffer.allocateDirect(data.length);
+                accessUnit.put(data).flip();
+                JcodecDecoderBackendTest.accessUnits.add(accessUnit);
+                JcodecDecoderBackendTest.keyFrames.add(reader.isKeyFrame());
+            }
+        }
+        final H264ParameterSets parameterSets = H264ParameterSets.scan(ExampleStream.FILE, 16);
+        assertNotNull(parameterSets, "no SPS/PPS in " + ExampleStream.FILE);
+        JcodecDecoderBackendTest.settings = new DecoderSettings().hwAccel(false).threadCount(1).parameterSets(parameterSets);
+    }
+
+    /**
+     * Sends every access unit with its index as pts, drains the backend at the end.
+     *
+     * @return pts, size and MD5 of every frame in output order
+     */
+    private static List<String> decode(final String backend) {
+        final List<String> frames = new ArrayList<>();
+        try (final DecoderBackend decoder = DecoderBackend.open(backend, JcodecDecoderBackendTest.settings);
+             final FrameChecksum checksum = new FrameChecksum()) {
+            for (int i = 0; i < JcodecDecoderBackendTest.accessUnits.size(); i++) {
+                final ByteBuffer accessUnit = JcodecDecoderBackendTest.accessUnits.get(i);
+                int result;
+                while ((result = decoder.send(accessUnit, i, JcodecDecoderBackendTest.keyFrames.get(i))) == DecoderBackend.AGAIN) {
+                    JcodecDecoderBackendTest.receiveFrames(decoder, checksum, frames);
+                }
+                assertEquals(DecoderBackend.OK, result, backend + " failed on access unit " + i);
+                JcodecDecoderBackendTest.receiveFrames(decoder, checksum, frames);
+            }
+            decoder.drain();
+            JcodecDecoderBackendTest.receiveFrames(decoder, checksum, frames);
+        }
+        return frames;
+    }
+
+    private static void receiveFrames(final DecoderBackend decoder, final FrameChecksum checksum, final List<String> frames) {
+        DecodedFrame frame;
+        while ((frame = decoder.receive()) != null) {
+            frames.add(frame.pts() + " " + frame.width() + "x" + frame.height() + " " + checksum.md5(frame));
+            decoder.release(frame);
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void decodesEveryAccessUnitInOrder() {
+        final List<String> frames = JcodecDecoderBackendTest.decode(JcodecDecoderBackend.NAME);
+        assertEquals(JcodecDecoderBackendTest.accessUnits.size(), frames.size());
+        final String size = JcodecDecoderBackendTest.settings.width() + "x" + JcodecDecoderBackendTest.settings.height();
+        for (int i = 0; i < frames.size(); i++) {
+            final String[] frame = frames.get(i).split(" ");
+            assertEquals(String.valueOf(i), frame[0], "pts of frame " + i);
+            assertEquals(size, frame[1], "size of frame " + i);
+        }
+    }
+
+    /**
+     * H.264 decoding is specified bit exactly, a conforming decoder has no tolerance.
+     */
+    @Test
+    @Timeout(60)
+    @EnabledIf(ExampleStream.FFMPEG_AVAILABLE)
+    void matchesFFmpeg() {
+        assertEquals(JcodecDecoderBackendTest.decode(FFmpegDecoderBackend.NAME), JcodecDecoderBackendTest.decode(JcodecDecoderBackend.NAME));
+    }
+}
@@ -0,0 +1,137 @@
+package com.grill.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives {@link JitterBuffer} with a synthetic clock: frames of a 30 fps stream with 90 kHz RTP timestamps
+ * arrive after a fixed network delay plus random jitter.
+ */
+class JitterBufferTest {
+
+    private static final long MILLIS = 1_000_000L;
+    private static final long FRAME_INTERVAL_NANOS = 33_333_333L;
+    private static final long PTS_STEP = RtpIngest.CLOCK_RATE / 30;
+    private static final long NETWORK_DELAY_NANOS = 5 * JitterBufferTest.MILLIS;
+    private static final long MIN_DELAY_NANOS = 16 * JitterBufferTest.MILLIS;
+    private static final long MAX_DELAY_NANOS = 200 * JitterBufferTest.MILLIS;
+    // unwrapped RTP timestamps start anywhere, these cross 2^32 after a few frames
+    private static final long FIRST_PTS = 0xFFFF_F000L;
+
+    private final List<Long> dropped = new ArrayList<>();
+
+    private JitterBuffer<Long> buffer(final JitterBuffer.LatePolicy latePolicy) {
+        return new JitterBuffer<>(8, RtpIngest.CLOCK_RATE, JitterBufferTest.FRAME_INTERVAL_NANOS, JitterBufferTest.MIN_DELAY_NANOS,
+                JitterBufferTest.MAX_DELAY_NANOS, latePolicy, this.dropped::add);
+    }
+
+    private static long pts(final int frame) {
+        return JitterBufferTest.FIRST_PTS + frame * JitterBufferTest.PTS_STEP;
+    }
+
+    private static long mediaTime(final int frame) {
+        return JitterBufferTest.pts(frame) * 1_000_000_000L / RtpIngest.CLOCK_RATE;
+    }
+
+    /**
+     * Offers {@code frames} frames with uniformly distributed jitter and polls on every refresh of a 60 Hz display.
+     *
+     * @return frames the display received
+     */
+    private static int play(final JitterBuffer<Long> buffer, final int frames, final long jitterNanos, final long seed) {
+        final Random random = new Random(seed);
+        final long refresh = JitterBufferTest.FRAME_INTERVAL_NANOS / 2;
+        long now = JitterBufferTest.mediaTime(0);
+        int shown = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            final long jitter = jitterNanos == 0 ? 0 : (long) (random.nextDouble() * jitterNanos);
+            final long arrival = JitterBufferTest.mediaTime(frame) + JitterBufferTest.NETWORK_DELAY_NANOS + jitter;
+            while (now < arrival) {
+                if (buffer.poll(now) != null) {
+                    shown++;
+                }
+                now += refresh;
+            }
+            buffer.offer((long) frame, JitterBufferTest.pts(frame), arrival);
+        }
+        return shown;
+    }
+
+    @Test
+    void targetDelayStaysAtMinimumWithoutJitter() {
+        final JitterBuffer<Long> buffer = this.buffer(JitterBuffer.LatePolicy.DROP);
+        final int shown = JitterBufferTest.play(buffer, 300, 0, 1);
+        assertEquals(0, buffer.jitterNanos());
+        assertEquals(JitterBufferTest.MIN_DELAY_NANOS, buffer.targetDelayNanos());
+        assertEquals(0, buffer.lateFrames());
+        // the last frames are still buffered
+        assertTrue(shown >= 298, "shown " + shown);
+    }
+
+    @Test
+    void targetDelayFollowsJitter() {
+        final JitterBuffer<Long> buffer = this.buffer(JitterBuffer.LatePolicy.DROP);
+        final long jitter = 20 * JitterBufferTest.MILLIS;
+        final int shown = JitterBufferTest.play(buffer, 600, jitter, 2);
+        // the RFC 3550 estimate of uniform jitter in [0, J) converges to J / 3, the target is three times that
+        assertEquals(jitter / 3.0, buffer.jitterNanos(), jitter / 6.0);
+        assertTrue(buffer.targetDelayNanos() > JitterBufferTest.MIN_DELAY_NANOS, "target " + buffer.targetDelayNanos());
+        assertTrue(buffer.targetDelayNanos() < JitterBufferTest.MAX_DELAY_NANOS, "target " + buffer.targetDelayNanos());
+        assertTrue(shown >= 590, "shown " + shown);
+        assertTrue(buffer.lateFrames() <= 5, "late " + buffer.lateFrames());
+    }
+
+    @Test
+    void targetDelayIsClampedToMaximum() {
+        final JitterBuffer<Long> buffer = this.buffer(JitterBuffer.LatePolicy.DROP);
+        JitterBufferTest.play(buffer, 300, 500 * JitterBufferTest.MILLIS, 3);
+        assertEquals(JitterBufferTest.MAX_DELAY_NANOS, buffer.targetDelayNanos());
+    }
+
+    @Test
+    void lateFrameIsDropped() {
+        final JitterBuffer<Long> buffer = this.buffer(JitterBuffer.LatePolicy.DROP);
+        JitterBufferTest.play(buffer, 100, 0, 4);
+        this.dropped.clear();
+        // due at media time + network delay + target delay, arrives 100 ms after that
+        final long arrival = JitterBufferTest.mediaTime(100) + JitterBufferTest.NETWORK_DELAY_NANOS
+                + buffer.targetDelayNanos() + 100 * JitterBufferTest.MILLIS;
+        assertFalse(buffer.offer(100L, JitterBufferTest.pts(100), arrival));
+        assertEquals(1, buffer.lateFrames());
+        assertEquals(List.of(100L), this.dropped);
+    }
+
+    @Test
+    void lateFrameIsDisplayed() {
+        final JitterBuffer<Long> buffer = this.buffer(JitterBuffer.LatePolicy.DISPLAY);
+        JitterBufferTest.play(buffer, 100, 0, 5);
+        final long arrival = JitterBufferTest.mediaTime(100) + JitterBufferTest.NETWORK_DELAY_NANOS
+                + buffer.targetDelayNanos() + 100 * JitterBufferTest.MILLIS;
+        assertTrue(buffer.offer(100L, JitterBufferTest.pts(100), arrival));
+        assertEquals(1, buffer.lateFrames());
+        assertEquals(Long.valueOf(100), buffer.poll(arrival));
+    }
+
+    @Test
+    void lostAccessUnitDoesNotShiftPlayout() {
+        final JitterBuffer<Long> buffer = this.buffer(JitterBuffer.LatePolicy.DROP);
+        JitterBufferTest.play(buffer, 100, 0, 6);
+        while (buffer.poll(Long.MAX_VALUE) != null) {
+            // empty the buffer
+        }
+        // frames 100 to 104 were lost, 105 is still due at its own media time
+        final long due = JitterBufferTest.mediaTime(105) + JitterBufferTest.NETWORK_DELAY_NANOS + JitterBufferTest.MIN_DELAY_NANOS;
+        assertTrue(buffer.offer(105L, JitterBufferTest.pts(105), JitterBufferTest.mediaTime(105) + JitterBufferTest.NETWORK_DELAY_NANOS));
+        assertNull(buffer.poll(due - JitterBufferTest.MILLIS));
+        assertEquals(Long.valueOf(105), buffer.poll(due + JitterBufferTest.MILLIS));
+        assertEquals(0, buffer.jitterNanos());
+    }
+}
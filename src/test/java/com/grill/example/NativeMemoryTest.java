@@ -0,0 +1,118 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacpp.Pointer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.io.IOException;
+
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.bytedeco.ffmpeg.global.avutil.AVERROR_EAGAIN;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes {@code example_data/example.h264} over and over with pooled packets and frames and checks that native
+ * memory stays flat once the pools and the decoder are warmed up.
+ */
+@EnabledIf(ExampleStream.FFMPEG_AVAILABLE)
+class NativeMemoryTest {
+
+    private static final int PASSES = 60;
+    private static final int WARMUP_PASSES = 2;
+    // resident memory also moves with the Java heap and the allocator, a leaked frame per decoded frame is far more
+    private static final long PHYSICAL_BYTES_TOLERANCE = 32L << 20;
+
+    @Test
+    @Timeout(300)
+    void nativeMemoryStaysFlat() throws IOException {
+        final H264ParameterSets parameterSets = H264ParameterSets.scan(ExampleStream.FILE, 16);
+        assertNotNull(parameterSets, "no SPS/PPS in " + ExampleStream.FILE);
+        final DecoderSettings settings = new DecoderSettings()
+                .hwAccel(false)
+                .parameterSets(parameterSets);
+
+        final NativeResources.Usage before = NativeResources.usage();
+        long frames = 0;
+        try (final VideoDecoder videoDecoder = VideoDecoder.open(settings);
+             final AVFramePool framePool = new AVFramePool(4);
+             final AVPacketPool packetPool = new AVPacketPool(4,
+                     AVPacketPool.bufferSizeFor(parameterSets.sps().width(), parameterSets.sps().height()))) {
+            assertNotNull(videoDecoder, "unable to open decoder with " + settings);
+            final AVCodecContext context = videoDecoder.context();
+
+            NativeResources.Usage warm = null;
+            long warmPhysicalBytes = 0;
+            long warmTotalBytes = 0;
+            for (int pass = 0; pass < NativeMemoryTest.PASSES; pass++) {
+                if (pass == NativeMemoryTest.WARMUP_PASSES) {
+                    warm = NativeResources.usage();
+                    warmPhysicalBytes = Pointer.physicalBytes();
+                    warmTotalBytes = Pointer.totalBytes();
+                }
+                frames += NativeMemoryTest.decodeFile(context, framePool, packetPool);
+            }
+            final NativeResources.Usage end = NativeResources.usage();
+
+            assertTrue(frames > 1000, "decoded " + frames + " frames");
+            for (final NativeResources.Type type : NativeResources.Type.values()) {
+                assertEquals(warm.objects(type), end.objects(type), type + " objects, warm " + warm + ", end " + end);
+                assertEquals(warm.bytes(type), end.bytes(type), type + " bytes, warm " + warm + ", end " + end);
+            }
+            assertEquals(warmTotalBytes, Pointer.totalBytes(), "JavaCPP deallocator bytes");
+            final long growth = Pointer.physicalBytes() - warmPhysicalBytes;
+            assertTrue(growth < NativeMemoryTest.PHYSICAL_BYTES_TOLERANCE,
+                    "physical memory grew by " + Pointer.formatBytes(growth) + " over " + frames + " frames");
+        }
+
+        // closing the pools and the decoder releases everything the run allocated
+        final NativeResources.Usage after = NativeResources.usage();
+        for (final NativeResources.Type type : NativeResources.Type.values()) {
+            assertEquals(before.objects(type), after.objects(type), type + " objects, before " + before + ", after " + after);
+        }
+    }
+
+    /**
+     * Sends every access unit of the file and receives every frame, the way the decoder thread does.
+     *
+     * @return frames decoded
+     */
+    private static long decodeFile(final AVCodecContext context, final AVFramePool framePool, final AVPacketPool packetPool)
+            throws IOException {
+        long frames = 0;
+        try (final AnnexBReader reader = new AnnexBReader(ExampleStream.FILE)) {
+            while (reader.nextAccessUnit()) {
+                final AVPacket pkt = packetPool.acquire(reader.data(), reader.size(), reader.isKeyFrame());
+                assertNotNull(pkt, "packet pool exhausted");
+                int err;
+                while ((err = avcodec_send_packet(context, pkt)) == AVERROR_EAGAIN()) {
+                    frames += NativeMemoryTest.receiveFrames(context, framePool);
+                }
+                packetPool.release(pkt);
+                assertTrue(err >= 0, "avcodec_send_packet failed with " + err);
+                frames += NativeMemoryTest.receiveFrames(context, framePool);
+            }
+        }
+        return frames;
+    }
+
+    private static long receiveFrames(final AVCodecContext context, final AVFramePool framePool) {
+        long frames = 0;
+        for (; ; ) {
+            final AVFrame frame = framePool.acquire();
+            assertNotNull(frame, "frame pool exhausted");
+            final int result = avcodec_receive_frame(context, frame);
+            framePool.release(frame);
+            if (result < 0) {
+                return frames;
+            }
+            frames++;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.io.IOException;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Appends more than the budget of a {@link PacketRingStore} and checks what is evicted and what readers get.
+ * Access units are filled with their sequence number and have ten times the sequence as pts.
+ */
+class PacketRingStoreTest {
+
+    private static final int BUDGET = 1000;
+    private static final int MAX_ENTRIES = 64;
+    // a GOP is one key frame and two other access units, two GOPs fill the budget exactly
+    private static final int KEY_FRAME_SIZE = 300;
+    private static final int ACCESS_UNIT_SIZE = 100;
+    private static final int GOP_LENGTH = 3;
+
+    private static boolean append(final PacketRingStore store, final int size, final boolean keyFrame) {
+        final long sequence = store.nextSequence();
+        try (final BytePointer data = new BytePointer(size)) {
+            Pointer.memset(data, (int) sequence, size);
+            return store.append(data, size, sequence * 10, keyFrame, sequence);
+        }
+    }
+
+    private static void appendGops(final PacketRingStore store, final int gops) {
+        for (int gop = 0; gop < gops; gop++) {
+            assertTrue(PacketRingStoreTest.append(store, PacketRingStoreTest.KEY_FRAME_SIZE, true));
+            for (int i = 1; i < PacketRingStoreTest.GOP_LENGTH; i++) {
+                assertTrue(PacketRingStoreTest.append(store, PacketRingStoreTest.ACCESS_UNIT_SIZE, false));
+            }
+        }
+    }
+
+    @Test
+    void evictsWholeGops() throws IOException {
+        try (final PacketRingStore store = PacketRingStore.inMemory(PacketRingStoreTest.BUDGET, PacketRingStoreTest.MAX_ENTRIES)) {
+            PacketRingStoreTest.appendGops(store, 2);
+            assertEquals(0, store.evictedGops());
+            assertEquals(0, store.firstSequence());
+
+            // the third key frame does not fit anymore, the first GOP goes as a whole
+            PacketRingStoreTest.appendGops(store, 1);
+            assertEquals(1, store.evictedGops());
+            assertEquals(PacketRingStoreTest.GOP_LENGTH, store.firstSequence());
+            assertEquals(2, store.retainedGops());
+            assertEquals(store.firstSequence(), store.keyFrameAtOrBefore(Long.MIN_VALUE), "first sequence is no key frame");
+
+            for (int gop = 3; gop < 20; gop++) {
+                PacketRingStoreTest.appendGops(store, 1);
+                assertEquals(gop - 1, store.evictedGops());
+                assertEquals(store.firstSequence(), store.keyFrameAtOrBefore(Long.MIN_VALUE), "first sequence is no key frame");
+                assertEquals(0, store.firstSequence() % PacketRingStoreTest.GOP_LENGTH);
+            }
+            assertEquals(0, store.rejectedAccessUnits());
+        }
+    }
+
+    @Test
+    void findsTheKeyFrameAtOrBeforeAPts() throws IOException {
+        try (final PacketRingStore store = PacketRingStore.inMemory(PacketRingStoreTest.BUDGET, PacketRingStoreTest.MAX_ENTRIES)) {
+            assertEquals(-1, store.keyFrameAtOrBefore(0));
+            // key frames 3 and 6 with pts 30 and 60 are retained
+            PacketRingStoreTest.appendGops(store, 3);
+            assertEquals(3, store.keyFrameAtOrBefore(30));
+            assertEquals(3, store.keyFrameAtOrBefore(59));
+            assertEquals(6, store.keyFrameAtOrBefore(60));
+            assertEquals(6, store.keyFrameAtOrBefore(Long.MAX_VALUE));
+            // before the retained stream, the oldest key frame is the best start
+            assertEquals(3, store.keyFrameAtOrBefore(0));
+            // by arrival, which is the sequence here
+            assertEquals(6, store.replayStart(2));
+            assertEquals(3, store.replayStart(5));
+            assertEquals(3, store.replayStart(1000));
+        }
+    }
+
+    @Test
+    void rejectsAccessUnitsWithoutRetainedKeyFrame() throws IOException {
+        try (final PacketRingStore store = PacketRingStore.inMemory(PacketRingStoreTest.BUDGET, PacketRingStoreTest.MAX_ENTRIES)) {
+            assertFalse(PacketRingStoreTest.append(store, PacketRingStoreTest.ACCESS_UNIT_SIZE, false));
+            assertEquals(1, store.rejectedAccessUnits());
+            assertEquals(0, store.nextSequence());
+
+            // a GOP larger than the budget evicts its own key frame
+            assertTrue(PacketRingStoreTest.append(store, 600, true));
+            assertFalse(PacketRingStoreTest.append(store, 600, false));
+            assertEquals(2, store.rejectedAccessUnits());
+            assertEquals(1, store.evictedGops());
+            assertEquals(0, store.retainedGops());
+            assertEquals(-1, store.keyFrameAtOrBefore(Long.MAX_VALUE));
+
+            assertFalse(PacketRingStoreTest.append(store, PacketRingStoreTest.BUDGET + 1, true));
+            assertEquals(3, store.rejectedAccessUnits());
+            assertTrue(PacketRingStoreTest.append(store, PacketRingStoreTest.ACCESS_UNIT_SIZE, true));
+        }
+    }
+
+    @Test
+    @EnabledIf(ExampleStream.FFMPEG_AVAILABLE)
+    void readsRetainedAccessUnitsOnly() throws IOException {
+        try (final PacketRingStore store = PacketRingStore.inMemory(PacketRingStoreTest.BUDGET, PacketRingStoreTest.MAX_ENTRIES);
+             final AVPacketPool pool = new AVPacketPool(1, PacketRingStoreTest.BUDGET)) {
+            PacketRingStoreTest.appendGops(store, 3);
+            assertNull(store.read(store.firstSequence() - 1, pool), "evicted sequence");
+            assertNull(store.read(store.nextSequence(), pool), "sequence not written yet");
+
+            for (long sequence = store.firstSequence(); sequence < store.nextSequence(); sequence++) {
+                final AVPacket packet = store.read(sequence, pool);
+                assertNotNull(packet, "retained sequence " + sequence);
+                final boolean keyFrame = sequence % PacketRingStoreTest.GOP_LENGTH == 0;
+                assertEquals(keyFrame ? PacketRingStoreTest.KEY_FRAME_SIZE : PacketRingStoreTest.ACCESS_UNIT_SIZE, packet.size());
+                assertEquals(keyFrame, (packet.flags() & AV_PKT_FLAG_KEY) != 0);
+                assertEquals(sequence * 10, packet.pts());
+                final byte[] data = new byte[packet.size()];
+                packet.data().get(data);
+                for (final byte b : data) {
+                    assertEquals((byte) sequence, b, "payload of sequence " + sequence);
+                }
+                pool.release(packet);
+            }
+        }
+    }
+}
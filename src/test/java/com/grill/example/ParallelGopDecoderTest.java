@@ -0,0 +1,113 @@
+package com.grill.example;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_frame;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_packet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link ParallelGopDecoder} against a sequential decode of {@code example_data/example.h264}.
+ */
+@EnabledIf(ExampleStream.FFMPEG_AVAILABLE)
+class ParallelGopDecoderTest {
+
+    private static final int WORKERS = 4;
+    // raised to the segment queue size, several segments for the example file either way
+    private static final int MIN_SEGMENT_ACCESS_UNITS = 1;
+
+    private static DecoderSettings settings() throws IOException {
+        final H264ParameterSets parameterSets = H264ParameterSets.scan(ExampleStream.FILE, 16);
+        assertNotNull(parameterSets, "no SPS/PPS in " + ExampleStream.FILE);
+        return new DecoderSettings().hwAccel(false).threadCount(1).parameterSets(parameterSets);
+    }
+
+    /**
+     * One context decoding the whole file, with the access unit index as pts like the parallel decoder sets it.
+     *
+     * @return pts and MD5 of every frame in output order
+     */
+    private static List<String> decodeSequential(final DecoderSettings settings) throws IOException {
+        final List<String> frames = new ArrayList<>();
+        try (final VideoDecoder decoder = VideoDecoder.open(settings);
+             final AVFramePool framePool = new AVFramePool(1);
+             final AVPacketPool packetPool = new AVPacketPool(1, AVPacketPool.bufferSizeFor(settings.width(), settings.height()));
+             final FrameChecksum checksum = new FrameChecksum();
+             final AnnexBReader reader = new AnnexBReader(ExampleStream.FILE)) {
+            assertNotNull(decoder, "unable to open decoder with " + settings);
+            final AVCodecContext context = decoder.context();
+            final AVFrame frame = framePool.acquire();
+            long index = 0;
+            while (reader.nextAccessUnit()) {
+                final AVPacket packet = packetPool.acquire(reader.data(), reader.size(), reader.isKeyFrame());
+                packet.pts(index);
+                packet.dts(index);
+                index++;
+                final int result = avcodec_send_packet(context, packet);
+                packetPool.release(packet);
+                assertTrue(result >= 0, "avcodec_send_packet failed with " + result);
+                while (avcodec_receive_frame(context, frame) == 0) {
+                    frames.add(frame.pts() + " " + checksum.md5(frame));
+                }
+            }
+            avcodec_send_packet(context, null);
+            while (avcodec_receive_frame(context, frame) == 0) {
+                frames.add(frame.pts() + " " + checksum.md5(frame));
+            }
+            framePool.release(frame);
+        }
+        return frames;
+    }
+
+    @Test
+    @Timeout(60)
+    void matchesSequentialDecode() throws IOException {
+        final DecoderSettings settings = ParallelGopDecoderTest.settings();
+        final List<String> expected = ParallelGopDecoderTest.decodeSequential(settings);
+        assertTrue(ParallelGopDecoder.index(ExampleStream.FILE, ParallelGopDecoderTest.MIN_SEGMENT_ACCESS_UNITS).size() > 1);
+
+        final List<String> actual = new ArrayList<>();
+        try (final ParallelGopDecoder decoder = new ParallelGopDecoder(settings, ParallelGopDecoderTest.WORKERS,
+                ParallelGopDecoderTest.MIN_SEGMENT_ACCESS_UNITS);
+             final FrameChecksum checksum = new FrameChecksum()) {
+            final long frames = decoder.decode(ExampleStream.FILE, frame -> actual.add(frame.pts() + " " + checksum.md5(frame)));
+            assertEquals(actual.size(), frames);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    @Timeout(60)
+    void releasesQueuedFramesWhenOutputFails() throws IOException {
+        final DecoderSettings settings = ParallelGopDecoderTest.settings();
+        final long liveFrames = NativeResources.liveObjects(NativeResources.Type.FRAME);
+        try (final ParallelGopDecoder decoder = new ParallelGopDecoder(settings, ParallelGopDecoderTest.WORKERS,
+                ParallelGopDecoderTest.MIN_SEGMENT_ACCESS_UNITS)) {
+            final IllegalStateException failure = new IllegalStateException("output failed");
+            final int[] outputFrames = {0};
+            assertEquals(failure, assertThrows(IllegalStateException.class, () -> decoder.decode(ExampleStream.FILE, frame -> {
+                if (++outputFrames[0] == 3) {
+                    throw failure;
+                }
+            })));
+
+            // the workers were not left blocked on their queues, the contexts and frames are available again
+            final long frames = decoder.decode(ExampleStream.FILE, frame -> {
+            });
+            assertEquals(ParallelGopDecoderTest.decodeSequential(settings).size(), frames);
+        }
+        assertEquals(liveFrames, NativeResources.liveObjects(NativeResources.Type.FRAME));
+    }
+}